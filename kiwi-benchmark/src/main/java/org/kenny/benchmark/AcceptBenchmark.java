@@ -0,0 +1,115 @@
+package org.kenny.benchmark;
+
+import kenny.net.Acceptor;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts per second when the acceptor finds {@code backlog} connections
+ * waiting in the listen queue.  The connections are established while accepting
+ * is disabled, then the benchmark enables accepting and waits until the backlog
+ * is drained.  {@code maxAcceptsPerWakeup = 1} costs a select() per connection,
+ * which is how the acceptor worked before the accept batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcceptBenchmark {
+
+    @Param({"16", "256", "1024"})
+    public int backlog;
+
+    @Param({"1", "16", "64"})
+    public int maxAcceptsPerWakeup;
+
+    private NIOEventLoop loop;
+    private ServerSocketChannel listenChannel;
+    private Acceptor acceptor;
+    private InetSocketAddress address;
+    private SocketChannel[] clients;
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Accepts {
+        public long accepts;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        loop = LoopThreads.start("accept-loop");
+        listenChannel = Acceptor.bind("127.0.0.1", 0, false, Acceptor.DEFAULT_BACKLOG);
+        address = (InetSocketAddress) listenChannel.getLocalAddress();
+        acceptor = new Acceptor(loop, listenChannel);
+        acceptor.setMaxAcceptsPerWakeup(maxAcceptsPerWakeup);
+        acceptor.setAcceptCallback(channel -> {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            // Stop right after the backlog of this invocation is drained
+            if (accepted.incrementAndGet() == backlog) {
+                loop.unregisterAccept(listenChannel);
+            }
+        });
+        clients = new SocketChannel[backlog];
+    }
+
+    @Setup(Level.Invocation)
+    public void fillBacklog() throws IOException {
+        accepted.set(0);
+        // connect() returns once the connection is in the listen queue
+        for (int i = 0; i < backlog; i++) {
+            SocketChannel client = SocketChannel.open();
+            client.setOption(StandardSocketOptions.SO_LINGER, 0);
+            client.connect(address);
+            clients[i] = client;
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeClients() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        listenChannel.close();
+    }
+
+    @Benchmark
+    public int drainBacklog(Accepts counters) {
+        loop.runInLoop(acceptor::accept);
+        while (accepted.get() < backlog) {
+            Thread.yield();
+        }
+        counters.accepts += backlog;
+        return backlog;
+    }
+}
@@ -0,0 +1,166 @@
+package org.kenny.benchmark;
+
+import kenny.net.Connection;
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.PooledBufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out latency of one 64-byte tick to {@code subscribers} connections
+ * spread over two I/O loops, until every loop has handed the tick to all its
+ * connections.
+ * <p>
+ * {@code broadcast} calls KiwiServer.broadcast() with a pooled buffer, which
+ * costs one task per loop.  {@code send} calls Connection.send() with a
+ * duplicate of the tick for every connection from the benchmark thread, which
+ * costs one task per connection.  Run with {@code -prof gc} for the
+ * allocation per tick.  Every subscriber takes two file descriptors of this
+ * process, the larger counts need a higher open files limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8190;
+    private static final int TICK_SIZE = 64;
+    private static final int IO_THREADS = 2;
+
+    @Param({"1000", "10000", "100000"})
+    public int subscribers;
+
+    @Param({"broadcast", "send"})
+    public String mode;
+
+    private KiwiServer server;
+    private final ConcurrentLinkedQueue<Connection> accepted = new ConcurrentLinkedQueue<>();
+    private List<Connection> connections;
+    private List<NIOEventLoop> ioLoops;
+    private final PooledBufferFactory bufferFactory = new PooledBufferFactory();
+    private final ByteBuffer tick = ByteBuffer.allocateDirect(TICK_SIZE);
+
+    private Selector drainSelector;
+    private Thread drainThread;
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("broadcast-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "TickServer", HOST, PORT);
+            server.setThreadNum(IO_THREADS);
+            server.setConnectFinishCallback(accepted::add);
+            server.start();
+            started.countDown();
+        });
+        started.await();
+
+        drainSelector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress(HOST, PORT);
+        for (int i = 0; i < subscribers; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            client.configureBlocking(false);
+            clients.add(client);
+        }
+        while (server.getConnectionCount() < subscribers || accepted.size() < subscribers) {
+            Thread.sleep(10);
+        }
+        connections = new ArrayList<>(accepted);
+        Set<NIOEventLoop> loops = new LinkedHashSet<>();
+        for (Connection connection : connections) {
+            loops.add(connection.getLoop());
+        }
+        ioLoops = new ArrayList<>(loops);
+
+        // Subscribers discard the ticks, so that the server never queues them
+        for (SocketChannel client : clients) {
+            client.register(drainSelector, SelectionKey.OP_READ);
+        }
+        drainThread = new Thread(this::drain, "broadcast-subscribers");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    private void drain() {
+        ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                drainSelector.select();
+                Iterator<SelectionKey> keys = drainSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    sink.clear();
+                    if (((SocketChannel) key.channel()).read(sink) < 0) {
+                        key.cancel();
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        // select() returns once the thread is interrupted
+        drainThread.interrupt();
+        drainThread.join();
+        drainSelector.close();
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public Object fanOut() throws InterruptedException {
+        if ("broadcast".equals(mode)) {
+            Buffer message = bufferFactory.getBuffer(TICK_SIZE);
+            message.writeBytes(tick.duplicate());
+            return server.broadcast(message).join();
+        }
+        for (Connection connection : connections) {
+            connection.send(tick.duplicate());
+        }
+        // The tasks of a loop run in order, the marker runs after the sends
+        CountDownLatch queued = new CountDownLatch(ioLoops.size());
+        for (NIOEventLoop ioLoop : ioLoops) {
+            ioLoop.runInLoop(queued::countDown);
+        }
+        queued.await();
+        return queued;
+    }
+}
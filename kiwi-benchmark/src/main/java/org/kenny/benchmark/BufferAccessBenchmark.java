@@ -0,0 +1,91 @@
+package org.kenny.benchmark;
+
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferHelpler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primitive get/set on heap and direct buffers of both byte orders.
+ * Scores are per primitive access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferAccessBenchmark {
+    private static final int SIZE = 4096;
+    private static final int LONGS = SIZE / 8;
+
+    @Param({"heap", "direct"})
+    public String bufferType;
+
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    private Buffer buffer;
+
+    @Setup
+    public void setUp() {
+        ByteOrder byteOrder = "BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        buffer = "direct".equals(bufferType)
+                ? BufferHelpler.directBuffer(byteOrder, SIZE)
+                : BufferHelpler.buffer(byteOrder, SIZE);
+        for (int i = 0; i < LONGS; i++) {
+            buffer.setLong(i * 8, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONGS)
+    public void setLong() {
+        for (int i = 0; i < LONGS; i++) {
+            buffer.setLong(i * 8, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONGS)
+    public long getLong() {
+        long sum = 0;
+        for (int i = 0; i < LONGS; i++) {
+            sum += buffer.getLong(i * 8);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE / 4)
+    public int getInt() {
+        int sum = 0;
+        for (int i = 0; i < SIZE / 4; i++) {
+            sum += buffer.getInt(i * 4);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int getByte() {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            sum += buffer.getByte(i);
+        }
+        return sum;
+    }
+}
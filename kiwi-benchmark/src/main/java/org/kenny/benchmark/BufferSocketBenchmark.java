@@ -0,0 +1,120 @@
+package org.kenny.benchmark;
+
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferHelpler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket write through {@code getBytes(GatheringByteChannel)} and read through
+ * {@code setBytes(ScatteringByteChannel)} on heap and direct buffers, over a
+ * loopback connection whose other end is served by a background thread.
+ * The JDK copies a heap buffer to a temporary direct buffer on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferSocketBenchmark {
+
+    @Param({"heap", "direct"})
+    public String bufferType;
+
+    @Param({"1024", "16384", "65536"})
+    public int size;
+
+    private ServerSocketChannel acceptor;
+    // The benchmark writes to writeChannel and reads from readChannel
+    private SocketChannel writeChannel;
+    private SocketChannel readChannel;
+    private Buffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        writeChannel = SocketChannel.open(acceptor.getLocalAddress());
+        SocketChannel sink = acceptor.accept();
+        startDaemon("socket-sink", () -> {
+            ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+            while (true) {
+                buf.clear();
+                if (sink.read(buf) < 0) {
+                    return;
+                }
+            }
+        });
+
+        readChannel = SocketChannel.open(acceptor.getLocalAddress());
+        SocketChannel source = acceptor.accept();
+        startDaemon("socket-source", () -> {
+            ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+            while (true) {
+                buf.clear();
+                source.write(buf);
+            }
+        });
+
+        buffer = "direct".equals(bufferType) ? BufferHelpler.directBuffer(size) : BufferHelpler.buffer(size);
+        buffer.writerIndex(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writeChannel.close();
+        readChannel.close();
+        acceptor.close();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        int written = 0;
+        while (written < size) {
+            written += buffer.getBytes(written, writeChannel, size - written);
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return buffer.setBytes(0, readChannel, size);
+    }
+
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+
+    private static void startDaemon(String name, IORunnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
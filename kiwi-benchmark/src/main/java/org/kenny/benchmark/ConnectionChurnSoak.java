@@ -0,0 +1,126 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test of the connection registry of KiwiServer.
+ * <p>
+ * Opens and closes {@code connections} connections, {@code concurrency} at
+ * a time.  Every client sends one message and resets its connection.  The
+ * heap is measured after a full GC once the first tenth of the connections is
+ * done and at the end, the test fails if it has grown by more than
+ * {@code maxGrowthMiB} or if the server still counts live connections once
+ * all the clients are gone.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.ConnectionChurnSoak
+ * [connections] [concurrency] [ioThreads] [maxGrowthMiB]
+ */
+public class ConnectionChurnSoak {
+    private static final int PORT = 8180;
+    private static final ByteBuffer HELLO = ByteBuffer.wrap(new byte[64]);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int ioThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        long maxGrowth = (args.length > 3 ? Long.parseLong(args[3]) : 8) << 20;
+
+        AtomicLong received = new AtomicLong();
+        NIOEventLoop loop = LoopThreads.start("soak-loop");
+        KiwiServer[] server = new KiwiServer[1];
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server[0] = new KiwiServer(loop, "SoakServer", "127.0.0.1", PORT);
+            server[0].setThreadNum(ioThreads);
+            server[0].setMessageCallback((channel, connection, buffer) -> {
+                received.addAndGet(buffer.remaining());
+                buffer.position(buffer.limit());
+            });
+            server[0].start();
+            started.countDown();
+        });
+        started.await();
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+        SocketChannel[] clients = new SocketChannel[concurrency];
+        long baseline = -1;
+        long start = System.nanoTime();
+        for (int done = 0; done < connections; done += concurrency) {
+            int batch = Math.min(concurrency, connections - done);
+            for (int i = 0; i < batch; i++) {
+                SocketChannel client = SocketChannel.open(address);
+                // Reset on close, so that no port is left in TIME_WAIT
+                client.setOption(StandardSocketOptions.SO_LINGER, 0);
+                client.write(HELLO.duplicate());
+                clients[i] = client;
+            }
+            for (int i = 0; i < batch; i++) {
+                close(clients[i]);
+                clients[i] = null;
+            }
+            int total = done + batch;
+            if (baseline < 0 && total >= connections / 10) {
+                awaitNoConnections(server[0]);
+                baseline = usedHeap();
+                System.out.printf("%,d connections, baseline heap %,d bytes%n", total, baseline);
+            } else if (total % 100_000 < concurrency) {
+                System.out.printf("%,d connections, %,d live, %.0f connections/s%n", total,
+                        server[0].getConnectionCount(), total / ((System.nanoTime() - start) / 1e9));
+            }
+        }
+
+        boolean drained = awaitNoConnections(server[0]);
+        long used = usedHeap();
+        long growth = used - baseline;
+        System.out.printf("%,d connections in %.1f s, %,d bytes received, %d live, heap %,d bytes (%+,d)%n",
+                connections, (System.nanoTime() - start) / 1e9, received.get(),
+                server[0].getConnectionCount(), used, growth);
+        if (!drained || growth > maxGrowth) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+        System.exit(0);
+    }
+
+    // The server learns about the resets asynchronously
+    private static boolean awaitNoConnections(KiwiServer server) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (server.getConnectionCount() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few rounds, a single System.gc() may leave some garbage behind
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
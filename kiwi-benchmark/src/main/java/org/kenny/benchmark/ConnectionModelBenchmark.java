@@ -0,0 +1,87 @@
+package org.kenny.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second of an echo server written with a message callback,
+ * with a blocking handler over the loop, and with a platform thread per
+ * connection, see EchoServers.
+ * <p>
+ * Every benchmark thread sends 64-byte requests on a connection of its own
+ * and waits for each echo.  The blocking handler runs on virtual threads on
+ * JDK 21 and later, on platform threads before.  ConnectionModelFootprint
+ * measures the memory per connection of the same servers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ConnectionModelBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8250;
+    private static final int IO_THREADS = 2;
+    private static final int MESSAGE_SIZE = 64;
+
+    @Param({"callback", "blocking", "thread"})
+    public String model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        EchoServers.start(model, PORT, MESSAGE_SIZE, IO_THREADS);
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private SocketChannel channel;
+        private final ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+
+        @Setup(Level.Trial)
+        public void connect(ConnectionModelBenchmark benchmark) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public int echo(Client client) throws IOException {
+        ByteBuffer message = client.message;
+        message.clear();
+        while (message.hasRemaining()) {
+            client.channel.write(message);
+        }
+        message.clear();
+        while (message.hasRemaining()) {
+            if (client.channel.read(message) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+        return message.position();
+    }
+}
@@ -0,0 +1,97 @@
+package org.kenny.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory per idle connection of an echo server written with a message
+ * callback, with a blocking handler over the loop, and with a platform thread
+ * per connection, see EchoServers.
+ * <p>
+ * Every client sends one message, waits for its echo and stays idle, so the
+ * handlers are blocked in a read.  The heap is measured after a full GC, the
+ * resident set size of the process includes the stacks of the threads, which
+ * the heap does not.  The clients are in the same process, their share is the
+ * same for every model.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.ConnectionModelFootprint
+ * [connections] [callback|blocking|thread]
+ */
+public class ConnectionModelFootprint {
+    private static final int PORT = 8260;
+    private static final int MESSAGE_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String model = args.length > 1 ? args[1] : "blocking";
+        EchoServers.start(model, PORT, MESSAGE_SIZE, 2);
+
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+        ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            message.clear();
+            client.write(message);
+            message.clear();
+            while (message.hasRemaining()) {
+                client.read(message);
+            }
+            clients.add(client);
+        }
+        long heapAfter = usedHeap();
+        long rssAfter = residentSetSize();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        System.out.printf("%s, %d connections: %,d bytes of heap and %,d bytes resident per connection, "
+                        + "%d more platform threads%n", model, connections, (heapAfter - heapBefore) / connections,
+                (rssAfter - rssBefore) / connections, threadsAfter - threadsBefore);
+        for (SocketChannel client : clients) {
+            close(client);
+        }
+        System.exit(0);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few rounds, a single System.gc() may leave some garbage behind
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    // VmRSS of /proc/self/status, 0 where there is no procfs
+    private static long residentSetSize() throws IOException {
+        if (!Files.exists(Paths.get("/proc/self/status"))) {
+            return 0;
+        }
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        return 0;
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
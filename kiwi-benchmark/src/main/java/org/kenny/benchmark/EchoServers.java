@@ -0,0 +1,94 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Starts servers echoing fixed size messages with the three connection models
+ * compared by the benchmarks: {@code callback}, a KiwiServer with a message
+ * callback, {@code blocking}, a KiwiServer with a blocking handler on virtual
+ * threads if the runtime has them, and {@code thread}, a ServerSocket with a
+ * platform thread per connection.
+ */
+final class EchoServers {
+    private EchoServers() {
+    }
+
+    static void start(String model, int port, int messageSize, int ioThreads) throws Exception {
+        if ("thread".equals(model)) {
+            startThreadPerConnection(port, messageSize);
+            return;
+        }
+        NIOEventLoop loop = LoopThreads.start(model + "-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            KiwiServer server = new KiwiServer(loop, "EchoServer", "127.0.0.1", port);
+            server.setThreadNum(ioThreads);
+            if ("blocking".equals(model)) {
+                server.setBlockingHandler(connection -> {
+                    byte[] message = new byte[messageSize];
+                    while (true) {
+                        connection.readFully(message, 0, messageSize);
+                        connection.write(message, 0, messageSize);
+                    }
+                });
+            } else {
+                server.setMessageCallback((channel, connection, buffer) -> {
+                    while (buffer.remaining() >= messageSize) {
+                        ByteBuffer echo = ByteBuffer.allocate(messageSize);
+                        int limit = buffer.limit();
+                        buffer.limit(buffer.position() + messageSize);
+                        echo.put(buffer).flip();
+                        buffer.limit(limit);
+                        connection.send(echo);
+                    }
+                });
+            }
+            server.start();
+            started.countDown();
+        });
+        started.await();
+    }
+
+    private static void startThreadPerConnection(int port, int messageSize) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 1024, InetAddress.getByName("127.0.0.1"));
+        daemon(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    daemon(() -> echo(socket, messageSize), "echo-" + socket.getPort());
+                }
+            } catch (IOException ignored) {
+            }
+        }, "echo-acceptor");
+    }
+
+    private static void echo(Socket socket, int messageSize) {
+        byte[] message = new byte[messageSize];
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                in.readFully(message);
+                out.write(message);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,99 @@
+package org.kenny.benchmark;
+
+import kenny.base.EventCallback;
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferHelpler;
+import kenny.net.buffer.BufferIndexFinder;
+import kenny.net.codec.DelimiterFrameDecoder;
+import kenny.net.codec.FixedLengthFrameDecoder;
+import kenny.net.codec.FrameDecoder;
+import kenny.net.codec.LengthFieldFrameDecoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second cut by the frame decoders.
+ * <p>
+ * A stream of at least 4 MiB of frames is fed to the decoder in 64 KiB
+ * buffers, the way a connection hands over its reads, so the frames larger
+ * than a read are cumulated over several buffers.  The callback touches the
+ * frame length only, the score is the cost of framing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int MIN_STREAM_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_FRAME_LENGTH = 2 * 1024 * 1024;
+
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    public int frameSize;
+
+    @Param({"length", "delimiter", "fixed"})
+    public String decoderType;
+
+    private byte[] stream;
+    private int framesPerStream;
+    private FrameDecoder decoder;
+    private long frameBytes;
+    private final EventCallback.FrameCallback callback = (connection, frame) -> frameBytes += frame.readableBytes();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Frames {
+        public long frames;
+    }
+
+    @Setup
+    public void setUp() {
+        framesPerStream = Math.max(4, MIN_STREAM_SIZE / frameSize);
+        stream = new byte[framesPerStream * frameSize];
+        Buffer writer = BufferHelpler.wrappedBuffer(stream);
+        writer.clear();
+        for (int i = 0; i < framesPerStream; i++) {
+            // Every frame is frameSize bytes on the wire, header or delimiter included
+            if ("length".equals(decoderType)) {
+                writer.writeInt(frameSize - 4);
+                writer.writeZero(frameSize - 4);
+            } else if ("delimiter".equals(decoderType)) {
+                writer.writeZero(frameSize - 1);
+                writer.writeByte('\n');
+            } else {
+                writer.writeZero(frameSize);
+            }
+        }
+        if ("length".equals(decoderType)) {
+            decoder = new LengthFieldFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4);
+        } else if ("delimiter".equals(decoderType)) {
+            decoder = new DelimiterFrameDecoder(MAX_FRAME_LENGTH, true, BufferIndexFinder.LF);
+        } else {
+            decoder = new FixedLengthFrameDecoder(frameSize);
+        }
+    }
+
+    @Benchmark
+    public long decodeStream(Frames counters) {
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            int length = Math.min(READ_SIZE, stream.length - offset);
+            decoder.decode(null, BufferHelpler.wrappedBuffer(stream, offset, length), callback);
+        }
+        counters.frames += framesPerStream;
+        return frameBytes;
+    }
+}
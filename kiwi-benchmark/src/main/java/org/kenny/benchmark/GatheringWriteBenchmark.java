@@ -0,0 +1,118 @@
+package org.kenny.benchmark;
+
+import kenny.net.Connection;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of Connection.send() over loopback when the output queue builds up.
+ * The sender has a small socket send buffer, so most messages are queued and
+ * written by handleWrite(). {@code maxWriteIovecs = 1} writes one buffer per
+ * write call, which is how the queue was drained before gathering writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GatheringWriteBenchmark {
+    private static final int MESSAGES = 256;
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"64", "512", "4096", "65536"})
+    public int messageSize;
+
+    @Param({"1", "64"})
+    public int maxWriteIovecs;
+
+    private NIOEventLoop loop;
+    private ServerSocketChannel acceptor;
+    private SocketChannel receiver;
+    private Connection connection;
+    private Thread reader;
+    private ByteBuffer payload;
+    private final AtomicLong received = new AtomicLong();
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        loop = LoopThreads.start("gathering-write-loop");
+        acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver = SocketChannel.open(acceptor.getLocalAddress());
+        SocketChannel sender = acceptor.accept();
+        sender.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+        sender.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        sender.configureBlocking(false);
+
+        connection = new Connection(loop, "gathering-write", sender);
+        connection.setWriteLimits(maxWriteIovecs, Connection.DEFAULT_MAX_BYTES_PER_WRITE);
+        loop.runInLoop(connection::connectEstablished);
+
+        payload = ByteBuffer.allocate(messageSize);
+        reader = new Thread(this::read, "gathering-write-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read() {
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        try {
+            while (true) {
+                buffer.clear();
+                int n = receiver.read(buffer);
+                if (n < 0) {
+                    return;
+                }
+                received.addAndGet(n);
+            }
+        } catch (IOException e) {
+            // closed by tearDown
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        receiver.close();
+        acceptor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long send() {
+        expected += (long) MESSAGES * messageSize;
+        loop.runInLoop(() -> {
+            for (int i = 0; i < MESSAGES; i++) {
+                connection.send(payload.duplicate());
+            }
+        });
+        while (received.get() < expected) {
+            Thread.yield();
+        }
+        return expected;
+    }
+}
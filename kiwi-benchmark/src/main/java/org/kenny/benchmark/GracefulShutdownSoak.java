@@ -0,0 +1,131 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many of the bytes a server has sent reach its clients when it
+ * is shut down under load.
+ * <p>
+ * Every client sends an 8-byte request each milli-second and the server
+ * answers each with 16 KB, while the clients only read half as fast, so the
+ * server queues megabytes of responses per connection.  After
+ * {@code loadMillis} the server is shut down with KiwiServer.shutdownGracefully(),
+ * and the clients read until the server closes their connection.  The test
+ * fails unless every byte the server has sent is received, which needs a
+ * {@code timeoutMillis} long enough to write the queued responses.  A short
+ * timeout shows how much is lost when the connections are closed at once.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.GracefulShutdownSoak
+ * [clients] [loadMillis] [timeoutMillis] [ioThreads]
+ */
+public class GracefulShutdownSoak {
+    private static final int PORT = 8220;
+    private static final int REQUEST_SIZE = 8;
+    private static final int RESPONSE_SIZE = 16 * 1024;
+    private static final ByteBuffer RESPONSE = ByteBuffer.wrap(new byte[RESPONSE_SIZE]);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long loadMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        long timeoutMillis = args.length > 2 ? Long.parseLong(args[2]) : 10_000;
+        int ioThreads = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        AtomicLong sent = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+        NIOEventLoop loop = LoopThreads.start("shutdown-loop");
+        KiwiServer[] server = new KiwiServer[1];
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server[0] = new KiwiServer(loop, "ShutdownServer", "127.0.0.1", PORT);
+            server[0].setThreadNum(ioThreads);
+            server[0].setMessageCallback((channel, connection, buffer) -> {
+                while (buffer.remaining() >= REQUEST_SIZE) {
+                    buffer.position(buffer.position() + REQUEST_SIZE);
+                    connection.send(RESPONSE.duplicate());
+                    sent.addAndGet(RESPONSE_SIZE);
+                }
+            });
+            server[0].start();
+            started.countDown();
+        });
+        started.await();
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch closed = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            threads.add(daemon(() -> request(client), "requester-" + i));
+            threads.add(daemon(() -> {
+                read(client, received);
+                closed.countDown();
+            }, "reader-" + i));
+        }
+        threads.forEach(Thread::start);
+
+        Thread.sleep(loadMillis);
+        long start = System.nanoTime();
+        CompletableFuture<Void> terminated = server[0].shutdownGracefully(100, timeoutMillis, TimeUnit.MILLISECONDS);
+        terminated.get(timeoutMillis + 5_000, TimeUnit.MILLISECONDS);
+        long shutdownMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        boolean allClosed = closed.await(5, TimeUnit.SECONDS);
+
+        System.out.printf("%d clients, shut down in %d ms, %,d bytes sent, %,d received (%.2f%%)%n",
+                clients, shutdownMillis, sent.get(), received.get(), 100.0 * received.get() / sent.get());
+        if (!allClosed || received.get() != sent.get()) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+        System.exit(0);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // Sends a request every milli-second until the connection is closed
+    private static void request(SocketChannel client) {
+        ByteBuffer request = ByteBuffer.allocate(REQUEST_SIZE);
+        try {
+            while (true) {
+                request.clear();
+                client.write(request);
+                Thread.sleep(1);
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    // Reads at about half the rate of the responses, until the end of stream
+    private static void read(SocketChannel client, AtomicLong received) {
+        ByteBuffer sink = ByteBuffer.allocate(RESPONSE_SIZE);
+        try {
+            int n;
+            while ((n = client.read(sink)) >= 0) {
+                received.addAndGet(n);
+                if (!sink.hasRemaining()) {
+                    sink.clear();
+                    Thread.sleep(2);
+                }
+            }
+            client.close();
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.kenny.benchmark;
+
+import kenny.net.AdaptiveRecvBufferAllocator;
+import kenny.net.FixedRecvBufferAllocator;
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import kenny.net.RecvBufferAllocator;
+import kenny.net.buffer.BufferFactory;
+import kenny.net.buffer.HeapBufferFactory;
+import kenny.net.buffer.PooledBufferFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap used per idle connection of a KiwiServer.
+ * <p>
+ * Every client sends one small message and then stays idle.  In the
+ * {@code partial} scenario the server treats the message as the beginning of
+ * a larger frame and leaves it in the input buffer, so the connection keeps its
+ * buffer, in the {@code consumed} scenario the message is consumed and the
+ * buffer is given back.  The heap is measured after a full GC before and after
+ * the connections are opened, the clients are in the same process, their
+ * share is the same for every allocator.  The buffers of the {@code pooled}
+ * factory are direct, the memory held by its pool is reported as well.
+ * <p>
+ * Then one more client sends 16 KiB messages one at a time, so that the
+ * connection is never idle for long, and the bytes allocated by the loop
+ * thread per read are reported.  They include the buffer of each read unless the factory
+ * recycles it.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.IdleConnectionFootprint
+ * [connections] [fixed|adaptive] [consumed|partial] [pooled|heap]
+ */
+public class IdleConnectionFootprint {
+    private static final int PORT = 8140;
+    private static final ByteBuffer HELLO = ByteBuffer.wrap(new byte[100]);
+    // The bytes of the busy client, which are always consumed
+    private static final byte BUSY = 1;
+    private static final int BUSY_MESSAGE_SIZE = 16 * 1024;
+    private static final int BUSY_MESSAGES = 20000;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String allocatorName = args.length > 1 ? args[1] : "adaptive";
+        boolean consume = !(args.length > 2 && "partial".equals(args[2]));
+        RecvBufferAllocator allocator = "fixed".equals(allocatorName)
+                ? new FixedRecvBufferAllocator(65536) : new AdaptiveRecvBufferAllocator();
+        String factoryName = args.length > 3 ? args[3] : "pooled";
+        BufferFactory factory = "heap".equals(factoryName)
+                ? HeapBufferFactory.getInstance() : new PooledBufferFactory();
+
+        AtomicInteger received = new AtomicInteger();
+        AtomicLong busyReads = new AtomicLong();
+        AtomicLong busyBytes = new AtomicLong();
+        AtomicLong loopThreadId = new AtomicLong();
+        NIOEventLoop loop = LoopThreads.start("footprint-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            loopThreadId.set(Thread.currentThread().getId());
+            KiwiServer server = new KiwiServer(loop, "FootprintServer", "127.0.0.1", PORT);
+            server.setRecvBufferAllocator(allocator);
+            server.setBufferFactory(factory);
+            server.setMessageCallback((channel, connection, buffer) -> {
+                if (buffer.get(buffer.position()) == BUSY) {
+                    busyBytes.addAndGet(buffer.remaining());
+                    buffer.position(buffer.limit());
+                    busyReads.incrementAndGet();
+                    return;
+                }
+                if (consume) {
+                    buffer.position(buffer.limit());
+                }
+                received.incrementAndGet();
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+
+        long before = usedHeap();
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            client.write(HELLO.duplicate());
+            clients.add(client);
+        }
+        while (received.get() < connections) {
+            Thread.sleep(10);
+        }
+        long after = usedHeap();
+
+        System.out.printf("%s allocator, %s factory, %s input, %d connections: %,d bytes of heap per connection%n",
+                allocatorName, factoryName, consume ? "consumed" : "partial", connections,
+                (after - before) / connections);
+        if (factory instanceof PooledBufferFactory) {
+            System.out.printf("%,d bytes of direct memory held by the pool%n",
+                    ((PooledBufferFactory) factory).getPooledMemory());
+        }
+
+        long allocatedPerRead = allocatedPerRead(address, loopThreadId.get(), busyReads, busyBytes);
+        System.out.printf("%,d bytes allocated by the loop thread per read%n", allocatedPerRead);
+        for (SocketChannel client : clients) {
+            close(client);
+        }
+        System.exit(0);
+    }
+
+    // Sends the messages one at a time, waiting until each one is read
+    private static long allocatedPerRead(InetSocketAddress address, long loopThreadId,
+                                         AtomicLong busyReads, AtomicLong busyBytes) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] bytes = new byte[BUSY_MESSAGE_SIZE];
+        Arrays.fill(bytes, BUSY);
+        ByteBuffer message = ByteBuffer.wrap(bytes);
+        long allocated = 0;
+        long reads = 0;
+        try (SocketChannel client = SocketChannel.open(address)) {
+            // The first half warms the loop and the pool up
+            for (int i = 0; i < BUSY_MESSAGES * 2; i++) {
+                if (i == BUSY_MESSAGES) {
+                    allocated = threads.getThreadAllocatedBytes(loopThreadId);
+                    reads = busyReads.get();
+                }
+                ByteBuffer duplicate = message.duplicate();
+                while (duplicate.hasRemaining()) {
+                    client.write(duplicate);
+                }
+                while (busyBytes.get() < (long) (i + 1) * BUSY_MESSAGE_SIZE) {
+                    Thread.yield();
+                }
+            }
+            allocated = threads.getThreadAllocatedBytes(loopThreadId) - allocated;
+            reads = busyReads.get() - reads;
+        }
+        return allocated / reads;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few rounds, a single System.gc() may leave some garbage behind
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.kenny.benchmark;
+
+import kenny.net.IoThreadFactory;
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Echo throughput of four I/O loops on unpinned threads, and on threads
+ * pinned to distinct cores.
+ * <p>
+ * The pinned threads are set up by a subclass of IoThreadFactory, which
+ * runs {@code taskset} on the Linux thread id of each new thread before it
+ * runs its loop, core {@code n} for the {@code n}th loop.  Every benchmark
+ * thread sends 64-byte messages on a connection of its own and waits for the
+ * echo.  The difference only shows on a box with more cores than loops and
+ * benchmark threads, on a single core box both runs are the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class IoThreadAffinityBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8210;
+    private static final int IO_THREADS = 4;
+    private static final int MESSAGE_SIZE = 64;
+
+    @Param({"none", "pinned"})
+    public String affinity;
+
+    private KiwiServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("affinity-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "EchoServer", HOST, PORT);
+            server.setThreadNum(IO_THREADS);
+            if ("pinned".equals(affinity)) {
+                server.setIoThreadFactory(new PinnedThreadFactory("echo-io"));
+            }
+            server.setMessageCallback((channel, connection, buffer) -> {
+                ByteBuffer echo = ByteBuffer.allocate(buffer.remaining());
+                echo.put(buffer).flip();
+                connection.send(echo);
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+    }
+
+    /**
+     * Pins the {@code n}th thread to core {@code n}, modulo the cores.
+     */
+    private static final class PinnedThreadFactory extends IoThreadFactory {
+        PinnedThreadFactory(String prefix) {
+            super(prefix);
+        }
+
+        @Override
+        protected Thread newThread(Runnable r, int index) {
+            int core = index % Runtime.getRuntime().availableProcessors();
+            return super.newThread(() -> {
+                pin(core);
+                r.run();
+            }, index);
+        }
+
+        private static void pin(int core) {
+            try {
+                // "<pid>/task/<tid>"
+                String self = Files.readSymbolicLink(Paths.get("/proc/thread-self")).toString();
+                String tid = self.substring(self.lastIndexOf('/') + 1);
+                Process taskset = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(core), tid)
+                        .redirectErrorStream(true)
+                        .redirectOutput(new File("/dev/null"))
+                        .start();
+                if (taskset.waitFor() != 0) {
+                    throw new IllegalStateException("taskset failed for core " + core);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not pin the thread to core " + core, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private SocketChannel channel;
+        private final ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+
+        @Setup(Level.Trial)
+        public void connect(IoThreadAffinityBenchmark benchmark) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public int echo(Client client) throws IOException {
+        ByteBuffer message = client.message;
+        message.clear();
+        while (message.hasRemaining()) {
+            client.channel.write(message);
+        }
+        message.clear();
+        while (message.hasRemaining()) {
+            if (client.channel.read(message) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+        return message.position();
+    }
+}
@@ -0,0 +1,190 @@
+package org.kenny.benchmark;
+
+import kenny.net.Connection;
+import kenny.net.KiwiServer;
+import kenny.net.LoopSelectionStrategy;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ping latency under a skewed load, for each way of choosing the loop of a
+ * new connection.
+ * <p>
+ * Connections are opened in groups of four, the first of each group streams
+ * bulk data which the server hashes, the other three send 8-byte pings which
+ * the server echoes.  With round robin over four loops, all the bulk
+ * connections end up on the same loop, and the pings which share it wait
+ * behind the hashing.  {@code ping} measures the round trip on each ping
+ * connection in turn.  The share of busy time of every loop is printed at the
+ * end of the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopSelectionBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8200;
+    private static final int IO_THREADS = 4;
+    private static final int GROUPS = 4;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final byte PING = 1;
+
+    @Param({"ROUND_ROBIN", "LEAST_CONNECTIONS", "LEAST_PENDING_TASKS", "POWER_OF_TWO_CHOICES"})
+    public LoopSelectionStrategy strategy;
+
+    private KiwiServer server;
+    private final ConcurrentLinkedQueue<Connection> accepted = new ConcurrentLinkedQueue<>();
+    private final List<SocketChannel> bulkClients = new ArrayList<>();
+    private final List<SocketChannel> pingClients = new ArrayList<>();
+    private Thread bulkSender;
+    private volatile boolean running = true;
+    private final ByteBuffer ping = ByteBuffer.allocateDirect(8);
+    private int next = 0;
+    private static volatile long sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("selection-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "SkewServer", HOST, PORT);
+            server.setThreadNum(IO_THREADS);
+            server.setLoopSelectionStrategy(strategy);
+            server.setConnectFinishCallback(accepted::add);
+            server.setMessageCallback((channel, connection, buffer) -> {
+                if (buffer.get(buffer.position()) == PING) {
+                    ByteBuffer echo = ByteBuffer.allocate(buffer.remaining());
+                    echo.put(buffer).flip();
+                    connection.send(echo);
+                } else {
+                    sink += hash(buffer);
+                }
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+
+        bulkSender = new Thread(this::sendBulk, "bulk-sender");
+        bulkSender.setDaemon(true);
+        InetSocketAddress address = new InetSocketAddress(HOST, PORT);
+        for (int group = 0; group < GROUPS; group++) {
+            SocketChannel bulk = SocketChannel.open(address);
+            bulk.configureBlocking(false);
+            synchronized (bulkClients) {
+                bulkClients.add(bulk);
+            }
+            if (group == 0) {
+                bulkSender.start();
+            }
+            // Let the loops measure the new load before the next connections
+            Thread.sleep(300);
+            for (int i = 0; i < 3; i++) {
+                pingClients.add(SocketChannel.open(address));
+            }
+        }
+    }
+
+    // Hashes the bytes a few times, about the cost of decoding them
+    private static long hash(ByteBuffer buffer) {
+        long h = 0;
+        for (int round = 0; round < 4; round++) {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                h = h * 31 + buffer.get(i);
+            }
+        }
+        buffer.position(buffer.limit());
+        return h;
+    }
+
+    private void sendBulk() {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        try {
+            while (running) {
+                List<SocketChannel> clients;
+                synchronized (bulkClients) {
+                    clients = new ArrayList<>(bulkClients);
+                }
+                for (SocketChannel client : clients) {
+                    chunk.clear();
+                    client.write(chunk);
+                }
+                Thread.sleep(1);
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        bulkSender.join();
+        Set<NIOEventLoop> loops = new LinkedHashSet<>();
+        for (Connection connection : accepted) {
+            loops.add(connection.getLoop());
+        }
+        long total = 0;
+        for (NIOEventLoop loop : loops) {
+            total += loop.getBusyNanos();
+        }
+        StringBuilder shares = new StringBuilder();
+        for (NIOEventLoop loop : loops) {
+            shares.append(String.format(" %.0f%%", 100.0 * loop.getBusyNanos() / total));
+        }
+        System.out.println("\n" + strategy + " busy time per loop:" + shares);
+        for (SocketChannel client : bulkClients) {
+            client.close();
+        }
+        for (SocketChannel client : pingClients) {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int ping() throws IOException {
+        SocketChannel client = pingClients.get(next);
+        if (++next == pingClients.size()) {
+            next = 0;
+        }
+        ping.clear();
+        ping.put(0, PING);
+        while (ping.hasRemaining()) {
+            client.write(ping);
+        }
+        ping.clear();
+        while (ping.hasRemaining()) {
+            if (client.read(ping) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+        return ping.position();
+    }
+}
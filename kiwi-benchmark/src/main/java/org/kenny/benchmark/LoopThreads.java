@@ -0,0 +1,41 @@
+package org.kenny.benchmark;
+
+import kenny.net.NIOEventLoop;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Starts NIOEventLoops on their own daemon threads.
+ */
+final class LoopThreads {
+    private LoopThreads() {
+    }
+
+    static NIOEventLoop start(String name) throws InterruptedException {
+        return start(name, NIOEventLoop::new);
+    }
+
+    // EventLoop is bound to the thread which creates it,
+    // so the loop has to be created in its own thread.
+    static NIOEventLoop start(String name, Callable<NIOEventLoop> factory) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<NIOEventLoop> ref = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            NIOEventLoop loop;
+            try {
+                loop = factory.call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            ref.set(loop);
+            started.countDown();
+            loop.loop();
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        started.await();
+        return ref.get();
+    }
+}
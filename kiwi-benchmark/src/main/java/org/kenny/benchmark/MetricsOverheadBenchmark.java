@@ -0,0 +1,116 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Echo throughput with the metrics of the loops and connections counted, and
+ * with the counters compiled out by {@code -Dkiwi.metrics=false}.
+ * <p>
+ * Every benchmark thread sends a burst of 32 messages of 64 bytes on a
+ * connection of its own, which the server echoes one by one with send(), and
+ * waits for all of them.  Small messages make the counters as large a share
+ * of the work as they can be.  The two benchmarks run the same code in
+ * separate forks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Threads(4)
+public class MetricsOverheadBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8240;
+    private static final int IO_THREADS = 2;
+    private static final int MESSAGE_SIZE = 64;
+    private static final int BURST = 32;
+
+    private KiwiServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("metrics-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "EchoServer", HOST, PORT);
+            server.setThreadNum(IO_THREADS);
+            server.setMessageCallback((channel, connection, buffer) -> {
+                while (buffer.remaining() >= MESSAGE_SIZE) {
+                    ByteBuffer echo = ByteBuffer.allocate(MESSAGE_SIZE);
+                    int limit = buffer.limit();
+                    buffer.limit(buffer.position() + MESSAGE_SIZE);
+                    echo.put(buffer).flip();
+                    buffer.limit(limit);
+                    connection.send(echo);
+                }
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private SocketChannel channel;
+        private final ByteBuffer burst = ByteBuffer.allocateDirect(MESSAGE_SIZE * BURST);
+
+        @Setup(Level.Trial)
+        public void connect(MetricsOverheadBenchmark benchmark) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        int echo() throws IOException {
+            burst.clear();
+            while (burst.hasRemaining()) {
+                channel.write(burst);
+            }
+            burst.clear();
+            while (burst.hasRemaining()) {
+                if (channel.read(burst) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+            }
+            return burst.position();
+        }
+    }
+
+    @Benchmark
+    @Fork(1)
+    public int metricsEnabled(Client client) throws IOException {
+        return client.echo();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dkiwi.metrics=false")
+    public int metricsDisabled(Client client) throws IOException {
+        return client.echo();
+    }
+}
@@ -0,0 +1,157 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency percentiles of cheap requests sharing a loop with expensive ones,
+ * with the message callback run inline by the loop and offloaded to a pool of
+ * two worker threads.
+ * <p>
+ * Three benchmark threads send cheap 64-byte requests, which the server echoes
+ * at once, and one thread sends expensive requests, for which the server first
+ * hashes 1 MB with SHA-256, about a milli-second.  All the connections are on
+ * a single I/O loop.  Inline, a cheap request waits for the expensive one
+ * ahead of it, so its p99 is about the hash time.  Offloaded, only the
+ * expensive connection waits for the hash.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffloadLatencyBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8230;
+    private static final int MESSAGE_SIZE = 64;
+    private static final byte CHEAP = 0;
+    private static final byte EXPENSIVE = 1;
+    private static final byte[] EXPENSIVE_INPUT = new byte[1024 * 1024];
+
+    @Param({"inline", "offload"})
+    public String handler;
+
+    private KiwiServer server;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("offload-loop");
+        workers = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "offload-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "OffloadServer", HOST, PORT);
+            server.setThreadNum(1);
+            if ("offload".equals(handler)) {
+                server.setMessageExecutor(workers);
+            }
+            server.setMessageCallback((channel, connection, buffer) -> {
+                while (buffer.remaining() >= MESSAGE_SIZE) {
+                    ByteBuffer response = ByteBuffer.allocate(MESSAGE_SIZE);
+                    int limit = buffer.limit();
+                    buffer.limit(buffer.position() + MESSAGE_SIZE);
+                    response.put(buffer).flip();
+                    buffer.limit(limit);
+                    if (response.get(0) == EXPENSIVE) {
+                        hash(response);
+                    }
+                    connection.send(response);
+                }
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    private static void hash(ByteBuffer response) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(EXPENSIVE_INPUT);
+            response.put(1, digest[0]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private SocketChannel channel;
+        private final ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+
+        @Setup(Level.Trial)
+        public void connect(OffloadLatencyBenchmark benchmark) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        int request(byte type) throws IOException {
+            message.clear();
+            message.put(0, type);
+            while (message.hasRemaining()) {
+                channel.write(message);
+            }
+            message.clear();
+            while (message.hasRemaining()) {
+                if (channel.read(message) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+            }
+            return message.position();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int cheap(Client client) throws IOException {
+        return client.request(CHEAP);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int expensive(Client client) throws IOException {
+        return client.request(EXPENSIVE);
+    }
+}
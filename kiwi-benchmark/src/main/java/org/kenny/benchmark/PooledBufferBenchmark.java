@@ -0,0 +1,78 @@
+package org.kenny.benchmark;
+
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferFactory;
+import kenny.net.buffer.HeapBufferFactory;
+import kenny.net.buffer.PooledBufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting a buffer, writing to it and giving it back.
+ * <ul>
+ * <li>{@code heap}: a fresh heap buffer left to the garbage collector</li>
+ * <li>{@code direct}: a fresh direct ByteBuffer, the memory is freed by the garbage collector</li>
+ * <li>{@code pooled}: a buffer from {@link PooledBufferFactory}, released explicitly</li>
+ * </ul>
+ * The {@code contended} variant runs on 4 threads which share the arenas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=1g")
+public class PooledBufferBenchmark {
+
+    @Param({"heap", "direct", "pooled"})
+    public String allocator;
+
+    @Param({"64", "1024", "16384", "65536"})
+    public int size;
+
+    private BufferFactory factory;
+
+    @Setup
+    public void setUp() {
+        factory = "heap".equals(allocator) ? HeapBufferFactory.getInstance() : new PooledBufferFactory();
+    }
+
+    @Benchmark
+    public long allocate() {
+        return allocateWriteAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long contended() {
+        return allocateWriteAndRelease();
+    }
+
+    private long allocateWriteAndRelease() {
+        if ("direct".equals(allocator)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.putLong(0, size);
+            buffer.putLong(size - 8, size);
+            return buffer.getLong(0);
+        }
+        Buffer buffer = factory.getBuffer(size);
+        buffer.setLong(0, size);
+        buffer.setLong(size - 8, size);
+        long value = buffer.getLong(0);
+        buffer.release();
+        return value;
+    }
+}
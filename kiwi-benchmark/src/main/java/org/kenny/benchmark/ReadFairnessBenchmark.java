@@ -0,0 +1,132 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One bulk sender and 1,000 interactive connections served by the same loop.
+ * <p>
+ * {@code bulk} writes 64 KiB chunks to a connection whose reads are discarded,
+ * its time per operation is the time the loop needs for 64 KiB.  {@code ping}
+ * sends 8 bytes on one of the interactive connections in turn and waits for the
+ * echo, its percentiles show how long a small message waits behind the bulk
+ * reads.  {@code maxReadsPerEvent = 1} reads once per readiness event, which is
+ * how handleRead worked before the read budget.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadFairnessBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int BULK_PORT = 8160;
+    private static final int ECHO_PORT = 8161;
+    private static final int INTERACTIVE_CONNECTIONS = 1000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int PING_SIZE = 8;
+
+    @Param({"1", "4", "16"})
+    public int maxReadsPerEvent;
+
+    private SocketChannel bulkClient;
+    private SocketChannel[] interactiveClients;
+    private ByteBuffer chunk;
+    private ByteBuffer ping;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("read-fairness-loop");
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            KiwiServer bulkServer = new KiwiServer(loop, "BulkServer", HOST, BULK_PORT);
+            bulkServer.setReadLimits(maxReadsPerEvent, Integer.MAX_VALUE);
+            bulkServer.setMessageCallback((channel, connection, buffer) -> buffer.position(buffer.limit()));
+            bulkServer.start();
+
+            KiwiServer echoServer = new KiwiServer(loop, "EchoServer", HOST, ECHO_PORT);
+            echoServer.setReadLimits(maxReadsPerEvent, Integer.MAX_VALUE);
+            echoServer.setMessageCallback((channel, connection, buffer) -> {
+                ByteBuffer echo = ByteBuffer.allocate(buffer.remaining());
+                echo.put(buffer).flip();
+                connection.send(echo);
+            });
+            echoServer.start();
+            started.countDown();
+        });
+        started.await();
+
+        bulkClient = SocketChannel.open(new InetSocketAddress(HOST, BULK_PORT));
+        interactiveClients = new SocketChannel[INTERACTIVE_CONNECTIONS];
+        for (int i = 0; i < INTERACTIVE_CONNECTIONS; i++) {
+            interactiveClients[i] = SocketChannel.open(new InetSocketAddress(HOST, ECHO_PORT));
+        }
+        chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        ping = ByteBuffer.allocateDirect(PING_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bulkClient.close();
+        for (SocketChannel client : interactiveClients) {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int bulk() throws IOException {
+        chunk.clear();
+        while (chunk.hasRemaining()) {
+            bulkClient.write(chunk);
+        }
+        return chunk.position();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int ping() throws IOException {
+        SocketChannel client = interactiveClients[next];
+        if (++next == interactiveClients.length) {
+            next = 0;
+        }
+        ping.clear();
+        while (ping.hasRemaining()) {
+            client.write(ping);
+        }
+        ping.clear();
+        while (ping.hasRemaining()) {
+            if (client.read(ping) < 0) {
+                throw new IOException("Echo server closed the connection");
+            }
+        }
+        return ping.position();
+    }
+}
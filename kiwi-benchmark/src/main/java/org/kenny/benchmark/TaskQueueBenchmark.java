@@ -0,0 +1,97 @@
+package org.kenny.benchmark;
+
+import kenny.base.MpscChunkedTaskQueue;
+import kenny.base.SynchronizedTaskQueue;
+import kenny.base.TaskQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the EventLoop task queue under cross-thread fan-in.
+ * The benchmark thread plays the loop thread and drains tasks, while
+ * {@code producers} threads keep offering tasks as fast as they can.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class TaskQueueBenchmark {
+    private static final int BATCH = 1024;
+    private static final int MAX_BACKLOG = 1 << 16;
+    private static final Runnable TASK = () -> { };
+
+    @Param({"mpsc", "synchronized"})
+    public String queueType;
+
+    @Param({"1", "4", "16", "64"})
+    public int producers;
+
+    private TaskQueue queue;
+    private Thread[] producerThreads;
+    private volatile boolean running;
+    private volatile long consumed;
+
+    @Setup(Level.Iteration)
+    public void startProducers() {
+        queue = "mpsc".equals(queueType) ? new MpscChunkedTaskQueue() : new SynchronizedTaskQueue();
+        running = true;
+        consumed = 0;
+        producerThreads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            producerThreads[i] = new Thread(this::produce, "producer-" + i);
+            producerThreads[i].setDaemon(true);
+            producerThreads[i].start();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopProducers() throws InterruptedException {
+        running = false;
+        for (Thread t : producerThreads) {
+            t.join();
+        }
+        queue.drain(Runnable::run, Integer.MAX_VALUE);
+    }
+
+    private void produce() {
+        long sent = 0;
+        while (running) {
+            // Keep the backlog bounded so that we measure the queue instead of GC.
+            if (sent * producers - consumed > MAX_BACKLOG) {
+                Thread.yield();
+                continue;
+            }
+            queue.offer(TASK);
+            sent++;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int drain() {
+        int drained = 0;
+        while (drained < BATCH) {
+            drained += queue.drain(Runnable::run, BATCH - drained);
+        }
+        consumed += drained;
+        return drained;
+    }
+}
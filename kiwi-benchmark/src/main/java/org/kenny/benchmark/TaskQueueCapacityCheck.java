@@ -0,0 +1,96 @@
+package org.kenny.benchmark;
+
+import kenny.base.MpscChunkedTaskQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the capacity of a bounded MpscChunkedTaskQueue.
+ * <p>
+ * A queue is filled up to its capacity, drained and filled again, for
+ * capacities below, equal to and above the chunk size.  Then producers race
+ * on a small bounded queue while the consumer checks that it never holds more
+ * than its capacity and that every accepted task is run once.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.TaskQueueCapacityCheck
+ */
+public class TaskQueueCapacityCheck {
+    private static final Runnable TASK = () -> { };
+    private static final int CHUNK_SIZE = 4;
+    private static final int ROUNDS = 100;
+    private static final int PRODUCERS = 4;
+    private static final long TASKS_PER_PRODUCER = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        for (int capacity : new int[]{1, 3, 4, 5, 8, 10}) {
+            checkRefill(capacity);
+        }
+        checkRacingProducers(6);
+        System.out.println("OK");
+    }
+
+    private static void checkRefill(int capacity) {
+        MpscChunkedTaskQueue queue = new MpscChunkedTaskQueue(CHUNK_SIZE, capacity);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < capacity; i++) {
+                check(queue.offer(TASK), "capacity %d, round %d: offer %d refused", capacity, round, i);
+            }
+            check(!queue.offer(TASK), "capacity %d, round %d: offer beyond the capacity accepted", capacity, round);
+            // Leave some tasks behind on odd rounds, the freed slots must be offered again
+            int polls = round % 2 == 0 ? capacity : capacity / 2 + 1;
+            for (int i = 0; i < polls; i++) {
+                check(queue.poll() != null, "capacity %d, round %d: poll %d found nothing", capacity, round, i);
+            }
+            for (int i = 0; i < polls; i++) {
+                check(queue.offer(TASK), "capacity %d, round %d: freed slot %d refused", capacity, round, i);
+            }
+            check(!queue.offer(TASK), "capacity %d, round %d: offer beyond the capacity accepted", capacity, round);
+            queue.drain(Runnable::run, Integer.MAX_VALUE);
+            check(queue.isEmpty() && queue.size() == 0, "capacity %d, round %d: not empty after drain",
+                    capacity, round);
+        }
+    }
+
+    private static void checkRacingProducers(int capacity) throws InterruptedException {
+        MpscChunkedTaskQueue queue = new MpscChunkedTaskQueue(CHUNK_SIZE, capacity);
+        AtomicLong ran = new AtomicLong();
+        Runnable task = ran::incrementAndGet;
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            producers[i] = new Thread(() -> {
+                for (long sent = 0; sent < TASKS_PER_PRODUCER; ) {
+                    if (queue.offer(task)) {
+                        sent++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }, "producer-" + i);
+            producers[i].start();
+        }
+        long expected = PRODUCERS * TASKS_PER_PRODUCER;
+        int maxSize = 0;
+        while (ran.get() < expected) {
+            maxSize = Math.max(maxSize, queue.size());
+            Runnable r = queue.poll();
+            if (r != null) {
+                r.run();
+            } else {
+                // Let the producers run on a machine with few cores
+                Thread.yield();
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        check(maxSize <= capacity, "racing producers: %d tasks queued, capacity %d", maxSize, capacity);
+        check(queue.poll() == null && ran.get() == expected, "racing producers: ran %d of %d tasks",
+                ran.get(), expected);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.kenny.benchmark;
+
+import kenny.base.HashedWheelTimer;
+import kenny.base.PriorityTimer;
+import kenny.base.Timer;
+import kenny.base.TimerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per timer schedule and per repeating timer fire.
+ * Run it with the GC profiler to see the allocation rate:
+ * <pre>
+ * java -jar benchmarks.jar TimerAllocationBenchmark -prof gc
+ * </pre>
+ * {@code gc.alloc.rate.norm} of {@code scheduleAndCancel} is the size of one timer
+ * entry, and it is expected to be zero for {@code fireRepeating}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerAllocationBenchmark {
+    private static final long INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Runnable TASK = () -> { };
+
+    @Param({"priority", "wheel"})
+    public String timerType;
+
+    private Timer timer;
+    private long currentTime;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        timer = "wheel".equals(timerType) ? new HashedWheelTimer() : new PriorityTimer();
+        timer.runEvery(TASK, INTERVAL_NS, TimeUnit.NANOSECONDS);
+        currentTime = System.nanoTime();
+    }
+
+    @Benchmark
+    public TimerId scheduleAndCancel() {
+        TimerId timerId = timer.runAfter(TASK, 10, TimeUnit.SECONDS);
+        timer.cancelTimer(timerId);
+        return timerId;
+    }
+
+    @Benchmark
+    public Timer fireRepeating() {
+        // Move the clock forward so that the repeating timer fires on every call
+        currentTime += INTERVAL_NS;
+        timer.triggerExpiredTimers(currentTime);
+        return timer;
+    }
+}
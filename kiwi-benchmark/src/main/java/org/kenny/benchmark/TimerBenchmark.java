@@ -0,0 +1,112 @@
+package org.kenny.benchmark;
+
+import kenny.base.HashedWheelTimer;
+import kenny.base.PriorityTimer;
+import kenny.base.Timer;
+import kenny.base.TimerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PriorityTimer vs HashedWheelTimer with {@code timers} outstanding timers.
+ * <p>
+ * {@code churn} cancels the oldest timer and schedules a new one, which is what an
+ * idle timeout does on every read. {@code scheduleAll}, {@code cancelAll} and
+ * {@code expireAll} are single shot: each invocation handles all {@code timers}
+ * timers, divide the score by {@code timers} to get the cost per timer.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TimerBenchmark {
+    private static final Runnable TASK = () -> { };
+    private static final int MAX_DELAY_SECONDS = 3600;
+
+    @Param({"priority", "wheel"})
+    public String timerType;
+
+    @Param({"10000", "100000", "1000000"})
+    public int timers;
+
+    private Timer timer;
+    private TimerId[] ids;
+    private long[] delays;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // Timers are confined to the thread creating them, so they are created
+        // by the benchmark thread itself.
+        timer = "wheel".equals(timerType) ? new HashedWheelTimer() : new PriorityTimer();
+        Random random = new Random(timers);
+        delays = new long[timers];
+        ids = new TimerId[timers];
+        for (int i = 0; i < timers; i++) {
+            delays[i] = 1 + random.nextInt(MAX_DELAY_SECONDS);
+            ids[i] = timer.runAfter(TASK, delays[i]);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public TimerId churn() {
+        timer.cancelTimer(ids[next]);
+        TimerId id = timer.runAfter(TASK, delays[next]);
+        ids[next] = id;
+        if (++next == timers) {
+            next = 0;
+        }
+        return id;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public Timer scheduleAll() {
+        Timer fresh = "wheel".equals(timerType) ? new HashedWheelTimer() : new PriorityTimer();
+        for (int i = 0; i < timers; i++) {
+            fresh.runAfter(TASK, delays[i]);
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public Timer cancelAll() {
+        for (int i = 0; i < timers; i++) {
+            timer.cancelTimer(ids[i]);
+        }
+        return timer;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public Timer expireAll() {
+        timer.triggerExpiredTimers(System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_DELAY_SECONDS + 1));
+        return timer;
+    }
+}
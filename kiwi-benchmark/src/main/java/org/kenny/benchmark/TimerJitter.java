@@ -0,0 +1,81 @@
+package org.kenny.benchmark;
+
+import kenny.base.HashedWheelTimer;
+import kenny.base.MpscChunkedTaskQueue;
+import kenny.base.PriorityTimer;
+import kenny.net.NIOEventLoop;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how late timers fire on a running NIOEventLoop.
+ * Each sample schedules a one-shot timer from the loop thread and records the
+ * difference between the time it runs and its deadline.
+ * <p>
+ * Usage: java -cp benchmarks.jar org.kenny.benchmark.TimerJitter [samples]
+ */
+public class TimerJitter {
+    private static final long[] DELAYS_US = {200, 500, 5_000, 20_000, 50_000};
+
+    private final NIOEventLoop loop;
+    private final long delayNs;
+    private final long[] lateness;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private int sample = 0;
+    private long deadline;
+
+    private TimerJitter(NIOEventLoop loop, long delayNs, int samples) {
+        this.loop = loop;
+        this.delayNs = delayNs;
+        this.lateness = new long[samples];
+    }
+
+    private void scheduleNext() {
+        deadline = System.nanoTime() + delayNs;
+        loop.runAfter(this::onTimer, delayNs, TimeUnit.NANOSECONDS);
+    }
+
+    private void onTimer() {
+        lateness[sample++] = System.nanoTime() - deadline;
+        if (sample == lateness.length) {
+            done.countDown();
+        } else {
+            scheduleNext();
+        }
+    }
+
+    private long[] run() throws InterruptedException {
+        loop.runInLoop(this::scheduleNext);
+        done.await();
+        long[] sorted = lateness.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n",
+                "timer", "delay(us)", "min(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+        for (String timerType : new String[]{"priority", "wheel"}) {
+            NIOEventLoop loop = LoopThreads.start("jitter-" + timerType, () -> new NIOEventLoop(
+                    new MpscChunkedTaskQueue(),
+                    "wheel".equals(timerType) ? new HashedWheelTimer() : new PriorityTimer()));
+            for (long delayUs : DELAYS_US) {
+                long[] lateness = new TimerJitter(loop, TimeUnit.MICROSECONDS.toNanos(delayUs), samples).run();
+                System.out.printf("%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                        timerType, delayUs,
+                        lateness[0] / 1000.0,
+                        percentile(lateness, 0.50) / 1000.0,
+                        percentile(lateness, 0.99) / 1000.0,
+                        percentile(lateness, 0.999) / 1000.0,
+                        lateness[lateness.length - 1] / 1000.0);
+            }
+        }
+    }
+}
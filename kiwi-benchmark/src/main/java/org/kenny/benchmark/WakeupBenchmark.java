@@ -0,0 +1,62 @@
+package org.kenny.benchmark;
+
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-thread queueInLoop() into a running NIOEventLoop.
+ * Run it with different {@code -t} values to see how many selector wakeups
+ * are coalesced under fan-in, the counters are printed after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class WakeupBenchmark {
+    private static final Runnable TASK = () -> { };
+
+    private NIOEventLoop loop;
+    private long issued;
+    private long suppressed;
+
+    @Setup(Level.Trial)
+    public void startLoop() throws Exception {
+        loop = LoopThreads.start("wakeup-loop");
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        issued = loop.getWakeupsIssued();
+        suppressed = loop.getWakeupsSuppressed();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCounters() {
+        long newIssued = loop.getWakeupsIssued() - issued;
+        long newSuppressed = loop.getWakeupsSuppressed() - suppressed;
+        System.out.printf("%nwakeups issued: %d, suppressed: %d (%.2f%% suppressed)%n",
+                newIssued, newSuppressed, 100.0 * newSuppressed / Math.max(1, newIssued + newSuppressed));
+    }
+
+    @Benchmark
+    public void queueInLoop() {
+        loop.queueInLoop(TASK);
+    }
+}
@@ -0,0 +1,116 @@
+package org.kenny.benchmark;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second of a server which answers every 8-byte request with
+ * {@code messagesPerRequest} responses of 16 bytes.
+ * <p>
+ * {@code send} passes every response to Connection.send(), which writes it to
+ * the channel right away.  {@code write} passes them to Connection.write(),
+ * the responses are encoded into one buffer and written together once the
+ * loop has handled the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBatchingBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8170;
+    private static final int REQUEST_SIZE = 8;
+    private static final int RESPONSE_SIZE = 16;
+
+    @Param({"send", "write"})
+    public String mode;
+
+    @Param({"1", "10", "50"})
+    public int messagesPerRequest;
+
+    private KiwiServer server;
+    private SocketChannel client;
+    private ByteBuffer request;
+    private ByteBuffer responses;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        NIOEventLoop loop = LoopThreads.start("write-batching-loop");
+        boolean batching = "write".equals(mode);
+        CountDownLatch started = new CountDownLatch(1);
+        loop.runInLoop(() -> {
+            server = new KiwiServer(loop, "ResponseServer", HOST, PORT);
+            server.setMessageEncoder((connection, message, out) -> {
+                long value = (Long) message;
+                out.writeLong(value);
+                out.writeLong(~value);
+            });
+            server.setMessageCallback((channel, connection, buffer) -> {
+                while (buffer.remaining() >= REQUEST_SIZE) {
+                    long id = buffer.getLong();
+                    for (int i = 0; i < messagesPerRequest; i++) {
+                        long value = id + i;
+                        if (batching) {
+                            connection.write(value);
+                        } else {
+                            ByteBuffer response = ByteBuffer.allocate(RESPONSE_SIZE);
+                            response.putLong(value).putLong(~value).flip();
+                            connection.send(response);
+                        }
+                    }
+                }
+            });
+            server.start();
+            started.countDown();
+        });
+        started.await();
+
+        client = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        request = ByteBuffer.allocateDirect(REQUEST_SIZE);
+        responses = ByteBuffer.allocateDirect(RESPONSE_SIZE * messagesPerRequest);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+    }
+
+    @Benchmark
+    public int request() throws IOException {
+        request.clear();
+        request.putLong(0, System.nanoTime());
+        while (request.hasRemaining()) {
+            client.write(request);
+        }
+        responses.clear();
+        while (responses.hasRemaining()) {
+            if (client.read(responses) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+        return responses.position();
+    }
+}
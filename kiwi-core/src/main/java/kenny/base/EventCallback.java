@@ -1,6 +1,7 @@
 package kenny.base;
 
 import kenny.net.Connection;
+import kenny.net.buffer.Buffer;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
@@ -15,6 +16,12 @@ public interface EventCallback {
         void onMessage(SelectableChannel channel, Connection connection, ByteBuffer buffer);
     }
 
+    // Invoked with each complete frame cut by the FrameDecoder of the connection.
+    // The frame is only valid during the call unless it is retained.
+    interface FrameCallback extends EventCallback {
+        void onFrame(Connection connection, Buffer frame);
+    }
+
     interface AcceptCallback extends EventCallback {
         void onAccept(SelectableChannel channel);
     }
@@ -31,6 +38,11 @@ public interface EventCallback {
         void onHighWaterMark(SelectableChannel channel, int waterMark);
     }
 
+    // Invoked when the connection is writable again after the high water mark
+    interface LowWaterMarkCallback extends EventCallback {
+        void onLowWaterMark(SelectableChannel channel, Connection connection);
+    }
+
     interface WriteCompleteCallback extends EventCallback {
         void onWriteComplete(SelectableChannel channel, Connection connection);
     }
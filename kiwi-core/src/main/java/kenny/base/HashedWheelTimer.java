@@ -0,0 +1,389 @@
+package kenny.base;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Timer implemented by a hierarchical hashed timing wheel.
+ * <p>
+ * Time is divided into ticks of {@code tickDuration}. The wheel has {@link #LEVELS} levels
+ * of {@link #WHEEL_SIZE} buckets, a timer is put in the lowest level whose span covers its
+ * deadline, and buckets of upper levels are cascaded down when the lower level wraps around.
+ * Each bucket is an intrusive doubly linked list, so both schedule and cancel are O(1),
+ * and expiring a tick only touches the timers due in that tick.
+ * Timers fire at most one tick late and never early.
+ * <p>
+ * Every entry is the TimerId of itself, so cancelling needs no lookup, and repeating
+ * entries are re-armed in place. Scheduling allocates nothing but the entry.
+ * <p>
+ * The wheel is confined to the thread which creates it (the loop thread) and takes no lock.
+ * Other threads may still schedule or cancel timers: their requests are put in a lock-free
+ * queue and applied in order by the owner thread on the next
+ * {@link #getNextTimeoutIntervalNs()} or {@link #triggerExpiredTimers(long)}.
+ * A cancellation from other threads is therefore asynchronous.
+ * {@link #getNextTimeoutIntervalNs()} and {@link #triggerExpiredTimers(long)} must only be
+ * called by the owner thread.
+ */
+@ThreadSafe
+public class HashedWheelTimer implements Timer {
+    private final static long MILLISECONDS_TO_NANOSECONDS = 1000_000;
+
+    public final static int LEVELS = 4;
+    private final static int WHEEL_BITS = 8;
+    public final static int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private final static int WHEEL_MASK = WHEEL_SIZE - 1;
+    // Deadlines further than the span of the wheel are parked in the top level
+    // and re-inserted once they are cascaded.
+    private final static long MAX_SPAN_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startTime;
+    private final long ownerThreadId;
+
+    private final Bucket[][] wheel;
+    // Occupancy bitmap of the lowest level, used to skip empty buckets
+    private final long[] occupied;
+    private final TimerId.Sequence sequence;
+    // Entries scheduled and cancelled by other threads, applied by the owner thread.
+    private final Queue<Entry> pendingSchedules;
+    private final Queue<Entry> pendingCancels;
+    // The number of scheduled entries
+    private int size;
+
+    // The last tick which has been expired.
+    private long currentTick;
+
+    public HashedWheelTimer() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit) {
+        checkNotNull(unit);
+        checkArgument(tickDuration > 0, "tickDuration must be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+        this.ownerThreadId = Thread.currentThread().getId();
+        this.wheel = new Bucket[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[level][i] = new Bucket(level, i);
+            }
+        }
+        this.occupied = new long[WHEEL_SIZE / Long.SIZE];
+        this.sequence = new TimerId.Sequence();
+        this.pendingSchedules = new ConcurrentLinkedQueue<>();
+        this.pendingCancels = new ConcurrentLinkedQueue<>();
+        this.size = 0;
+        this.currentTick = 0;
+    }
+
+    @Override
+    public TimerId runAfter(Runnable r, long delay, TimeUnit unit) {
+        checkArgument(delay >= 0);
+        return schedule(r, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public TimerId runEvery(Runnable r, long interval, TimeUnit unit) {
+        checkArgument(interval >= 0);
+        return schedule(r, unit.toNanos(interval), unit.toNanos(interval));
+    }
+
+    @Override
+    public void cancelTimer(TimerId timerId) {
+        checkNotNull(timerId);
+        if (!(timerId instanceof Entry) || ((Entry) timerId).timer != this) {
+            // Not created by this timer
+            return;
+        }
+        Entry entry = (Entry) timerId;
+        if (isOwnerThread()) {
+            cancel(entry);
+        } else {
+            pendingCancels.offer(entry);
+        }
+    }
+
+    @Override
+    public long getNextTimeoutIntervalNs() {
+        applyPending();
+        if (size == 0) {
+            return INFINITE_FUTURE_NS;
+        }
+        // Either the next occupied bucket of the lowest level in this rotation,
+        // or the start of next rotation when upper levels have to be cascaded.
+        long rotationEnd = currentTick | WHEEL_MASK;
+        long nextTick = rotationEnd + 1;
+        if (currentTick != rotationEnd) {
+            long occupiedTick = nextOccupiedTick(currentTick + 1, rotationEnd);
+            if (occupiedTick >= 0) {
+                nextTick = occupiedTick;
+            }
+        }
+        long nextTimeoutNs = startTime + nextTick * tickNanos - System.nanoTime();
+        if (tickNanos >= MILLISECONDS_TO_NANOSECONDS && nextTimeoutNs > 0) {
+            // The wheel is only accurate to a tick, round up to milli-seconds
+            // so that the loop blocks instead of spinning for the remainder.
+            nextTimeoutNs = (nextTimeoutNs + MILLISECONDS_TO_NANOSECONDS - 1)
+                    / MILLISECONDS_TO_NANOSECONDS * MILLISECONDS_TO_NANOSECONDS;
+        }
+        return nextTimeoutNs;
+    }
+
+    @Override
+    public int triggerExpiredTimers(long currentTime) {
+        applyPending();
+        long targetTick = (currentTime - startTime) / tickNanos;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return 0;
+        }
+        int fired = 0;
+        while (currentTick < targetTick) {
+            long tick = currentTick + 1;
+            if ((tick & WHEEL_MASK) != 0) {
+                // Skip empty buckets until the end of this rotation
+                long limit = Math.min(tick | WHEEL_MASK, targetTick);
+                long next = nextOccupiedTick(tick, limit);
+                if (next < 0) {
+                    currentTick = limit;
+                    continue;
+                }
+                tick = next;
+            }
+            currentTick = tick;
+            if ((tick & WHEEL_MASK) == 0) {
+                cascade(tick);
+            }
+            fired += expire(wheel[0][(int) (tick & WHEEL_MASK)], currentTime);
+        }
+        return fired;
+    }
+
+    /**
+     * Returns the number of timers which are scheduled by the owner thread
+     * or have been applied from other threads.
+     */
+    public int size() {
+        return size;
+    }
+
+    private TimerId schedule(Runnable r, long delayInNano, long intervalInNano) {
+        checkNotNull(r);
+        Entry entry = new Entry(this, sequence, r,
+                System.nanoTime() + Math.min(delayInNano, MAX_DELAY_NS), Math.min(intervalInNano, MAX_DELAY_NS));
+        if (isOwnerThread()) {
+            add(entry);
+        } else {
+            pendingSchedules.offer(entry);
+        }
+        return entry;
+    }
+
+    private boolean isOwnerThread() {
+        return Thread.currentThread().getId() == ownerThreadId;
+    }
+
+    private void applyPending() {
+        // Schedules first, a TimerId could only be cancelled after it is returned
+        Entry entry;
+        while ((entry = pendingSchedules.poll()) != null) {
+            add(entry);
+        }
+        while ((entry = pendingCancels.poll()) != null) {
+            cancel(entry);
+        }
+    }
+
+    private void add(Entry entry) {
+        // It may have been cancelled by the owner thread before it is applied
+        if (entry.state == Entry.PENDING) {
+            entry.state = Entry.SCHEDULED;
+            size++;
+            insert(entry);
+        }
+    }
+
+    private void cancel(Entry entry) {
+        if (entry.state == Entry.SCHEDULED) {
+            size--;
+            if (entry.bucket != null) {
+                entry.bucket.remove(entry);
+            }
+        }
+        entry.state = Entry.DONE;
+    }
+
+    private void insert(Entry entry) {
+        // Ceil the deadline to avoid firing early, and never put it into a tick
+        // which has already been expired.
+        long deadlineTick = Math.max((entry.deadline - startTime + tickNanos - 1) / tickNanos, currentTick + 1);
+        long delta = Math.min(deadlineTick - currentTick, MAX_SPAN_TICKS);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        long placeTick = currentTick + delta;
+        wheel[level][(int) ((placeTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(entry);
+    }
+
+    private void cascade(long tick) {
+        // Cascade from the highest wrapped level, so that entries may fall through several levels.
+        int level = 1;
+        while (level < LEVELS - 1 && ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK) == 0) {
+            level++;
+        }
+        for (; level >= 1; level--) {
+            Bucket bucket = wheel[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+            Entry entry = bucket.clear();
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = null;
+                insert(entry);
+                entry = next;
+            }
+        }
+    }
+
+    // Returns the number of timers run
+    private int expire(Bucket bucket, long currentTime) {
+        int fired = 0;
+        Entry entry = bucket.clear();
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            if (entry.state != Entry.SCHEDULED) {
+                // Cancelled by a task expired before it in this tick
+                entry = next;
+                continue;
+            }
+            fired++;
+            if (entry.interval > 0) {
+                entry.task.run();
+                // Re-arm the same entry in place unless the task cancelled itself
+                if (entry.state == Entry.SCHEDULED) {
+                    entry.deadline = currentTime + entry.interval;
+                    insert(entry);
+                }
+            } else {
+                size--;
+                entry.state = Entry.DONE;
+                entry.task.run();
+            }
+            entry = next;
+        }
+        return fired;
+    }
+
+    private long nextOccupiedTick(long fromTick, long toTick) {
+        int from = (int) (fromTick & WHEEL_MASK);
+        int to = (int) (toTick & WHEEL_MASK);
+        for (int word = from >>> 6; word <= to >>> 6; word++) {
+            long bits = occupied[word];
+            if (word == from >>> 6) {
+                bits &= -1L << (from & 63);
+            }
+            if (word == to >>> 6 && (to & 63) != 63) {
+                bits &= (1L << ((to & 63) + 1)) - 1;
+            }
+            if (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return (fromTick & ~(long) WHEEL_MASK) + index;
+            }
+        }
+        return -1;
+    }
+
+    private final static class Entry extends TimerId {
+        private final static int PENDING = 0;
+        private final static int SCHEDULED = 1;
+        private final static int DONE = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long interval;
+        private long deadline;
+        // Only accessed by the owner thread
+        private int state;
+
+        private Bucket bucket;
+        private Entry prev;
+        private Entry next;
+
+        Entry(HashedWheelTimer timer, TimerId.Sequence sequence, Runnable task, long deadline, long interval) {
+            super(sequence);
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.interval = interval;
+            this.state = PENDING;
+        }
+    }
+
+    private final class Bucket {
+        private final int level;
+        private final int index;
+        private Entry head;
+        private Entry tail;
+
+        Bucket(int level, int index) {
+            this.level = level;
+            this.index = index;
+        }
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+                if (level == 0) {
+                    occupied[index >>> 6] |= 1L << index;
+                }
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+        }
+
+        void remove(Entry entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.bucket = null;
+            entry.prev = null;
+            entry.next = null;
+            if (head == null && level == 0) {
+                occupied[index >>> 6] &= ~(1L << index);
+            }
+        }
+
+        // Detaches all entries and returns the first one, entries are still linked by next.
+        Entry clear() {
+            Entry first = head;
+            for (Entry entry = first; entry != null; entry = entry.next) {
+                entry.bucket = null;
+                entry.prev = null;
+            }
+            head = null;
+            tail = null;
+            if (level == 0) {
+                occupied[index >>> 6] &= ~(1L << index);
+            }
+            return first;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package kenny.base;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Histogram of latencies in nano-seconds, with buckets in the manner of
+ * HdrHistogram: every power of two is split into 32 linear buckets, so a
+ * value is known within about 3% up to about 18 minutes, with a fixed
+ * footprint of 9 KB.  Recording is an array increment, there is no
+ * allocation.
+ * <p>
+ * Not thread safe, a histogram is recorded by a single thread and copied by
+ * that thread for the others.
+ */
+@NotThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Larger values, about 18 minutes, are recorded as the largest bucket
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    public LatencyHistogram() {
+        counts = new long[BUCKETS];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        counts = other.counts.clone();
+        count = other.count;
+        sum = other.sum;
+        max = other.max;
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    // Values below 32 have a bucket each, above that every power of two
+    // [2^e, 2^(e+1)) has 32 buckets of width 2^(e-5)
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value of the bucket
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value which {@code percentile} percent of the recorded
+     * values are at or below, rounded up to the end of its bucket but never
+     * above the largest value recorded.  Returns {@code 0} if nothing is
+     * recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile: %s", percentile);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Adds the values recorded by {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * Returns the count and the main percentiles in micro-seconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%dus p99=%dus p99.9=%dus max=%dus", count,
+                micros(getValueAtPercentile(50)), micros(getValueAtPercentile(99)),
+                micros(getValueAtPercentile(99.9)), micros(max));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,202 @@
+package kenny.base;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lock-free multi-producer/single-consumer TaskQueue backed by a linked list
+ * of fixed size arrays (chunks).
+ * <p>
+ * Producers claim a slot of the current chunk with a single getAndIncrement and
+ * publish the task with an ordered store. Only the producer which overflows a chunk
+ * has to link the next one, so a CAS is taken once every {@code chunkSize} tasks.
+ * The consumer walks the chunks in place without copying and never takes a lock.
+ * <p>
+ * The queue is unbounded by default. If a capacity is given, {@link #offer(Runnable)}
+ * returns {@code false} while that many tasks are queued, counted as the slots
+ * claimed minus the tasks polled.  A bounded queue claims its slots with a CAS
+ * instead, so that racing producers could not exceed the capacity.
+ */
+@ThreadSafe
+public class MpscChunkedTaskQueue implements TaskQueue {
+    public final static int DEFAULT_CHUNK_SIZE = 1024;
+    public final static int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final static AtomicReferenceFieldUpdater<MpscChunkedTaskQueue, Chunk> PRODUCER_CHUNK =
+            AtomicReferenceFieldUpdater.newUpdater(MpscChunkedTaskQueue.class, Chunk.class, "producerChunk");
+    private final static AtomicLongFieldUpdater<MpscChunkedTaskQueue> POLLED =
+            AtomicLongFieldUpdater.newUpdater(MpscChunkedTaskQueue.class, "polled");
+
+    private final int chunkSize;
+    private final int capacity;
+
+    // Written by producers only
+    private volatile Chunk producerChunk;
+
+    // Written by the consumer only, it is volatile so that producers could
+    // check the capacity and other threads could estimate the size.
+    private volatile Chunk consumerChunk;
+    private int consumerOffset;
+    // The number of tasks polled, only maintained by a bounded queue
+    private volatile long polled;
+
+    public MpscChunkedTaskQueue() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MpscChunkedTaskQueue(int chunkSize) {
+        this(chunkSize, UNBOUNDED);
+    }
+
+    public MpscChunkedTaskQueue(int chunkSize, int capacity) {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+        Chunk first = new Chunk(0, chunkSize);
+        producerChunk = first;
+        consumerChunk = first;
+        consumerOffset = 0;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        checkNotNull(task);
+        for (;;) {
+            Chunk chunk = producerChunk;
+            if (capacity != UNBOUNDED) {
+                int index = chunk.claimed.get();
+                if (index < chunkSize) {
+                    // The position of the slot in the whole queue
+                    if (chunk.id * chunkSize + index - polled >= capacity) {
+                        return false;
+                    }
+                    if (chunk.claimed.compareAndSet(index, index + 1)) {
+                        chunk.slots.lazySet(index, task);
+                        return true;
+                    }
+                    continue;
+                }
+            } else if (chunk.claimed.get() < chunkSize) {
+                // Check before claiming so that the claimed counter of a full chunk
+                // could only exceed chunkSize by the number of racing producers.
+                int index = chunk.claimed.getAndIncrement();
+                if (index < chunkSize) {
+                    chunk.slots.lazySet(index, task);
+                    return true;
+                }
+            }
+            // The chunk is full, link the next one if no other producer has done it.
+            Chunk next = chunk.next;
+            if (next == null) {
+                Chunk newChunk = new Chunk(chunk.id + 1, chunkSize);
+                next = chunk.casNext(newChunk) ? newChunk : chunk.next;
+            }
+            PRODUCER_CHUNK.compareAndSet(this, chunk, next);
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        Chunk chunk = consumerChunk;
+        int offset = consumerOffset;
+        if (offset == chunkSize) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                return null;
+            }
+            // Every slot of the old chunk has been consumed, it is safe to drop it.
+            chunk = next;
+            offset = 0;
+            consumerChunk = next;
+            consumerOffset = 0;
+        }
+        Runnable task = chunk.slots.get(offset);
+        if (task == null) {
+            if (chunk.claimed.get() <= offset) {
+                return null;
+            }
+            // The slot has been claimed, but the producer has not published the task yet.
+            do {
+                task = chunk.slots.get(offset);
+            } while (task == null);
+        }
+        // Release the task for GC as early as possible.
+        chunk.slots.lazySet(offset, null);
+        consumerOffset = offset + 1;
+        if (capacity != UNBOUNDED) {
+            // Only the consumer writes it, an ordered store is enough
+            POLLED.lazySet(this, polled + 1);
+        }
+        return task;
+    }
+
+    @Override
+    public int drain(Consumer<Runnable> action, int limit) {
+        checkArgument(limit >= 0);
+        int drained = 0;
+        while (drained < limit) {
+            Runnable task = poll();
+            if (task == null) {
+                break;
+            }
+            drained++;
+            action.accept(task);
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        Chunk chunk = consumerChunk;
+        int offset = consumerOffset;
+        if (offset == chunkSize) {
+            chunk = chunk.next;
+            offset = 0;
+        }
+        return chunk == null || chunk.claimed.get() <= offset;
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        Chunk chunk = consumerChunk;
+        int offset = Math.min(consumerOffset, chunkSize);
+        while (chunk != null) {
+            size += Math.min(chunk.claimed.get(), chunkSize) - offset;
+            offset = 0;
+            chunk = chunk.next;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private final static class Chunk {
+        private final static AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        private final long id;
+        private final AtomicReferenceArray<Runnable> slots;
+        // The number of slots claimed by producers, it may exceed the slot size
+        // when producers race on a full chunk.
+        private final AtomicInteger claimed;
+        private volatile Chunk next;
+
+        Chunk(long id, int size) {
+            this.id = id;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.claimed = new AtomicInteger(0);
+        }
+
+        boolean casNext(Chunk next) {
+            return NEXT.compareAndSet(this, null, next);
+        }
+    }
+}
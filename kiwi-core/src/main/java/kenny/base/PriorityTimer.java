@@ -4,6 +4,7 @@ import net.jcip.annotations.ThreadSafe;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -15,78 +16,86 @@ import static com.google.common.base.Preconditions.checkState;
  */
 @ThreadSafe
 public class PriorityTimer implements Timer {
-    private final static long SECONDS_TO_NANOSECONDS = 1000_000_000;
-    private final static long MILLISECONDS_TO_NANOSECONDS = 1000_1000;
-    private final static long INFINITE_FUTURE = Integer.MAX_VALUE;
-
     private final BlockingQueue<TimerTask> timers;
+    private final TimerId.Sequence sequence;
 
     public PriorityTimer() {
         timers = new PriorityBlockingQueue<>();
+        sequence = new TimerId.Sequence();
     }
 
     @Override
-    public TimerId runAfter(Runnable r, long delay) {
-        return runAfterInNano(r, delay * SECONDS_TO_NANOSECONDS);
+    public TimerId runAfter(Runnable r, long delay, TimeUnit unit) {
+        return runAfterInNano(r, unit.toNanos(delay));
     }
 
     @Override
-    public TimerId runEvery(Runnable r, long interval) {
-        return runEveryInNano(r, interval * SECONDS_TO_NANOSECONDS);
+    public TimerId runEvery(Runnable r, long interval, TimeUnit unit) {
+        return runEveryInNano(r, unit.toNanos(interval));
     }
 
     @Override
     public void cancelTimer(TimerId timerId) {
-        timers.remove(TimerTask.valueOf(timerId));
+        checkNotNull(timerId);
+        // A task polled by triggerExpiredTimers() is not in the queue, the
+        // mark stops it from running or being re-armed
+        if (timerId instanceof TimerTask) {
+            ((TimerTask) timerId).cancel();
+        }
+        // TimerTask is the TimerId of itself, so no lookup key is allocated
+        timers.remove(timerId);
     }
 
     @Override
-    public long getNextTimeoutIntervalMs() {
-        long nextTimeoutIntervalMs = INFINITE_FUTURE;
-        if (!timers.isEmpty()) {
-            // The time recorded in timer is in nano-seconds. We have to convert it to milli-seconds
-            // We need to ceil the result to avoid early wake up
-            nextTimeoutIntervalMs =
-                    (timers.peek().getExpirationTime() - System.nanoTime()
-                            + MILLISECONDS_TO_NANOSECONDS) / MILLISECONDS_TO_NANOSECONDS;
+    public long getNextTimeoutIntervalNs() {
+        TimerTask next = timers.peek();
+        if (next == null) {
+            return INFINITE_FUTURE_NS;
         }
-        return nextTimeoutIntervalMs;
+        return next.getExpirationTime() - System.nanoTime();
     }
 
     @Override
-    public void triggerExpiredTimers(long currentTime) {
+    public int triggerExpiredTimers(long currentTime) {
+        int fired = 0;
         while (!timers.isEmpty()) {
             long nextExpiredTime = timers.peek().getExpirationTime();
             if (nextExpiredTime <= currentTime) {
                 TimerTask timerTask = timers.poll();
+                if (timerTask.isCancelled()) {
+                    continue;
+                }
+                fired++;
                 timerTask.getTask().run();
-                //reinsert timer task if it's repeat task
-                if (timerTask.getIntervalTime() > 0) {
-                    timers.add(TimerTask.nextTimerTask(timerTask));
+                //re-arm timer task in place if it's repeat task
+                if (timerTask.getIntervalTime() > 0 && !timerTask.isCancelled()) {
+                    timerTask.rearm(currentTime);
+                    timers.add(timerTask);
                 }
             } else {
-                return;
+                break;
             }
         }
+        return fired;
     }
 
     private TimerId runAfterInNano(Runnable r, long delayInNano) {
         checkNotNull(r);
         checkArgument(delayInNano >= 0);
-        long expirationNs = System.nanoTime() + delayInNano;
+        long expirationNs = System.nanoTime() + Math.min(delayInNano, MAX_DELAY_NS);
         return doInsertTimerTask(r, expirationNs, 0);
     }
 
     private TimerId runEveryInNano(Runnable r, long interval) {
         checkNotNull(r);
         checkArgument(interval >= 0);
-        long expirationNs = System.nanoTime() + interval;
+        long expirationNs = System.nanoTime() + Math.min(interval, MAX_DELAY_NS);
         return doInsertTimerTask(r, expirationNs, interval);
     }
 
     private TimerId doInsertTimerTask(Runnable r, long expiration, long interval) {
-        TimerTask timerTask = TimerTask.build(expiration, interval, r);
+        TimerTask timerTask = TimerTask.build(sequence, expiration, Math.min(interval, MAX_DELAY_NS), r);
         checkState(timers.add(timerTask));
-        return timerTask.getTimerId();
+        return timerTask;
     }
 }
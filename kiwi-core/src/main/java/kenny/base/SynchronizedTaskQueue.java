@@ -0,0 +1,65 @@
+package kenny.base;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * TaskQueue implemented by an ArrayList guarded by the queue's monitor.
+ * Drained tasks are copied out of the lock before running.
+ */
+@ThreadSafe
+public class SynchronizedTaskQueue implements TaskQueue {
+    @GuardedBy("this")
+    private final ArrayList<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public boolean offer(Runnable task) {
+        checkNotNull(task);
+        synchronized (this) {
+            return tasks.add(task);
+        }
+    }
+
+    @Override
+    public synchronized Runnable poll() {
+        return tasks.isEmpty() ? null : tasks.remove(0);
+    }
+
+    // This cast is correct because the copy and the tasks
+    // are the same type.
+    @SuppressWarnings("unchecked")
+    @Override
+    public int drain(Consumer<Runnable> action, int limit) {
+        checkArgument(limit >= 0);
+        List<Runnable> tasksCopy;
+        synchronized (this) {
+            if (tasks.size() <= limit) {
+                tasksCopy = (List<Runnable>) tasks.clone();
+                tasks.clear();
+            } else {
+                List<Runnable> head = tasks.subList(0, limit);
+                tasksCopy = new ArrayList<>(head);
+                head.clear();
+            }
+        }
+        tasksCopy.forEach(action);
+        return tasksCopy.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return tasks.isEmpty();
+    }
+
+    @Override
+    public synchronized int size() {
+        return tasks.size();
+    }
+}
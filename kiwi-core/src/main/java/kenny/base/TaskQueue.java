@@ -0,0 +1,46 @@
+package kenny.base;
+
+import java.util.function.Consumer;
+
+/**
+ * Queue of tasks submitted to an EventLoop.
+ * Implements of this interface must allow any thread to offer tasks,
+ * but only the loop thread is allowed to poll or drain them.
+ */
+public interface TaskQueue {
+    /**
+     * Inserts a task into this queue. It may be called by any thread.
+     *
+     * @param task the task to insert
+     * @return {@code true} if the task was added, {@code false} if the queue is full
+     */
+    boolean offer(Runnable task);
+
+    /**
+     * Retrieves and removes the head of this queue, or returns {@code null}
+     * if this queue is empty. It must only be called by the consumer thread.
+     */
+    Runnable poll();
+
+    /**
+     * Removes at most {@code limit} tasks from this queue and passes them
+     * to {@code action} in FIFO order. It must only be called by the consumer thread.
+     *
+     * @param action the action to invoke on every removed task
+     * @param limit the maximum number of tasks to remove
+     * @return the number of tasks removed
+     */
+    int drain(Consumer<Runnable> action, int limit);
+
+    /**
+     * Returns {@code true} if this queue contains no task.
+     * The result is only a hint when called outside the consumer thread.
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns the number of tasks in this queue.
+     * The result is only a hint when called outside the consumer thread.
+     */
+    int size();
+}
@@ -1,17 +1,64 @@
 package kenny.base;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by kennylbj on 16/9/14.
  * Implements of this class must be thread-safe
  */
 public interface Timer {
-    TimerId runAfter(Runnable r, long delay);
+    /**
+     * Value returned by {@link #getNextTimeoutIntervalNs()} if there is no timer.
+     */
+    long INFINITE_FUTURE_NS = Long.MAX_VALUE;
+
+    /**
+     * Longer delays are clamped to it, so that deadlines never overflow.
+     */
+    long MAX_DELAY_NS = Long.MAX_VALUE >> 1;
+
+    TimerId runAfter(Runnable r, long delay, TimeUnit unit);
 
-    TimerId runEvery(Runnable r, long interval);
+    TimerId runEvery(Runnable r, long interval, TimeUnit unit);
+
+    /**
+     * Runs {@code r} after {@code delay} seconds.
+     */
+    default TimerId runAfter(Runnable r, long delay) {
+        return runAfter(r, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs {@code r} every {@code interval} seconds.
+     */
+    default TimerId runEvery(Runnable r, long interval) {
+        return runEvery(r, interval, TimeUnit.SECONDS);
+    }
 
     void cancelTimer(TimerId timerId);
 
-    long getNextTimeoutIntervalMs();
+    /**
+     * Returns the nano-seconds until the next timer expires, which may be zero or
+     * negative if it has expired, or {@link #INFINITE_FUTURE_NS} if there is no timer.
+     */
+    long getNextTimeoutIntervalNs();
+
+    /**
+     * Same as {@link #getNextTimeoutIntervalNs()} but rounded up to milli-seconds.
+     */
+    default long getNextTimeoutIntervalMs() {
+        long nextTimeoutIntervalNs = getNextTimeoutIntervalNs();
+        if (nextTimeoutIntervalNs == INFINITE_FUTURE_NS) {
+            return Integer.MAX_VALUE;
+        }
+        // We need to ceil the result to avoid early wake up
+        return (nextTimeoutIntervalNs + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
 
-    void triggerExpiredTimers(long currentTime);
+    /**
+     * Runs the timers which have expired at {@code currentTime}.
+     *
+     * @return the number of timers run
+     */
+    int triggerExpiredTimers(long currentTime);
 }
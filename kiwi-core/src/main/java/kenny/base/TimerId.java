@@ -1,62 +1,72 @@
 package kenny.base;
 
 
-import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by kennylbj on 16/9/14.
  * Identifier returned by Timer which can be used to cancel it.
+ * <p>
+ * The identifier is a single long drawn from the {@link Sequence} of the timer
+ * which creates it. Timers return their own timer entries as TimerIds, so
+ * scheduling a timer allocates nothing but the entry itself, and two TimerIds
+ * are equal if and only if they come from the same sequence with the same id.
  */
-public final class TimerId {
-    private static final int TIMER_ID_SIZE = 32;
-    private static final Random randomGenerator = new Random(System.nanoTime());
-    private final byte[] bytes;
-
-    private TimerId(byte[] dataBytes) {
-        assert dataBytes.length == TIMER_ID_SIZE;
-        bytes = new byte[TIMER_ID_SIZE];
-        System.arraycopy(dataBytes, 0, bytes, 0, dataBytes.length);
+public class TimerId {
+    private final Sequence sequence;
+    private final long id;
+
+    protected TimerId(Sequence sequence) {
+        this.sequence = sequence;
+        this.id = sequence.next();
     }
 
-    public static TimerId generate() {
-        byte[] dataBytes = new byte[TIMER_ID_SIZE];
-        randomGenerator.nextBytes(dataBytes);
-        return new TimerId(dataBytes);
+    public long getId() {
+        return id;
     }
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        for (byte aByte : bytes) {
-            sb.append(String.format("%02X", aByte));
-        }
-        return sb.toString();
+        return String.format("%016X", id);
     }
 
     @Override
-    public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
-        }
+    public final boolean equals(Object obj) {
         if (obj == this) {
             return true;
         }
         if (!(obj instanceof TimerId)) {
             return false;
         }
-        final TimerId other = (TimerId) obj;
-        return Arrays.equals(bytes, other.bytes);
+        TimerId other = (TimerId) obj;
+        return id == other.id && sequence == other.sequence;
     }
 
     @Override
-    public int hashCode() {
-        return Arrays.hashCode(bytes);
+    public final int hashCode() {
+        return Long.hashCode(id);
     }
 
-    public static void main(String[] args) {
-        TimerId id = TimerId.generate();
-        System.out.println("toString " + id);
-    }
+    /**
+     * Sequence of ids owned by one timer, which is one per loop.
+     * The upper bits tell the sequences apart in the ids printed, they wrap
+     * after 65,536 sequences, which is why equals() compares the sequences too.
+     */
+    public final static class Sequence {
+        private static final int SEQUENCE_BITS = 48;
+        private static final AtomicInteger sequences = new AtomicInteger(0);
 
+        private final long base;
+        private final AtomicLong next;
+
+        public Sequence() {
+            this.base = (sequences.getAndIncrement() & ((1L << (Long.SIZE - SEQUENCE_BITS)) - 1)) << SEQUENCE_BITS;
+            this.next = new AtomicLong(0);
+        }
+
+        public long next() {
+            return base | (next.getAndIncrement() & ((1L << SEQUENCE_BITS) - 1));
+        }
+    }
 }
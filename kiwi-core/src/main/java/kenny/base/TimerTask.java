@@ -2,40 +2,39 @@ package kenny.base;
 
 
 import com.google.common.base.MoreObjects;
-import com.google.common.base.Objects;
-import net.jcip.annotations.ThreadSafe;
+import net.jcip.annotations.NotThreadSafe;
 
 /**
  * Created by kennylbj on 16/9/14.
  * Timer In Nano Seconds
+ * It is the TimerId of itself, and a repeating TimerTask is re-armed in place,
+ * so it must not be re-armed while it is in a queue ordered by expiration time.
  */
-@ThreadSafe
-public final class TimerTask implements Comparable<TimerTask> {
-    private final TimerId timerId;
-    private final long expirationTime;
+@NotThreadSafe
+public final class TimerTask extends TimerId implements Comparable<TimerTask> {
     private final long intervalTime;
     private final Runnable task;
+    private long expirationTime;
+    // Set by cancelTimer() from any thread, a cancelled task is never run or re-armed
+    private volatile boolean cancelled;
 
-    TimerTask(TimerId timerId, long expirationTime, long intervalTime, Runnable task) {
-        this.timerId = timerId;
+    TimerTask(TimerId.Sequence sequence, long expirationTime, long intervalTime, Runnable task) {
+        super(sequence);
         this.expirationTime = expirationTime;
         this.intervalTime = intervalTime;
         this.task = task;
+        this.cancelled = false;
     }
 
-    public static TimerTask build(long expirationTime, long intervalTime, Runnable task) {
-        return new TimerTask(TimerId.generate(), expirationTime, intervalTime, task);
+    public static TimerTask build(TimerId.Sequence sequence, long expirationTime, long intervalTime, Runnable task) {
+        return new TimerTask(sequence, expirationTime, intervalTime, task);
     }
 
-    public static TimerTask valueOf(TimerId timerId) {
-        return new TimerTask(timerId, 0, 0, null);
-    }
-
-    public static TimerTask nextTimerTask(TimerTask current) {
-        return new TimerTask(current.getTimerId(),
-                System.nanoTime() + current.intervalTime,
-                current.intervalTime,
-                current.task);
+    /**
+     * Moves the expiration time of this repeating task one interval after {@code currentTime}.
+     */
+    void rearm(long currentTime) {
+        expirationTime = currentTime + intervalTime;
     }
 
     @Override
@@ -43,30 +42,10 @@ public final class TimerTask implements Comparable<TimerTask> {
         return Long.compare(expirationTime, other.expirationTime);
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
-        }
-        if (obj == this) {
-            return true;
-        }
-        if (!(obj instanceof TimerTask)) {
-            return false;
-        }
-        final TimerTask other = (TimerTask) obj;
-        return timerId.equals(other.timerId);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hashCode(timerId);
-    }
-
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
-                .add("timerId", timerId)
+                .add("timerId", super.toString())
                 .add("expirationTime", expirationTime)
                 .add("intervalTime", intervalTime)
                 .toString();
@@ -81,11 +60,19 @@ public final class TimerTask implements Comparable<TimerTask> {
     }
 
     public TimerId getTimerId() {
-        return timerId;
+        return this;
     }
 
     public long getIntervalTime() {
         return intervalTime;
     }
 
-}
\ No newline at end of file
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+}
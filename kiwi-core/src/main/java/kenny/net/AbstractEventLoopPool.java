@@ -0,0 +1,157 @@
+package kenny.net;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs {@code threadNum} loops of the class of the basic loop, each in a
+ * dedicated thread from the thread factory, and leaves the choice of the loop
+ * for a new connection to the subclasses.  Without thread, every connection
+ * goes to the basic loop.
+ * Only accessed in the thread of the basic loop.
+ */
+@NotThreadSafe
+public abstract class AbstractEventLoopPool<T extends EventLoop> implements EventLoopPool {
+    private static final AtomicInteger POOL_IDS = new AtomicInteger();
+
+    private final List<T> loops = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final EventLoop basicLoop;
+    private final Class<T> loopClass;
+    private ThreadFactory threadFactory;
+    private int threadNum = 0;
+
+    protected AbstractEventLoopPool(EventLoop basicLoop) {
+        this.basicLoop = basicLoop;
+        @SuppressWarnings("unchecked")
+        Class<T> clazz = (Class<T>) basicLoop.getClass();
+        this.loopClass = clazz;
+        threadFactory = new IoThreadFactory("kiwi-io-" + POOL_IDS.incrementAndGet());
+    }
+
+    /**
+     * Starts the threads and returns once every loop is running.
+     */
+    @Override
+    public void start() {
+        basicLoop.assertInLoopThread();
+        List<CompletableFuture<T>> running = new ArrayList<>(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            CompletableFuture<T> started = new CompletableFuture<>();
+            // A loop belongs to the thread which creates it, so it has to be
+            // created by the thread which runs it.
+            Thread thread = threadFactory.newThread(() -> {
+                T loop;
+                try {
+                    loop = EventLoop.newInstance(loopClass);
+                } catch (RuntimeException e) {
+                    started.completeExceptionally(e);
+                    return;
+                }
+                // Run by the first iteration, once the loop is looping
+                loop.queueInLoop(() -> started.complete(loop));
+                loop.loop();
+            });
+            thread.start();
+            threads.add(thread);
+            running.add(started);
+        }
+        for (CompletableFuture<T> started : running) {
+            loops.add(started.join());
+        }
+        started(Collections.unmodifiableList(loops));
+    }
+
+    /**
+     * Called once the loops are running.
+     */
+    protected void started(List<T> loops) {
+    }
+
+    @Override
+    public EventLoop nextLoop() {
+        basicLoop.assertInLoopThread();
+        //if loops is not empty, return loops's event loop.
+        if (loops.isEmpty()) {
+            return basicLoop;
+        }
+        return loops.get(choose(loops));
+    }
+
+    /**
+     * Returns the index in {@code loops} of the loop for a new connection.
+     */
+    protected abstract int choose(List<T> loops);
+
+    @Override
+    public List<EventLoop> getAllLoops() {
+        basicLoop.assertInLoopThread();
+        if (loops.isEmpty()) {
+            return Collections.singletonList(basicLoop);
+        }
+        return Collections.<EventLoop>unmodifiableList(loops);
+    }
+
+    @Override
+    public void setThreadNum(int threadNum) {
+        this.threadNum = threadNum;
+    }
+
+    @Override
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = checkNotNull(threadFactory);
+    }
+
+    /**
+     * Makes every loop quit once it has run its pending tasks.
+     */
+    @Override
+    public void shutdown() {
+        for (T loop : loops) {
+            loop.quit();
+        }
+    }
+
+    /**
+     * Shuts every loop down gracefully.
+     *
+     * @return a future completed once all the loops have terminated
+     * @see EventLoop#shutdownGracefully(long, long, TimeUnit)
+     */
+    @Override
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        CompletableFuture<?>[] terminated = new CompletableFuture<?>[loops.size()];
+        for (int i = 0; i < terminated.length; i++) {
+            terminated[i] = loops.get(i).shutdownGracefully(quietPeriod, timeout, unit);
+        }
+        return CompletableFuture.allOf(terminated);
+    }
+
+    /**
+     * Waits for the threads of the loops to terminate after shutdown().
+     * Returns {@code false} if some are still running after {@code timeout}.
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,14 +4,17 @@ import kenny.base.EventCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
 import java.nio.channels.SelectableChannel;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by kennylbj on 16/9/14.
@@ -19,15 +22,82 @@ import java.nio.channels.SocketChannel;
  */
 public class Acceptor extends AbstractEventHandler {
     private final static Logger LOG = LoggerFactory.getLogger(Acceptor.class);
+    // The JDK listens with a backlog of 50, too short for a burst of connections
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final int DEFAULT_MAX_ACCEPTS_PER_WAKEUP = 64;
+    public static final long DEFAULT_ACCEPT_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
     private final NIOEventLoop loop;
     private final ServerSocketChannel acceptChannel;
     private EventCallback.AcceptCallback acceptCallback;
+    private int maxAcceptsPerWakeup = DEFAULT_MAX_ACCEPTS_PER_WAKEUP;
+    private SocketOptions socketOptions = new SocketOptions();
+    private long acceptPauseNanos = DEFAULT_ACCEPT_PAUSE_NANOS;
+    private boolean paused = false;
 
     public Acceptor(NIOEventLoop loop, String host, int port) throws IOException {
+        this(loop, bind(host, port, false, DEFAULT_BACKLOG));
+    }
+
+    /**
+     * Creates an acceptor of a listening channel which is already bound.
+     */
+    public Acceptor(NIOEventLoop loop, ServerSocketChannel acceptChannel) throws IOException {
         this.loop = loop;
-        acceptChannel = ServerSocketChannel.open();
+        this.acceptChannel = acceptChannel;
         acceptChannel.configureBlocking(false);
-        acceptChannel.socket().bind(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Opens a channel listening on {@code host:port}.
+     * <p>
+     * With {@code reusePort} the channel is bound with SO_REUSEPORT, so that
+     * several channels can listen on the same port and the kernel distributes
+     * the incoming connections among them.  The kernel silently caps
+     * {@code backlog} at its own limit, e.g. {@code net.core.somaxconn}.
+     *
+     * @throws UnsupportedOperationException if {@code reusePort} is requested
+     *         but not supported by the platform
+     */
+    public static ServerSocketChannel bind(String host, int port, boolean reusePort, int backlog)
+            throws IOException {
+        checkArgument(backlog > 0);
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                SocketOption<Boolean> option = reusePortOption(channel);
+                if (option == null) {
+                    throw new UnsupportedOperationException("SO_REUSEPORT is not supported");
+                }
+                channel.setOption(option, true);
+            }
+            channel.socket().bind(new InetSocketAddress(host, port), backlog);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Returns {@code true} if listening channels can be bound with SO_REUSEPORT.
+     */
+    public static boolean isReusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return reusePortOption(channel) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Looked up by name since StandardSocketOptions.SO_REUSEPORT only exists since Java 9
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption(ServerSocketChannel channel) {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class) {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
     }
 
     public void accept() {
@@ -39,36 +109,127 @@ public class Acceptor extends AbstractEventHandler {
         }
     }
 
+    public NIOEventLoop getLoop() {
+        return loop;
+    }
+
+    /**
+     * Stops accepting and closes the listening channel.  The connections left
+     * in the backlog are reset.
+     */
+    public void close() {
+        loop.assertInLoopThread();
+        loop.removeAllInterest(acceptChannel);
+        try {
+            acceptChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close {}", acceptChannel, e);
+        }
+    }
+
     public void setAcceptCallback(EventCallback.AcceptCallback callback) {
         this.acceptCallback = callback;
     }
 
+    /**
+     * Sets the maximum number of connections accepted per readiness event.
+     * A burst of pending connections is drained in batches of this size, the
+     * loop goes back to the other channels between two batches.
+     */
+    public void setMaxAcceptsPerWakeup(int maxAcceptsPerWakeup) {
+        checkArgument(maxAcceptsPerWakeup > 0);
+        this.maxAcceptsPerWakeup = maxAcceptsPerWakeup;
+    }
+
+    /**
+     * Sets the options applied to every accepted socket.
+     */
+    public void setSocketOptions(SocketOptions socketOptions) {
+        this.socketOptions = new SocketOptions(checkNotNull(socketOptions));
+    }
+
+    /**
+     * Sets how long accepting stops once the process or the system runs out
+     * of file descriptors.  The pending connections stay in the backlog.
+     */
+    public void setAcceptPause(long pause, TimeUnit unit) {
+        checkArgument(pause > 0);
+        this.acceptPauseNanos = unit.toNanos(pause);
+    }
+
     @Override
     public void handleAccept(SelectableChannel channel) {
         loop.assertInLoopThread();
-        LOG.info("Accept channel {}", channel.toString());
         //same channel in fact.
         checkState(acceptChannel == channel);
-        try {
-            SocketChannel socketChannel = acceptChannel.accept();
-            if (socketChannel != null) {
-                socketChannel.configureBlocking(false);
-                socketChannel.socket().setTcpNoDelay(true);
-                //socketChannel.socket().setSendBufferSize(1024);
-                //socketChannel.socket().setReceiveBufferSize(1024);
-                if (acceptCallback != null) {
-                    //registered by Server
-                    acceptCallback.onAccept(socketChannel);
-                    // Finish accept
-                    boolean isChannelRead = (socketChannel.validOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ;
+        // The callback may stop accepting, e.g. when the server is stopping
+        for (int i = 0; i < maxAcceptsPerWakeup && loop.isAcceptRegistered(acceptChannel); i++) {
+            SocketChannel socketChannel;
+            try {
+                socketChannel = acceptChannel.accept();
+            } catch (IOException e) {
+                if (isTooManyOpenFiles(e)) {
+                    // The listening channel stays readable with the connection in the
+                    // backlog, so back off instead of spinning on the failing accept()
+                    pauseAccepting(e);
                 } else {
-                    //nothing to do here, so we need to close connection.
-                    socketChannel.close();
+                    LOG.error("Failed to accept on {}", acceptChannel, e);
                 }
+                return;
+            }
+            if (socketChannel == null) {
+                // Backlog drained
+                return;
             }
-            //todo the special problem of accept()ing when you can't" in libev's doc.
+            LOG.debug("Accept channel {}", socketChannel);
+            try {
+                socketOptions.apply(socketChannel);
+            } catch (IOException e) {
+                LOG.warn("Failed to configure accepted channel {}", socketChannel, e);
+                closeQuietly(socketChannel);
+                continue;
+            }
+            if (acceptCallback != null) {
+                //registered by Server
+                acceptCallback.onAccept(socketChannel);
+            } else {
+                //nothing to do here, so we need to close connection.
+                closeQuietly(socketChannel);
+            }
+        }
+    }
+
+    private void pauseAccepting(IOException cause) {
+        if (paused) {
+            return;
+        }
+        LOG.warn("Out of file descriptors, stop accepting on {} for {} ms",
+                acceptChannel, TimeUnit.NANOSECONDS.toMillis(acceptPauseNanos), cause);
+        paused = true;
+        loop.unregisterAccept(acceptChannel);
+        loop.runAfter(() -> {
+            paused = false;
+            if (acceptChannel.isOpen()) {
+                accept();
+            }
+        }, acceptPauseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    // EMFILE is "Too many open files", ENFILE "Too many open files in system"
+    private static boolean isTooManyOpenFiles(IOException e) {
+        String message = e.getMessage();
+        return message != null && message.contains("Too many open files");
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
         } catch (IOException e) {
-            throw new RuntimeException("failed to handle accept " + channel.toString());
+            LOG.debug("Failed to close channel {}", channel, e);
         }
     }
 }
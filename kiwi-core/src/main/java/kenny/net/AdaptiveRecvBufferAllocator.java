@@ -0,0 +1,130 @@
+package kenny.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Follows the size of the recent reads of each connection.
+ * <p>
+ * The capacity grows to a larger step of the size table as soon as a read
+ * fills the whole buffer, and shrinks by one step only after two reads in a
+ * row were small enough to fit in the smaller buffer.  The steps are 16 bytes
+ * apart up to 512 bytes, and double from there.
+ */
+public class AdaptiveRecvBufferAllocator implements RecvBufferAllocator {
+    public static final int DEFAULT_MINIMUM = 64;
+    public static final int DEFAULT_INITIAL = 1024;
+    public static final int DEFAULT_MAXIMUM = 65536;
+
+    private static final int INDEX_INCREMENT = 4;
+    private static final int INDEX_DECREMENT = 1;
+
+    private static final int[] SIZE_TABLE;
+
+    static {
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 16; i < 512; i += 16) {
+            sizes.add(i);
+        }
+        for (int i = 512; i > 0; i <<= 1) {
+            sizes.add(i);
+        }
+        SIZE_TABLE = new int[sizes.size()];
+        for (int i = 0; i < SIZE_TABLE.length; i++) {
+            SIZE_TABLE[i] = sizes.get(i);
+        }
+    }
+
+    private final int minIndex;
+    private final int maxIndex;
+    private final int initial;
+
+    public AdaptiveRecvBufferAllocator() {
+        this(DEFAULT_MINIMUM, DEFAULT_INITIAL, DEFAULT_MAXIMUM);
+    }
+
+    /**
+     * @param minimum the lower bound of the capacity
+     * @param initial the capacity before the first read
+     * @param maximum the upper bound of the capacity
+     */
+    public AdaptiveRecvBufferAllocator(int minimum, int initial, int maximum) {
+        checkArgument(minimum > 0);
+        checkArgument(initial >= minimum);
+        checkArgument(maximum >= initial);
+
+        int minIndex = sizeTableIndex(minimum);
+        if (SIZE_TABLE[minIndex] < minimum) {
+            minIndex++;
+        }
+        int maxIndex = sizeTableIndex(maximum);
+        if (SIZE_TABLE[maxIndex] > maximum) {
+            maxIndex--;
+        }
+        this.minIndex = minIndex;
+        this.maxIndex = Math.max(minIndex, maxIndex);
+        this.initial = initial;
+    }
+
+    /**
+     * Returns the index of the largest size not above {@code size}, or of the
+     * smallest size if all of them are larger.
+     */
+    private static int sizeTableIndex(int size) {
+        int low = 0;
+        int high = SIZE_TABLE.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (SIZE_TABLE[mid] <= size) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Handle newHandle() {
+        return new AdaptiveHandle(minIndex, maxIndex, initial);
+    }
+
+    private static final class AdaptiveHandle implements Handle {
+        private final int minIndex;
+        private final int maxIndex;
+        private int index;
+        private int nextCapacity;
+        private boolean decreaseNow;
+
+        AdaptiveHandle(int minIndex, int maxIndex, int initial) {
+            this.minIndex = minIndex;
+            this.maxIndex = maxIndex;
+            index = Math.min(Math.max(sizeTableIndex(initial), minIndex), maxIndex);
+            nextCapacity = SIZE_TABLE[index];
+        }
+
+        @Override
+        public int guess() {
+            return nextCapacity;
+        }
+
+        @Override
+        public void record(int bytesRead) {
+            if (bytesRead <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT)]) {
+                if (decreaseNow) {
+                    index = Math.max(index - INDEX_DECREMENT, minIndex);
+                    nextCapacity = SIZE_TABLE[index];
+                    decreaseNow = false;
+                } else {
+                    decreaseNow = true;
+                }
+            } else if (bytesRead >= nextCapacity) {
+                index = Math.min(index + INDEX_INCREMENT, maxIndex);
+                nextCapacity = SIZE_TABLE[index];
+                decreaseNow = false;
+            }
+        }
+    }
+}
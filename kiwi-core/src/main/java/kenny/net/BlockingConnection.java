@@ -0,0 +1,315 @@
+package kenny.net;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A blocking facade over a Connection, for protocols easier to write as
+ * sequential code than as message callbacks, with one thread per connection
+ * running a {@link Handler}.
+ * <p>
+ * The connection is still driven by the readiness events of its loop: the
+ * loop copies what it reads into this facade, and read() blocks until there
+ * is something to read.  write() hands the bytes to the loop with
+ * {@link Connection#send(ByteBuffer)}, and blocks while more than
+ * {@code maxBufferedBytes} wait to be written.  Once more than
+ * {@code maxBufferedBytes} wait to be read, the connection stops reading
+ * until the handler has read half of them.
+ * <p>
+ * The threads only block on a ReentrantLock, never in a monitor, so they may
+ * be virtual threads, see {@link VirtualThreads}.  With virtual threads a
+ * blocked handler costs a few hundred bytes of heap instead of the stack of
+ * a platform thread.
+ */
+@ThreadSafe
+public class BlockingConnection {
+    private final static Logger LOG = LoggerFactory.getLogger(BlockingConnection.class);
+    public final static int DEFAULT_MAX_BUFFERED_BYTES = 256 * 1024;
+
+    /**
+     * Runs the protocol of one connection in a thread of its own.  The
+     * connection is closed gracefully when it returns or throws.
+     */
+    public interface Handler {
+        void handle(BlockingConnection connection) throws IOException;
+    }
+
+    private final Connection connection;
+    private final int maxBufferedBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+    // Guarded by lock
+    private final Queue<ByteBuffer> input = new ArrayDeque<>();
+    private long bufferedBytes;
+    private boolean readPaused;
+    private boolean closed;
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return BlockingConnection.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BlockingConnection.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return BlockingConnection.this.available();
+        }
+
+        @Override
+        public void close() {
+            BlockingConnection.this.close();
+        }
+    };
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            BlockingConnection.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BlockingConnection.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            BlockingConnection.this.close();
+        }
+    };
+
+    /**
+     * Takes over the message, close and water mark callbacks of
+     * {@code connection}, must be called before the connection is established.
+     */
+    public BlockingConnection(Connection connection, int maxBufferedBytes) {
+        checkArgument(maxBufferedBytes > 0);
+        this.connection = checkNotNull(connection);
+        this.maxBufferedBytes = maxBufferedBytes;
+        connection.setMessageCallback((channel, conn, buffer) -> onMessage(buffer));
+        connection.setCloseCallback(channel -> onClose());
+        connection.setHighWaterMark(maxBufferedBytes);
+        connection.setLowWaterMarkCallback((channel, conn) -> signalAll(writable), maxBufferedBytes / 2);
+    }
+
+    /**
+     * Runs {@code handler} in a new thread of {@code threadFactory}.
+     */
+    public void start(Handler handler, ThreadFactory threadFactory) {
+        checkNotNull(handler);
+        Thread thread = threadFactory.newThread(() -> {
+            try {
+                handler.handle(this);
+            } catch (IOException e) {
+                LOG.debug("Handler of Connection {} failed", connection.getName(), e);
+            } catch (RuntimeException e) {
+                LOG.error("Handler of Connection {} failed", connection.getName(), e);
+            } finally {
+                close();
+            }
+        });
+        thread.start();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Reads up to {@code len} bytes, blocking until at least one is
+     * received.  Returns {@code -1} once the connection is closed and every
+     * byte received has been read.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkPositionIndexes(off, off + len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        boolean resume;
+        int read = 0;
+        lock.lock();
+        try {
+            while (input.isEmpty() && !closed) {
+                readable.await();
+            }
+            while (read < len && !input.isEmpty()) {
+                ByteBuffer head = input.peek();
+                int n = Math.min(len - read, head.remaining());
+                head.get(b, off + read, n);
+                read += n;
+                if (!head.hasRemaining()) {
+                    input.poll();
+                }
+            }
+            bufferedBytes -= read;
+            resume = readPaused && bufferedBytes <= maxBufferedBytes / 2;
+            if (resume) {
+                readPaused = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+        if (resume) {
+            connection.getLoop().runInLoop(() -> {
+                // A connection closing gracefully reads until the end of stream
+                if (!connection.disConnected()) {
+                    connection.startRead();
+                }
+            });
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Reads exactly {@code len} bytes.
+     *
+     * @throws EOFException if the connection is closed before
+     */
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = read(b, off + read, len - read);
+            if (n < 0) {
+                throw new EOFException("Connection " + connection.getName() + " closed");
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Returns the number of bytes which can be read without blocking.
+     */
+    public int available() {
+        lock.lock();
+        try {
+            return (int) Math.min(bufferedBytes, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends {@code len} bytes of {@code b}, then blocks while more than
+     * {@code maxBufferedBytes} wait to be written.
+     *
+     * @throws IOException if the connection is closed
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkPositionIndexes(off, off + len, b.length);
+        if (!connection.isConnected()) {
+            throw new IOException("Connection " + connection.getName() + " closed");
+        }
+        if (len == 0) {
+            return;
+        }
+        ByteBuffer message = ByteBuffer.allocate(len);
+        message.put(b, off, len).flip();
+        connection.send(message);
+        lock.lock();
+        try {
+            // Counts what the loop has queued so far, the send above may not be in yet
+            while (connection.getPendingBytes() > maxBufferedBytes && !closed) {
+                writable.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection once what has been written is sent.
+     *
+     * @see Connection#closeGracefully()
+     */
+    public void close() {
+        connection.closeGracefully();
+        lock.lock();
+        try {
+            // Nothing more will be read
+            closed = true;
+            readable.signalAll();
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called by the loop
+    private void onMessage(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        boolean pause;
+        lock.lock();
+        try {
+            input.offer(copy);
+            bufferedBytes += copy.remaining();
+            pause = !readPaused && bufferedBytes > maxBufferedBytes;
+            if (pause) {
+                readPaused = true;
+            }
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (pause) {
+            connection.stopRead();
+        }
+    }
+
+    // Called by the loop
+    private void onClose() {
+        lock.lock();
+        try {
+            closed = true;
+            readable.signalAll();
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalAll(Condition condition) {
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
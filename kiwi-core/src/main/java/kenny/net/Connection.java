@@ -1,9 +1,16 @@
 package kenny.net;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import kenny.base.EventCallback;
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferFactory;
+import kenny.net.buffer.BufferHelpler;
+import kenny.net.buffer.PooledBufferFactory;
+import kenny.net.codec.FrameDecoder;
+import kenny.net.codec.MessageEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,8 +18,12 @@ import java.io.IOException;
 import java.nio.*;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -22,6 +33,14 @@ import java.util.Queue;
  */
 public class Connection extends AbstractEventHandler {
     private final static Logger LOG = LoggerFactory.getLogger(Connection.class);
+    public final static int DEFAULT_MAX_WRITE_IOVECS = 64;
+    public final static int DEFAULT_MAX_BYTES_PER_WRITE = 512 * 1024;
+    public final static int DEFAULT_MAX_READS_PER_EVENT = 16;
+    public final static int DEFAULT_MAX_BYTES_PER_EVENT = 256 * 1024;
+    // A full input buffer holding an incomplete message grows up to this capacity
+    public final static int MAX_INPUT_CAPACITY = 64 * 1024;
+    public final static int DEFAULT_FLUSH_THRESHOLD = 64 * 1024;
+    private final static int INITIAL_OUTBOUND_CAPACITY = 256;
     public enum State {
         DISCONNECTED,
         CONNECTING,
@@ -36,32 +55,125 @@ public class Connection extends AbstractEventHandler {
     // Connection state
     private State state;
     private boolean isReading;
+    // The registries this connection is in, it leaves them once closed
+    private List<ConnectionRegistry> registries;
 
     private EventCallback.MessageCallback messageCallback;
     private EventCallback.WriteCompleteCallback writeCompleteCallback;
     private EventCallback.HighWaterMarkCallback highWaterMarkCallback;
+    private EventCallback.LowWaterMarkCallback lowWaterMarkCallback;
     private EventCallback.CloseCallback closeCallback;
     private EventCallback.ConnectFinishCallback connectFinishCallback;
+    private EventCallback.FrameCallback frameCallback;
 
-    private final ByteBuffer inputBuffer;
+    // Takes over the input buffers and cuts them into frames instead of the
+    // message callback, null if the message callback consumes the input itself.
+    private FrameDecoder frameDecoder;
+
+    // inputBuffer is a view of input, which is taken from the BufferFactory when
+    // the channel is readable and given back once the message callback has
+    // consumed all of it. Both are null while there is nothing to consume.
+    private final BufferFactory bufferFactory;
+    private final RecvBufferAllocator.Handle recvHandle;
+    private Buffer input;
+    private ByteBuffer inputBuffer;
 
     // The unbounded queue of outstanding packets that need to be sent
     // Carefully check the size of queue before offering packets into it
     // to avoid the unbounded-growth of queue
     private final Queue<ByteBuffer> outputBuffer;
+    // The Buffers that the packets in outputBuffer are taken from, in the same order.
+    // They are released once their packets are written, EMPTY_BUFFER stands for
+    // a packet which is sent as a plain ByteBuffer.
+    private final Queue<Buffer> outputOwners;
+    private boolean buffersReleased;
+    // Set by closeGracefully(), the input is discarded and the output is shut
+    // down once the queued packets are written
+    private boolean closingGracefully;
+
+    // Messages passed to write() are encoded into outbound, which is sent by
+    // flushTask once the current iteration of the loop has handled all its
+    // events, or as soon as it reaches flushThreshold bytes.
+    private MessageEncoder<Object> messageEncoder;
+    private Buffer outbound;
+    private boolean flushScheduled;
+    private int flushThreshold;
+    private final Runnable flushTask = () -> {
+        flushScheduled = false;
+        flushInLoop();
+    };
+
+    // Bytes queued in outputBuffer and not yet written to the channel,
+    // only updated in loop thread but read by monitoring threads.
+    private volatile long pendingBytes;
 
     private int highWaterMark;
+    private int lowWaterMark;
+    // Whether pendingBytes has gone above highWaterMark and not yet
+    // come back down to lowWaterMark
+    private boolean aboveHighWaterMark;
+
+    // Budget of one readiness event in handleRead()
+    private int maxReadsPerEvent;
+    private int maxBytesPerEvent;
 
+    // Limits of one gathering write in handleWrite()
+    private int maxWriteIovecs;
+    private int maxBytesPerWrite;
+    // Reused array of buffers passed to the gathering write
+    private ByteBuffer[] writeBatch;
+
+    // Only accessed by the loop thread, see metrics()
+    private long bytesRead;
+    private long bytesWritten;
+    private long messagesRead;
+    private long messagesWritten;
+    private long highWaterMarkHits;
+
+    /**
+     * Creates a connection whose input buffers come from
+     * {@link PooledBufferFactory#getInstance()}.
+     */
     public Connection(NIOEventLoop loop, String name, SocketChannel channel) {
+        this(loop, name, channel, PooledBufferFactory.getInstance());
+    }
+
+    /**
+     * Creates a connection whose input buffer is allocated by {@code bufferFactory}.
+     * Every read event of a busy connection takes a buffer and most give it
+     * back, so the factory should recycle them: a pool of direct buffers, such
+     * as {@link PooledBufferFactory}, also saves the copy between heap and
+     * native memory the JDK does on every read of a heap ByteBuffer.
+     */
+    public Connection(NIOEventLoop loop, String name, SocketChannel channel, BufferFactory bufferFactory) {
+        this(loop, name, channel, bufferFactory, new AdaptiveRecvBufferAllocator());
+    }
+
+    /**
+     * Creates a connection whose input buffers are allocated by {@code bufferFactory}
+     * with the capacity chosen by {@code recvBufferAllocator}.
+     */
+    public Connection(NIOEventLoop loop, String name, SocketChannel channel, BufferFactory bufferFactory,
+                      RecvBufferAllocator recvBufferAllocator) {
         this.loop = loop;
         this.name = name;
         this.channel = channel;
-        //TODO determine size
-        inputBuffer = ByteBuffer.allocate(65536);
-        outputBuffer = new LinkedList<>();
+        this.bufferFactory = bufferFactory;
+        recvHandle = recvBufferAllocator.newHandle();
+        outputBuffer = new ArrayDeque<>();
+        outputOwners = new ArrayDeque<>();
+        buffersReleased = false;
         state = State.CONNECTING;
         isReading = false;
         highWaterMark = 64*1024*1024;//default high water mark
+        lowWaterMark = 0;
+        aboveHighWaterMark = false;
+        maxReadsPerEvent = DEFAULT_MAX_READS_PER_EVENT;
+        maxBytesPerEvent = DEFAULT_MAX_BYTES_PER_EVENT;
+        flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+        maxWriteIovecs = DEFAULT_MAX_WRITE_IOVECS;
+        maxBytesPerWrite = DEFAULT_MAX_BYTES_PER_WRITE;
+        writeBatch = new ByteBuffer[maxWriteIovecs];
     }
 
     // We could not simply use socketChanel.isConnected() to tell whether the socketChannel
@@ -83,7 +195,7 @@ public class Connection extends AbstractEventHandler {
 
     public void connectEstablished() {
         loop.assertInLoopThread();
-        LOG.info("Connection established");
+        LOG.debug("Connection {} established", name);
         checkState(state == State.CONNECTING);
         setState(State.CONNECTED);
 
@@ -120,12 +232,70 @@ public class Connection extends AbstractEventHandler {
         }
     }
 
+    /**
+     * Sends what has been written or sent so far, including the messages
+     * queued to the loop before this call, then shuts the output down and
+     * closes the connection once the peer closes its side.  The input received
+     * meanwhile is discarded, and so are the messages written after this call.
+     * <p>
+     * Closing a socket with unread input makes the kernel reset it and drop
+     * the bytes it has not sent yet, which is why the input is still read until
+     * the peer is done.
+     *
+     * @see #forceClose()
+     */
+    public void closeGracefully() {
+        // Not checking the state in the calling thread, the sends queued
+        // before still have to go out
+        loop.runInLoop(this::closeGracefullyInLoop);
+    }
+
+    private void closeGracefullyInLoop() {
+        loop.assertInLoopThread();
+        if (state != State.CONNECTED) {
+            return;
+        }
+        flushInLoop();
+        setState(State.DISCONNECTING);
+        closingGracefully = true;
+        // Otherwise handleWrite() shuts the output down once the queue is empty
+        if (outputBuffer.isEmpty()) {
+            shutdownOutputInLoop();
+        }
+    }
+
+    private void shutdownOutputInLoop() {
+        try {
+            channel.shutdownOutput();
+        } catch (IOException e) {
+            LOG.debug("Failed to shutdown the output of Connection {}", name, e);
+            shutdownInLoop();
+        }
+    }
+
+    /**
+     * Closes the connection at once, even while closeGracefully() is still
+     * waiting for the queued packets to be written or for the peer.  The unsent bytes are lost.
+     */
+    public void forceClose() {
+        loop.runInLoop(this::shutdownInLoop);
+    }
+
     private void shutdownInLoop() {
         loop.assertInLoopThread();
+        if (state == State.DISCONNECTED) {
+            // Closed by the peer or by an earlier call
+            return;
+        }
+        setState(State.DISCONNECTED);
         loop.removeAllInterest(channel);
+        releaseBuffers();
+        leaveRegistries();
         try {
             channel.close();
-            closeCallback.onClose(channel);
+            if (closeCallback != null) {
+                closeCallback.onClose(channel);
+            }
         } catch (IOException e) {
             LOG.error("Failed to shutdown Connection {}", name);
         }
@@ -133,55 +303,239 @@ public class Connection extends AbstractEventHandler {
     }
 
     public void send(ByteBuffer buffer) {
+        send(buffer, BufferHelpler.EMPTY_BUFFER);
+    }
+
+    /**
+     * Sends the readable bytes of {@code buffer} and releases it once they are
+     * written, or once the connection is closed.  The caller must not access the
+     * buffer after calling this method.
+     */
+    public void send(Buffer buffer) {
+        send(buffer.toByteBuffer(), buffer);
+    }
+
+    private void send(ByteBuffer buffer, Buffer owner) {
         if (state == State.CONNECTED) {
             if (loop.isInLoopThread()) {
-                sendInLoop(buffer);
+                sendMessageInLoop(buffer, owner);
             } else {
-                loop.runInLoop(() -> sendInLoop(buffer));
+                loop.runInLoop(() -> sendMessageInLoop(buffer, owner));
             }
         } else {
             LOG.error("Connect state error.");
+            owner.release();
         }
     }
 
 
-    private void sendInLoop(ByteBuffer buffer) {
+    private void sendMessageInLoop(ByteBuffer buffer, Buffer owner) {
+        if (Metrics.ENABLED) {
+            messagesWritten++;
+        }
+        sendInLoop(buffer, owner);
+    }
+
+    private void sendInLoop(ByteBuffer buffer, Buffer owner) {
         loop.assertInLoopThread();
-        if (state == State.DISCONNECTED) {
+        if (state == State.DISCONNECTED || buffersReleased) {
+            owner.release();
             return;
         }
+        // Messages written before must go out first
+        if (outbound != null) {
+            flushInLoop();
+        }
 
         // channel is writable
         if (!loop.isWriteRegistered(channel) && outputBuffer.isEmpty()) {
             try {
-                channel.write(buffer);
-                if (!buffer.hasRemaining() && writeCompleteCallback != null) {
-                    //queueInLoop because we don't want to invoke callback right now in case of long term write
-                    loop.queueInLoop(() -> writeCompleteCallback.onWriteComplete(channel, this));
+                int written = channel.write(buffer);
+                if (Metrics.ENABLED) {
+                    bytesWritten += written;
+                }
+                if (!buffer.hasRemaining()) {
+                    owner.release();
+                    if (writeCompleteCallback != null) {
+                        //queueInLoop because we don't want to invoke callback right now in case of long term write
+                        loop.queueInLoop(() -> writeCompleteCallback.onWriteComplete(channel, this));
+                    }
                 }
             } catch (IOException e) {
+                owner.release();
                 handleError(channel);
                 throw new RuntimeException("Failed to write buffer");
             }
         }
 
         if (buffer.hasRemaining()) {
-            int remaining = outputBuffer.stream()
-                    .mapToInt(java.nio.Buffer::remaining)
-                    .sum();
-            int waterMark = remaining + buffer.remaining();
-            if (waterMark > highWaterMark
-                    && remaining < highWaterMark //guarantee highWaterMarkCallback only be called first time.
-                    && highWaterMarkCallback != null) {
+            enqueue(buffer, owner);
+        }
+
+    }
+
+    // Queues the rest of a packet which could not be written at once
+    private void enqueue(ByteBuffer buffer, Buffer owner) {
+        long waterMark = pendingBytes + buffer.remaining();
+        //guarantee highWaterMarkCallback only be called once until the low water mark is reached.
+        if (waterMark > highWaterMark && !aboveHighWaterMark) {
+            aboveHighWaterMark = true;
+            if (Metrics.ENABLED) {
+                highWaterMarkHits++;
+            }
+            if (highWaterMarkCallback != null) {
+                int mark = (int) Math.min(waterMark, Integer.MAX_VALUE);
                 //TODO why queueInLoop?
-                loop.queueInLoop(() -> highWaterMarkCallback.onHighWaterMark(channel, waterMark));
+                loop.queueInLoop(() -> highWaterMarkCallback.onHighWaterMark(channel, mark));
             }
-            //insert the remaining buffer to queue.
-            outputBuffer.offer(buffer);
-            //enable writing
-            loop.enableWriting(channel, this);
         }
+        //insert the remaining buffer to queue.
+        outputBuffer.offer(buffer);
+        outputOwners.offer(owner);
+        pendingBytes = waterMark;
+        //enable writing
+        loop.enableWriting(channel, this);
+    }
 
+    /**
+     * Encodes {@code message} with the {@link MessageEncoder} of the connection
+     * and queues the bytes for sending, without writing to the channel yet.
+     * The bytes of all the messages written during one iteration of the loop
+     * are sent together once the iteration ends, or earlier once they reach
+     * the flush threshold, so that many small messages cost one write.
+     * <p>
+     * Without an encoder the message must be a {@link ByteBuffer} or a
+     * {@link Buffer}, whose bytes are copied, the Buffer is released.
+     */
+    public void write(Object message) {
+        checkNotNull(message);
+        if (loop.isInLoopThread()) {
+            writeInLoop(message);
+        } else {
+            loop.runInLoop(() -> writeInLoop(message));
+        }
+    }
+
+    /**
+     * Sends the messages written so far without waiting for the end of the
+     * iteration of the loop.
+     */
+    public void flush() {
+        loop.runInLoop(this::flushInLoop);
+    }
+
+    public void writeAndFlush(Object message) {
+        checkNotNull(message);
+        loop.runInLoop(() -> {
+            writeInLoop(message);
+            flushInLoop();
+        });
+    }
+
+    private void writeInLoop(Object message) {
+        loop.assertInLoopThread();
+        if (state != State.CONNECTED || buffersReleased) {
+            LOG.debug("Connection {} is not connected, message dropped", name);
+            if (message instanceof Buffer) {
+                ((Buffer) message).release();
+            }
+            return;
+        }
+        if (outbound == null) {
+            outbound = BufferHelpler.dynamicBuffer(INITIAL_OUTBOUND_CAPACITY, bufferFactory);
+        }
+        int writerIndex = outbound.writerIndex();
+        try {
+            encode(message, outbound);
+        } catch (RuntimeException e) {
+            // Do not send a partly encoded message
+            outbound.writerIndex(writerIndex);
+            throw e;
+        }
+        if (Metrics.ENABLED) {
+            messagesWritten++;
+        }
+        if (outbound.readableBytes() >= flushThreshold) {
+            flushInLoop();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            loop.queueInLoop(flushTask);
+        }
+    }
+
+    private void encode(Object message, Buffer out) {
+        if (messageEncoder != null) {
+            messageEncoder.encode(this, message, out);
+        } else if (message instanceof ByteBuffer) {
+            out.writeBytes((ByteBuffer) message);
+        } else if (message instanceof Buffer) {
+            Buffer buffer = (Buffer) message;
+            try {
+                out.writeBytes(buffer, buffer.readerIndex(), buffer.readableBytes());
+            } finally {
+                buffer.release();
+            }
+        } else {
+            throw new IllegalArgumentException("No MessageEncoder for " + message.getClass().getName());
+        }
+    }
+
+    private void flushInLoop() {
+        loop.assertInLoopThread();
+        Buffer pending = outbound;
+        if (pending == null) {
+            return;
+        }
+        outbound = null;
+        if (pending.readable()) {
+            sendInLoop(pending.toByteBuffer(), pending);
+        } else {
+            pending.release();
+        }
+    }
+
+    /**
+     * Sends the bytes of {@code view}, a read-only view of {@code message} shared
+     * with the other connections of the loop, and restores its position.  A
+     * connection which can not write all of it at once keeps a view of the
+     * rest and a reference to the message of its own.
+     */
+    void sendShared(ByteBuffer view, Buffer message) {
+        loop.assertInLoopThread();
+        if (state != State.CONNECTED || buffersReleased) {
+            return;
+        }
+        if (outbound != null) {
+            flushInLoop();
+        }
+        if (Metrics.ENABLED) {
+            messagesWritten++;
+        }
+        int position = view.position();
+        if (!loop.isWriteRegistered(channel) && outputBuffer.isEmpty()) {
+            try {
+                int written = channel.write(view);
+                if (Metrics.ENABLED) {
+                    bytesWritten += written;
+                }
+            } catch (IOException e) {
+                // Do not let one broken connection stop the others
+                view.position(position);
+                handleError(channel);
+                return;
+            }
+            if (!view.hasRemaining()) {
+                view.position(position);
+                if (writeCompleteCallback != null) {
+                    loop.queueInLoop(() -> writeCompleteCallback.onWriteComplete(channel, this));
+                }
+                return;
+            }
+        }
+        ByteBuffer rest = view.duplicate();
+        view.position(position);
+        message.retain();
+        enqueue(rest, message);
     }
 
     public void startRead() {
@@ -214,31 +568,33 @@ public class Connection extends AbstractEventHandler {
         loop.assertInLoopThread();
         if (loop.isWriteRegistered(channel)) {
             try {
-                //TODO how many buffer should I write?
                 while (!outputBuffer.isEmpty()) {
-                    //System.out.println("output queue size: " + outputBuffer.size());
-                    ByteBuffer buffer = checkNotNull(outputBuffer.peek());
-                    channel.write(buffer);
-                    if (buffer.hasRemaining()) {
+                    if (!writeBatch()) {
                         // Partial writing, we would break since we could not write more data on socket.
-                        // But we have set the next start point of ByteBuffer.
+                        // But we have set the next start point of ByteBuffers.
                         // Next time when the socket is writable, it will start from that point.
                         break;
-                    } else {
-                        // Fully write
-                        outputBuffer.poll();
                     }
                 }
             } catch (IOException e) {
                 handleError(channel);
                 throw new RuntimeException("Failed to handle write");
             }
+            if (aboveHighWaterMark && pendingBytes <= lowWaterMark) {
+                aboveHighWaterMark = false;
+                if (lowWaterMarkCallback != null) {
+                    loop.queueInLoop(() -> lowWaterMarkCallback.onLowWaterMark(channel, this));
+                }
+            }
             if (outputBuffer.isEmpty()) {
                 loop.unregisterWrite(channel);
                 if (writeCompleteCallback != null) {
                     //TODO WHY NOT call callback directly since we are already in loop thread?
                     loop.queueInLoop(() -> writeCompleteCallback.onWriteComplete(channel, this));
                 }
+                if (closingGracefully) {
+                    shutdownOutputInLoop();
+                }
             }
         } else {
             handleError(channel);
@@ -246,47 +602,116 @@ public class Connection extends AbstractEventHandler {
         }
     }
 
+    /**
+     * Writes a batch of queued buffers with one gathering write and removes
+     * the buffers which are fully written.
+     * The batch is limited to maxWriteIovecs buffers, and no more buffers are added
+     * once it reaches maxBytesPerWrite bytes, but it always has at least one buffer.
+     *
+     * @return {@code true} if the whole batch has been written
+     */
+    private boolean writeBatch() throws IOException {
+        int count = 0;
+        long bytes = 0;
+        Iterator<ByteBuffer> iterator = outputBuffer.iterator();
+        while (iterator.hasNext() && count < maxWriteIovecs && bytes < maxBytesPerWrite) {
+            ByteBuffer buffer = iterator.next();
+            writeBatch[count++] = buffer;
+            bytes += buffer.remaining();
+        }
+        long written;
+        if (count == 1) {
+            written = channel.write(writeBatch[0]);
+        } else {
+            written = channel.write(writeBatch, 0, count);
+        }
+        pendingBytes -= written;
+        if (Metrics.ENABLED) {
+            bytesWritten += written;
+        }
+        // The write may stop in the middle of any buffer
+        boolean completed = true;
+        for (int i = 0; i < count; i++) {
+            if (completed && !writeBatch[i].hasRemaining()) {
+                outputBuffer.poll();
+                outputOwners.poll().release();
+            } else {
+                completed = false;
+            }
+            writeBatch[i] = null;
+        }
+        return completed;
+    }
+
     @Override
     public void handleRead(SelectableChannel readableChannel) {
         checkState(channel == readableChannel);
         loop.assertInLoopThread();
-        // We will not read data anymore if inputBuffer is full.
-        // This will cause system's tcp receive buffer to be full and then
-        // Endpoint's send buffer to be full.
-        if (!inputBuffer.hasRemaining()) {
-            LOG.info("Input buffer is full");
-            onMessage();
-            return;
-        }
-        try {
-            //todo no enough space to read, should we make inputBuffer to be a list?
-            int read = channel.read(inputBuffer);
-            if (read > 0) {
+        // Keep reading while the reads fill the whole buffer, since there is
+        // probably more in the socket, until the budget of this event is spent.
+        // The other channels of the loop get their turn after that, and the
+        // rest is read on the next readiness event.
+        int reads = 0;
+        long bytes = 0;
+        do {
+            // We will not read data anymore if inputBuffer is full and can not grow.
+            // This will cause system's tcp receive buffer to be full and then
+            // Endpoint's send buffer to be full.
+            if (!ensureInputSpace()) {
+                LOG.info("Input buffer is full");
                 onMessage();
-            } else if (read == 0) {
-                //todo
-                // Something bad happens if the channel is readable
-                // but reading length is 0
+                return;
+            }
+            int space = inputBuffer.remaining();
+            int read;
+            try {
+                read = channel.read(inputBuffer);
+            } catch (IOException e) {
+                // Usually reset by the peer, the channel would stay readable forever
+                LOG.debug("Failed to read from Connection {}", name, e);
                 handleClose(channel);
-            } else {
-                //Some connection may only connect without data
-                //handleError(channel);
+                return;
             }
-
-        } catch (IOException e) {
-            LOG.error("Failed to handle read.");
-        }
+            if (read < 0) {
+                // End of stream, the peer has closed the connection
+                handleClose(channel);
+                return;
+            }
+            if (read == 0) {
+                // Nothing more in the socket
+                releaseInputIfEmpty();
+                return;
+            }
+            recvHandle.record(read);
+            if (Metrics.ENABLED) {
+                bytesRead += read;
+            }
+            onMessage();
+            reads++;
+            bytes += read;
+            if (read < space) {
+                return;
+            }
+            // The callback may have closed the connection or stopped reading
+        } while (reads < maxReadsPerEvent && bytes < maxBytesPerEvent
+                && state == State.CONNECTED && loop.isReadRegistered(channel));
     }
 
     @Override
     public void handleClose(SelectableChannel closeableChannel) {
-        LOG.info("handle close with channel {}", closeableChannel);
+        LOG.debug("handle close with channel {}", closeableChannel);
         checkState(channel == closeableChannel);
         checkState(state == State.CONNECTED || state == State.DISCONNECTING);
         loop.assertInLoopThread();
         loop.removeAllInterest(channel);
         setState(State.DISCONNECTED);
-        //TODO close channel?
+        releaseBuffers();
+        leaveRegistries();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close Connection {}", name);
+        }
         if (closeCallback != null) {
             closeCallback.onClose(channel);
         }
@@ -299,35 +724,287 @@ public class Connection extends AbstractEventHandler {
         LOG.error("Channel {} is error", errorChannel);
     }
 
+    // Returns false if this connection is in the registry already
+    boolean joinRegistry(ConnectionRegistry registry) {
+        if (registries == null) {
+            registries = new ArrayList<>(2);
+        } else if (registries.contains(registry)) {
+            return false;
+        }
+        registries.add(registry);
+        return true;
+    }
+
+    // Returns false if this connection is not in the registry
+    boolean leaveRegistry(ConnectionRegistry registry) {
+        return registries != null && registries.remove(registry);
+    }
+
+    private void leaveRegistries() {
+        if (registries != null) {
+            for (ConnectionRegistry registry : registries) {
+                registry.removeInLoop(this);
+            }
+            registries = null;
+        }
+    }
+
+    // Returns the input buffer and the unsent output to their BufferFactory
+    private void releaseBuffers() {
+        if (buffersReleased) {
+            return;
+        }
+        buffersReleased = true;
+        Buffer owner;
+        while ((owner = outputOwners.poll()) != null) {
+            owner.release();
+        }
+        outputBuffer.clear();
+        pendingBytes = 0;
+        if (outbound != null) {
+            outbound.release();
+            outbound = null;
+        }
+        releaseInput();
+        if (frameDecoder != null) {
+            frameDecoder.release();
+        }
+    }
+
+    /**
+     * Makes sure inputBuffer has room for a read.  Returns {@code false} if it
+     * is full of unconsumed bytes and already at {@link #MAX_INPUT_CAPACITY}.
+     */
+    private boolean ensureInputSpace() {
+        if (input == null) {
+            allocateInput(recvHandle.guess());
+            return true;
+        }
+        if (inputBuffer.hasRemaining()) {
+            return true;
+        }
+        if (input.capacity() >= MAX_INPUT_CAPACITY) {
+            return false;
+        }
+        // An incomplete message fills the buffer, move it to a larger one
+        allocateInput(Math.min(input.capacity() << 1, MAX_INPUT_CAPACITY));
+        return true;
+    }
+
+    private void allocateInput(int capacity) {
+        Buffer newInput = bufferFactory.getBuffer(capacity);
+        ByteBuffer newInputBuffer = newInput.toByteBuffer(0, capacity);
+        if (input != null) {
+            inputBuffer.flip();
+            newInputBuffer.put(inputBuffer);
+            input.release();
+        }
+        input = newInput;
+        inputBuffer = newInputBuffer;
+    }
+
+    private void releaseInputIfEmpty() {
+        if (input != null && inputBuffer.position() == 0) {
+            releaseInput();
+        }
+    }
+
+    private void releaseInput() {
+        if (input != null) {
+            input.release();
+            input = null;
+            inputBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the capacity of the current input buffer, {@code 0} if the
+     * connection holds none because all the input has been consumed.
+     */
+    public int getInputCapacity() {
+        loop.assertInLoopThread();
+        return input == null ? 0 : input.capacity();
+    }
+
     private void setState(State state) {
         this.state = state;
     }
 
     private void onMessage() {
+        if (closingGracefully) {
+            // Only read until the peer closes its side
+            inputBuffer.clear();
+            return;
+        }
+        if (frameDecoder != null) {
+            // Hand the buffer over to the decoder, which keeps it as long as
+            // it holds a part of a frame. The next read takes a new buffer.
+            Buffer received = input;
+            received.setIndex(0, inputBuffer.position());
+            input = null;
+            inputBuffer = null;
+            frameDecoder.decode(this, received, frameCallback);
+            return;
+        }
         // Make ByteBuffer ready to get
         inputBuffer.flip();
         if (messageCallback != null) {
+            if (Metrics.ENABLED) {
+                messagesRead++;
+            }
             // MessageCallback may get as much data as it can
             messageCallback.onMessage(channel, this, inputBuffer);
         }
-        // Compact buffer in case of next cycle handleRead
-        inputBuffer.compact();
+        if (inputBuffer == null) {
+            // Closed by the callback
+            return;
+        }
+        if (inputBuffer.hasRemaining()) {
+            // Compact buffer in case of next cycle handleRead
+            inputBuffer.compact();
+        } else {
+            // Nothing left to consume, the connection may be idle for long
+            releaseInput();
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Returns the loop which owns this connection.
+     */
+    public NIOEventLoop getLoop() {
+        return loop;
+    }
+
+    // Whether the connection is closed or being closed
+    boolean isClosed() {
+        return state == State.DISCONNECTED || state == State.DISCONNECTING;
+    }
+
+
+    /**
+     * Returns what this connection has done so far.  The counters are read by
+     * a task run in the thread of its loop, the future completes once it has
+     * run.
+     *
+     * @see Metrics
+     */
+    public CompletableFuture<ConnectionMetrics> metrics() {
+        CompletableFuture<ConnectionMetrics> metrics = new CompletableFuture<>();
+        loop.runInLoop(() -> metrics.complete(metricsInLoop()));
+        return metrics;
+    }
+
+    ConnectionMetrics metricsInLoop() {
+        loop.assertInLoopThread();
+        return new ConnectionMetrics(name, bytesRead, bytesWritten, messagesRead, messagesWritten,
+                pendingBytes, highWaterMarkHits);
+    }
 
     public void setHighWaterMark(int highWaterMark) {
         this.highWaterMark = highWaterMark;
     }
 
+    /**
+     * Returns the number of bytes queued for sending but not yet written to the channel.
+     * It may be called from any thread.
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Sets the budget of one readiness event in handleRead().  The connection
+     * keeps reading while the reads fill the input buffer, up to
+     * {@code maxReadsPerEvent} reads or until {@code maxBytesPerEvent} bytes
+     * have been read, then leaves the loop to the other connections.
+     *
+     * @param maxReadsPerEvent the maximum number of reads per readiness event
+     * @param maxBytesPerEvent no more reads once this many bytes have been read
+     */
+    public void setReadLimits(int maxReadsPerEvent, int maxBytesPerEvent) {
+        checkArgument(maxReadsPerEvent > 0);
+        checkArgument(maxBytesPerEvent > 0);
+        loop.runInLoop(() -> initReadLimits(maxReadsPerEvent, maxBytesPerEvent));
+    }
+
+    // The init methods set up a connection which is not established yet, in
+    // the thread creating it.  The connection is only seen by other threads
+    // once it is handed to its loop, the task queue publishes the fields.
+    void initReadLimits(int maxReadsPerEvent, int maxBytesPerEvent) {
+        this.maxReadsPerEvent = maxReadsPerEvent;
+        this.maxBytesPerEvent = maxBytesPerEvent;
+    }
+
+    /**
+     * Sets the limits of one gathering write of queued buffers.
+     *
+     * @param maxWriteIovecs the maximum number of buffers written by one write call
+     * @param maxBytesPerWrite no more buffers are added to a write once it has this many bytes
+     */
+    public void setWriteLimits(int maxWriteIovecs, int maxBytesPerWrite) {
+        checkArgument(maxWriteIovecs > 0);
+        checkArgument(maxBytesPerWrite > 0);
+        loop.runInLoop(() -> initWriteLimits(maxWriteIovecs, maxBytesPerWrite));
+    }
+
+    void initWriteLimits(int maxWriteIovecs, int maxBytesPerWrite) {
+        this.maxWriteIovecs = maxWriteIovecs;
+        this.maxBytesPerWrite = maxBytesPerWrite;
+        this.writeBatch = new ByteBuffer[maxWriteIovecs];
+    }
+
 
     public void setMessageCallback(EventCallback.MessageCallback messageCallback) {
         this.messageCallback = messageCallback;
     }
 
+    /**
+     * Cuts the input into frames with {@code frameDecoder}, which must not be
+     * shared with other connections, and passes them to {@code frameCallback}.
+     * The message callback is not invoked any more.
+     */
+    public void setFrameDecoder(FrameDecoder frameDecoder, EventCallback.FrameCallback frameCallback) {
+        loop.runInLoop(() -> initFrameDecoder(frameDecoder, frameCallback));
+    }
+
+    void initFrameDecoder(FrameDecoder frameDecoder, EventCallback.FrameCallback frameCallback) {
+        this.frameDecoder = frameDecoder;
+        this.frameCallback = !Metrics.ENABLED || frameCallback == null ? frameCallback
+                : (connection, frame) -> {
+                    messagesRead++;
+                    frameCallback.onFrame(connection, frame);
+                };
+    }
+
+    /**
+     * Sets the encoder of the messages passed to {@link #write(Object)}.
+     */
+    public void setMessageEncoder(MessageEncoder<?> messageEncoder) {
+        loop.runInLoop(() -> initMessageEncoder(messageEncoder));
+    }
+
+    @SuppressWarnings("unchecked")
+    void initMessageEncoder(MessageEncoder<?> messageEncoder) {
+        this.messageEncoder = (MessageEncoder<Object>) messageEncoder;
+    }
+
+    /**
+     * Sets the number of written bytes which are sent right away instead of
+     * at the end of the iteration of the loop.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        checkArgument(flushThreshold > 0);
+        loop.runInLoop(() -> initFlushThreshold(flushThreshold));
+    }
+
+    void initFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
     public void setWriteCompleteCallback(EventCallback.WriteCompleteCallback writeCompleteCallback) {
         this.writeCompleteCallback = writeCompleteCallback;
     }
@@ -338,6 +1015,17 @@ public class Connection extends AbstractEventHandler {
         this.highWaterMark = highWaterMark;
     }
 
+    /**
+     * Sets the callback invoked when the pending bytes drop to {@code lowWaterMark}
+     * after having gone above the high water mark, so that producers can resume sending.
+     */
+    public void setLowWaterMarkCallback(EventCallback.LowWaterMarkCallback lowWaterMarkCallback,
+                                        int lowWaterMark) {
+        checkArgument(lowWaterMark >= 0);
+        this.lowWaterMarkCallback = lowWaterMarkCallback;
+        this.lowWaterMark = lowWaterMark;
+    }
+
     public void setCloseCallback(EventCallback.CloseCallback closeCallback) {
         this.closeCallback = closeCallback;
     }
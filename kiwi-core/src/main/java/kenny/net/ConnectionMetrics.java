@@ -0,0 +1,81 @@
+package kenny.net;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * What a connection has done since it was established, as taken by
+ * {@link Connection#metrics()} in the thread of its loop.
+ */
+@Immutable
+public class ConnectionMetrics {
+    private final String name;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long messagesRead;
+    private final long messagesWritten;
+    private final long pendingBytes;
+    private final long highWaterMarkHits;
+
+    ConnectionMetrics(String name, long bytesRead, long bytesWritten, long messagesRead, long messagesWritten,
+                      long pendingBytes, long highWaterMarkHits) {
+        this.name = name;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.messagesRead = messagesRead;
+        this.messagesWritten = messagesWritten;
+        this.pendingBytes = pendingBytes;
+        this.highWaterMarkHits = highWaterMarkHits;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of bytes written to the socket.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the number of times the message callback has been invoked, or
+     * the number of frames with a frame decoder.
+     */
+    public long getMessagesRead() {
+        return messagesRead;
+    }
+
+    /**
+     * Returns the number of buffers sent and of messages written.
+     */
+    public long getMessagesWritten() {
+        return messagesWritten;
+    }
+
+    /**
+     * @see Connection#getPendingBytes()
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Returns how many times the pending bytes have gone above the high water
+     * mark.
+     */
+    public long getHighWaterMarkHits() {
+        return highWaterMarkHits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: read %d bytes in %d messages, wrote %d bytes in %d messages, "
+                        + "%d bytes pending, %d high water marks",
+                name, bytesRead, messagesRead, bytesWritten, messagesWritten, pendingBytes, highWaterMarkHits);
+    }
+}
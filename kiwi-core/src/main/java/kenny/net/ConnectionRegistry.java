@@ -0,0 +1,223 @@
+package kenny.net;
+
+import kenny.net.buffer.Buffer;
+import net.jcip.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A set of live connections, sharded by the loop which owns them.  A server
+ * keeps all its connections in one, applications may build others as groups
+ * of connections to broadcast to.
+ * <p>
+ * A shard is an array only accessed by the thread of its loop, so adding,
+ * removing and iterating need no lock.  A connection is removed by moving the
+ * last connection of the shard into its slot.  A connection leaves all its
+ * registries once it is closed.  The number of connections may be read from
+ * any thread.
+ */
+@ThreadSafe
+public class ConnectionRegistry {
+    private static final int INITIAL_SHARD_CAPACITY = 16;
+
+    private final Map<EventLoop, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * Adds {@code connection} in the thread of its loop.  A closed connection
+     * is not added.
+     */
+    public void add(Connection connection) {
+        NIOEventLoop loop = connection.getLoop();
+        loop.runInLoop(() -> {
+            if (!connection.isClosed() && connection.joinRegistry(this)) {
+                shards.computeIfAbsent(loop, Shard::new).add(connection);
+            }
+        });
+    }
+
+    /**
+     * Removes {@code connection} in the thread of its loop.  Does nothing if
+     * the connection is not in this registry.
+     */
+    public void remove(Connection connection) {
+        connection.getLoop().runInLoop(() -> {
+            if (connection.leaveRegistry(this)) {
+                removeInLoop(connection);
+            }
+        });
+    }
+
+    // Called by the connection when it is closed
+    void removeInLoop(Connection connection) {
+        Shard shard = shards.get(connection.getLoop());
+        if (shard != null) {
+            shard.remove(connection);
+        }
+    }
+
+    /**
+     * Returns the number of live connections.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards.values()) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of live connections owned by {@code loop}.
+     */
+    public int size(EventLoop loop) {
+        Shard shard = shards.get(loop);
+        return shard == null ? 0 : shard.size;
+    }
+
+    /**
+     * Runs {@code action} for every connection owned by {@code loop}.  Must be
+     * called in the thread of {@code loop}.  The action may close connections.
+     */
+    public void forEachInLoop(EventLoop loop, Consumer<Connection> action) {
+        loop.assertInLoopThread();
+        Shard shard = shards.get(loop);
+        if (shard != null) {
+            shard.forEach(action);
+        }
+    }
+
+    /**
+     * Runs {@code action} for every connection in the thread of the loop which
+     * owns it.  Returns once the action is queued, the connections of the
+     * calling loop are visited before this method returns.
+     */
+    public void forEach(Consumer<Connection> action) {
+        checkNotNull(action);
+        for (Shard shard : shards.values()) {
+            shard.loop.runInLoop(() -> shard.forEach(action));
+        }
+    }
+
+    /**
+     * Sends the readable bytes of {@code message} to every connection, and
+     * releases the message once it has been written to all of them.
+     * <p>
+     * The message is handed to each loop once, with a reference of its own, and
+     * the loop writes it to its connections in a single task, from one
+     * read-only view of the message.  A connection which can not write it at
+     * once keeps a view and a reference of its own, no byte is copied.  The
+     * caller must not modify the message after calling this method.
+     *
+     * @return a future completed once every loop has queued the message on its
+     *         connections, or exceptionally with the {@link RejectedExecutionException}
+     *         of a loop which refused the message, once the other loops are done
+     */
+    public CompletableFuture<Void> broadcast(Buffer message) {
+        checkNotNull(message);
+        CompletableFuture<Void> queued = new CompletableFuture<>();
+        Shard[] targets = shards.values().toArray(new Shard[0]);
+        if (targets.length == 0) {
+            message.release();
+            queued.complete(null);
+            return queued;
+        }
+        AtomicInteger pendingLoops = new AtomicInteger(targets.length);
+        AtomicReference<RejectedExecutionException> rejected = new AtomicReference<>();
+        message.retain(targets.length);
+        message.release();
+        for (Shard shard : targets) {
+            try {
+                shard.loop.runInLoop(() -> {
+                    try {
+                        // One view for the loop, rewound after each connection
+                        ByteBuffer view = message.toByteBuffer().asReadOnlyBuffer();
+                        shard.forEach(connection -> connection.sendShared(view, message));
+                    } finally {
+                        loopDone(message, pendingLoops, rejected, queued);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The loop is terminated or its queue is full, drop its reference
+                rejected.compareAndSet(null, e);
+                loopDone(message, pendingLoops, rejected, queued);
+            }
+        }
+        return queued;
+    }
+
+    private static void loopDone(Buffer message, AtomicInteger pendingLoops,
+                                 AtomicReference<RejectedExecutionException> rejected,
+                                 CompletableFuture<Void> queued) {
+        message.release();
+        if (pendingLoops.decrementAndGet() == 0) {
+            RejectedExecutionException e = rejected.get();
+            if (e == null) {
+                queued.complete(null);
+            } else {
+                queued.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Shard {
+        private final EventLoop loop;
+        private Connection[] connections = new Connection[INITIAL_SHARD_CAPACITY];
+        private final Map<Connection, Integer> slots = new IdentityHashMap<>();
+        // Only written by the thread of the loop
+        private volatile int size;
+
+        Shard(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        void add(Connection connection) {
+            int n = size;
+            if (n == connections.length) {
+                connections = Arrays.copyOf(connections, n << 1);
+            }
+            connections[n] = connection;
+            slots.put(connection, n);
+            size = n + 1;
+        }
+
+        void remove(Connection connection) {
+            Integer index = slots.remove(connection);
+            if (index == null) {
+                return;
+            }
+            int last = size - 1;
+            if (index != last) {
+                Connection moved = connections[last];
+                connections[index] = moved;
+                slots.put(moved, index);
+            }
+            connections[last] = null;
+            size = last;
+            // Give the memory back once a burst of connections is gone
+            if (connections.length > INITIAL_SHARD_CAPACITY && last < connections.length >>> 2) {
+                connections = Arrays.copyOf(connections, connections.length >>> 1);
+            }
+        }
+
+        void forEach(Consumer<Connection> action) {
+            // Iterate downwards, removing the current connection only moves
+            // the last one, which has been visited already, into its slot
+            for (int i = size - 1; i >= 0; i--) {
+                if (i < size) {
+                    action.accept(connections[i]);
+                }
+            }
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package kenny.net;
 
+import kenny.base.LatencyHistogram;
+import kenny.base.MpscChunkedTaskQueue;
 import kenny.base.PriorityTimer;
-import net.jcip.annotations.GuardedBy;
+import kenny.base.TaskQueue;
 import kenny.base.Timer;
 import kenny.base.TimerId;
+import kenny.net.buffer.PooledBufferFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -15,26 +27,205 @@ import static com.google.common.base.Preconditions.checkState;
  * Created by kennylbj on 16/9/14.
  */
 public abstract class EventLoop {
-    @GuardedBy("this")
-    private final ArrayList<Runnable> tasks;
+    private final static Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+    // Upper bound of tasks executed in one iteration, so that tasks queued
+    // by tasks themselves could not starve the NIO events and timers.
+    private final static int MAX_TASKS_PER_ITERATION = 1024;
+    // Period over which the busy ratio of the loop is measured
+    private final static long LOAD_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Longest time a shutting down loop blocks before checking its quiet period
+    private final static long SHUTDOWN_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // One in this many queued tasks has its queueing delay measured
+    private final static int QUEUE_DELAY_SAMPLING = 64;
+
+    private final static int RUNNING = 0;
+    private final static int SHUTTING_DOWN = 1;
+    private final static int TERMINATED = 2;
+
+    private final TaskQueue tasks;
     protected final Timer timer;
     private final long tid;
+    private final Thread thread;
     private volatile boolean exist = false;
-    private boolean handlingTasks = false;
+
+    private final AtomicInteger runState = new AtomicInteger(RUNNING);
+    // Foreign threads between their check of runState and the offer of their
+    // task.  The loop waits for them once terminated, before its last drain.
+    private final AtomicInteger submitting = new AtomicInteger();
+    private final CompletableFuture<Void> terminationFuture = new CompletableFuture<>();
+    private volatile long quietPeriodNanos;
+    private volatile long shutdownTimeoutNanos;
+    // Only accessed by the loop thread, 0 until it sees the shutdown
+    private long shutdownStartNanos;
+    private long lastTaskNanos;
+
+    // True while the loop is about to block or is blocked in doWait() and nobody
+    // has woken it up yet. The first foreign thread which flips it to false issues
+    // the wakeup, later submissions piggyback on that pending wakeup.
+    private final AtomicBoolean blocking = new AtomicBoolean(false);
+    private final LongAdder wakeupsIssued = new LongAdder();
+    private final LongAdder wakeupsSuppressed = new LongAdder();
+    // Set by the foreign threads scheduling a timer, cleared by the loop thread
+    // right before it reads the next timeout. A timer scheduled after that read
+    // but before the loop publishes blocking would neither be in the timeout
+    // nor wake the loop up, prepareToBlock() sees this flag instead.
+    private volatile boolean timersChanged;
+
+    // Load of the loop, written by the loop thread and read by the pools
+    // which choose a loop for a new connection.
+    private volatile long busyNanos;
+    private volatile double busyRatio;
+    // When the loop started to block, 0 while it is not blocked
+    private volatile long blockStartNanos;
+    private long blockedNanos;
+    private long windowStartNanos;
+    private long windowBusyNanos;
+    private long totalBlockedNanos;
+
+    // Only accessed by the loop thread, see metrics()
+    private long waits;
+    private long tasksExecuted;
+    private long timersFired;
+    private final LatencyHistogram callbackLatency = new LatencyHistogram();
+    private final LatencyHistogram taskQueueDelay = new LatencyHistogram();
+    private final LatencyHistogram wakeToDispatch = new LatencyHistogram();
+    private final Consumer<Runnable> taskRunner = this::runTask;
+
+    // Off while the threshold is 0.  The loop thread publishes when the running
+    // callback started, SlowCallbackWatchdog samples the stack of the thread
+    // once the callback runs for longer than the threshold.
+    private volatile long slowCallbackThresholdNanos;
+    private volatile long callbackStartNanos;
+    private volatile long sampledStartNanos;
+    private volatile StackTraceElement[] sampledStack;
 
     public EventLoop() {
-        this.tasks = new ArrayList<>();
-        this.timer = new PriorityTimer();
+        this(new MpscChunkedTaskQueue());
+    }
+
+    public EventLoop(TaskQueue tasks) {
+        this(tasks, new PriorityTimer());
+    }
+
+    public EventLoop(TaskQueue tasks, Timer timer) {
+        this.tasks = checkNotNull(tasks);
+        this.timer = checkNotNull(timer);
         this.tid = Thread.currentThread().getId();
+        this.thread = Thread.currentThread();
     }
 
     public void loop() {
         assertInLoopThread();
+        windowStartNanos = System.nanoTime();
         while (!exist) {
+            long start = System.nanoTime();
             doWait();
+            int executed = executeTasks();
+            int fired = triggerExpiredTimers();
+            if (Metrics.ENABLED) {
+                waits++;
+                tasksExecuted += executed;
+                timersFired += fired;
+            }
+            long end = System.nanoTime();
+            recordBusyTime(start, end);
+            if (runState.get() == SHUTTING_DOWN && confirmShutdown(executed, end)) {
+                break;
+            }
+        }
+        // Tasks queued before the loop stopped still run, so that nothing
+        // handed to this loop is lost.  Timers are not triggered any more.
+        // A foreign thread which checked runState before it was set may not
+        // have offered its task yet, it would be lost after the last drain.
+        runState.set(TERMINATED);
+        while (submitting.get() != 0) {
+            Thread.yield();
+        }
+        while (hasPendingTasks()) {
             executeTasks();
-            triggerExpiredTimers();
         }
+        SlowCallbackWatchdog.unwatch(this);
+        try {
+            cleanup();
+        } finally {
+            // The buffers cached by this thread would be lost to their pools,
+            // trimmed after cleanup() which may release some more
+            PooledBufferFactory.trimCurrentThreadCaches();
+            terminationFuture.complete(null);
+        }
+    }
+
+    /**
+     * Makes loop() return once the tasks queued before this call have run.
+     * The tasks queued until loop() returns are run as well.
+     */
+    public void quit() {
+        // Queued like any task, the loop is woken up if it is blocked
+        queueInLoop(() -> exist = true);
+    }
+
+    /**
+     * Makes loop() return once no task has been queued for {@code quietPeriod},
+     * or at the latest after {@code timeout}, and run the tasks still queued.
+     * The loop keeps handling events and timers meanwhile.  Tasks queued once
+     * it has returned are rejected.  Calling it again has no effect.
+     *
+     * @return a future completed once loop() has returned
+     */
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        checkArgument(quietPeriod >= 0, "quietPeriod: %s", quietPeriod);
+        checkArgument(timeout >= quietPeriod, "timeout: %s < quietPeriod: %s", timeout, quietPeriod);
+        checkNotNull(unit);
+        if (runState.get() == RUNNING) {
+            quietPeriodNanos = unit.toNanos(quietPeriod);
+            shutdownTimeoutNanos = unit.toNanos(timeout);
+            if (runState.compareAndSet(RUNNING, SHUTTING_DOWN)) {
+                // Wake the loop up so that it starts counting
+                queueInLoop(() -> {
+                });
+            }
+        }
+        return terminationFuture;
+    }
+
+    /**
+     * Returns a future completed once loop() has returned.
+     */
+    public CompletableFuture<Void> getTerminationFuture() {
+        return terminationFuture;
+    }
+
+    public boolean isShuttingDown() {
+        return runState.get() != RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return runState.get() == TERMINATED;
+    }
+
+    // Returns true once the loop may stop
+    private boolean confirmShutdown(int executedTasks, long now) {
+        if (shutdownStartNanos == 0) {
+            shutdownStartNanos = now;
+            lastTaskNanos = now;
+            // Do not block past the end of the quiet period
+            long check = Math.max(1, Math.min(quietPeriodNanos, SHUTDOWN_CHECK_NANOS));
+            timer.runEvery(() -> {
+            }, check, TimeUnit.NANOSECONDS);
+        }
+        if (executedTasks > 0) {
+            lastTaskNanos = now;
+        }
+        return now - shutdownStartNanos >= shutdownTimeoutNanos
+                || now - lastTaskNanos >= quietPeriodNanos;
+    }
+
+    /**
+     * Called by the loop thread once loop() is done with all its tasks, to
+     * release the resources of the loop.
+     */
+    protected void cleanup() {
     }
 
     public void runInLoop(Runnable r) {
@@ -48,21 +239,270 @@ public abstract class EventLoop {
 
     public void queueInLoop(Runnable r) {
         checkNotNull(r);
-        synchronized (this) {
-            tasks.add(r);
+        if (isInLoopThread()) {
+            // Tasks queued in loop thread will be executed before next doWait() blocks,
+            // since doWait() never blocks while there are pending tasks.
+            offer(r);
+            return;
+        }
+        // Counted before runState is read, so that either this thread sees
+        // TERMINATED or the terminating loop waits for the offer
+        submitting.incrementAndGet();
+        try {
+            offer(r);
+        } finally {
+            submitting.decrementAndGet();
+        }
+        wakeUpIfBlocking();
+    }
+
+    private void offer(Runnable r) {
+        if (runState.get() == TERMINATED) {
+            throw new RejectedExecutionException("EventLoop is terminated");
         }
-        // If looper is handling tasks, new task will no be executed unless wakeup.
-        if (!isInLoopThread() || handlingTasks) {
+        if (Metrics.ENABLED && ThreadLocalRandom.current().nextInt(QUEUE_DELAY_SAMPLING) == 0) {
+            r = new TimedTask(r, System.nanoTime());
+        }
+        if (!tasks.offer(r)) {
+            throw new RejectedExecutionException("Task queue of EventLoop is full");
+        }
+    }
+
+    private void wakeUpIfBlocking() {
+        if (blocking.compareAndSet(true, false)) {
+            wakeupsIssued.increment();
             wakeUp();
+        } else {
+            wakeupsSuppressed.increment();
+        }
+    }
+
+    /**
+     * Returns the number of wakeUp() issued by foreign threads submitting tasks or timers.
+     */
+    public long getWakeupsIssued() {
+        return wakeupsIssued.sum();
+    }
+
+    /**
+     * Returns the number of task submissions and timer schedules from foreign
+     * threads which did not need to wake the loop up, because it was awake or a
+     * wakeup was already pending.
+     */
+    public long getWakeupsSuppressed() {
+        return wakeupsSuppressed.sum();
+    }
+
+    /**
+     * Returns the time this loop has spent handling events, tasks and timers,
+     * that is not blocked waiting for them, since it started.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Returns the share of the recent time this loop has been busy, from
+     * {@code 0} for an idle loop to {@code 1} for a loop which never waits.
+     * It is averaged over windows of 100 milli-seconds.
+     */
+    public double getBusyRatio() {
+        long blockStart = blockStartNanos;
+        if (blockStart != 0 && System.nanoTime() - blockStart > LOAD_WINDOW_NANOS) {
+            // Blocked for a whole window, the last ratio is stale
+            return 0;
         }
+        return busyRatio;
     }
 
+    /**
+     * Returns the number of tasks waiting to be executed by this loop.  It is
+     * only a hint when called outside the loop thread.
+     */
+    public int getPendingTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * Returns what this loop has done so far.  The counters are read by a task
+     * run in the loop thread, the future completes once it has run.
+     *
+     * @see Metrics
+     */
+    public CompletableFuture<EventLoopMetrics> metrics() {
+        CompletableFuture<EventLoopMetrics> metrics = new CompletableFuture<>();
+        runInLoop(() -> metrics.complete(metricsInLoop()));
+        return metrics;
+    }
+
+    EventLoopMetrics metricsInLoop() {
+        assertInLoopThread();
+        return new EventLoopMetrics(thread.getName(), waits, totalBlockedNanos, busyNanos,
+                getHandledEvents(), tasksExecuted, timersFired, getWakeupsIssued(), getWakeupsSuppressed(),
+                getPendingTasks(), getRegisteredChannels(), callbackLatency.copy(), taskQueueDelay.copy(),
+                wakeToDispatch.copy());
+    }
+
+    /**
+     * Logs a warning for every callback, task or batch of timers which runs
+     * for {@code threshold} or longer, stalling all the other connections of
+     * this loop, with the name of the connection and a stack trace of the
+     * loop thread sampled while the callback was running.  A threshold of
+     * {@code 0}, the default, turns it off.  While on, it costs two volatile
+     * writes per callback.
+     */
+    public void setSlowCallbackThreshold(long threshold, TimeUnit unit) {
+        checkArgument(threshold >= 0);
+        slowCallbackThresholdNanos = unit.toNanos(threshold);
+        if (threshold > 0) {
+            SlowCallbackWatchdog.watch(this);
+        } else {
+            SlowCallbackWatchdog.unwatch(this);
+        }
+    }
+
+    long getSlowCallbackThresholdNanos() {
+        return slowCallbackThresholdNanos;
+    }
+
+    /**
+     * Returns {@code true} if the callbacks of this loop have to be timed
+     * with {@link #callbackStarted(long)} and {@link #callbackFinished}.
+     */
+    protected final boolean isTimingCallbacks() {
+        return Metrics.ENABLED || slowCallbackThresholdNanos > 0;
+    }
+
+    /**
+     * Must be called by the loop thread right before it runs a callback.
+     */
+    protected final void callbackStarted(long start) {
+        if (slowCallbackThresholdNanos > 0) {
+            callbackStartNanos = start;
+        }
+    }
+
+    /**
+     * Must be called by the loop thread once a callback has returned.
+     *
+     * @param type   the kind of callback, for the warning about a slow callback
+     * @param source the handler or the task which has run
+     */
+    protected final void callbackFinished(long start, long end, String type, Object source) {
+        if (Metrics.ENABLED) {
+            callbackLatency.record(end - start);
+        }
+        long threshold = slowCallbackThresholdNanos;
+        if (threshold > 0) {
+            callbackStartNanos = 0;
+            if (end - start >= threshold) {
+                reportSlowCallback(start, end - start, type, source);
+            }
+        }
+    }
+
+    /**
+     * Records how long an event waited from the end of the wait to its callback.
+     */
+    protected final void recordWakeToDispatch(long nanos) {
+        if (Metrics.ENABLED) {
+            wakeToDispatch.record(nanos);
+        }
+    }
+
+    // Called by the watchdog thread
+    void sampleIfSlow(long now) {
+        long threshold = slowCallbackThresholdNanos;
+        long start = callbackStartNanos;
+        if (threshold > 0 && start != 0 && now - start >= threshold && sampledStartNanos != start) {
+            sampledStack = thread.getStackTrace();
+            sampledStartNanos = start;
+        }
+    }
+
+    private void reportSlowCallback(long start, long duration, String type, Object source) {
+        Throwable stack = null;
+        if (sampledStartNanos == start) {
+            stack = new Throwable("Stack of " + thread.getName() + " sampled while the callback was running");
+            stack.setStackTrace(sampledStack);
+        }
+        LOG.warn("Slow {} callback of {} blocked {} for {} ms", type, describe(source), thread.getName(),
+                TimeUnit.NANOSECONDS.toMillis(duration), stack);
+    }
+
+    private static String describe(Object source) {
+        if (source instanceof TimedTask) {
+            source = ((TimedTask) source).task;
+        }
+        if (source instanceof Connection) {
+            return ((Connection) source).getName();
+        }
+        return source == null ? "timers" : source.getClass().getName();
+    }
+
+    /**
+     * Returns the number of events handled so far, only called in the loop
+     * thread.
+     */
+    protected long getHandledEvents() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of channels registered with this loop, {@code 0} if
+     * it does not handle channels.
+     */
+    public int getRegisteredChannels() {
+        return 0;
+    }
+
+    private void recordBusyTime(long start, long end) {
+        long busy = end - start - blockedNanos;
+        totalBlockedNanos += blockedNanos;
+        blockedNanos = 0;
+        busyNanos += busy;
+        windowBusyNanos += busy;
+        long window = end - windowStartNanos;
+        if (window >= LOAD_WINDOW_NANOS) {
+            // Half of the weight on the last window
+            busyRatio = (busyRatio + (double) windowBusyNanos / window) / 2;
+            windowStartNanos = end;
+            windowBusyNanos = 0;
+        }
+    }
+
+    /**
+     * Runs {@code r} in loop thread after {@code delay} seconds.
+     */
     public TimerId runAfter(Runnable r, long delay) {
-        return timer.runAfter(r, delay);
+        return runAfter(r, delay, TimeUnit.SECONDS);
     }
 
+    /**
+     * Runs {@code r} in loop thread every {@code interval} seconds.
+     */
     public TimerId runEvery(Runnable r, long interval) {
-        return timer.runEvery(r, interval);
+        return runEvery(r, interval, TimeUnit.SECONDS);
+    }
+
+    public TimerId runAfter(Runnable r, long delay, TimeUnit unit) {
+        TimerId timerId = timer.runAfter(r, delay, unit);
+        // The loop may be blocked, or about to block, with a timeout computed
+        // before this timer
+        if (!isInLoopThread()) {
+            timersChanged = true;
+            wakeUpIfBlocking();
+        }
+        return timerId;
+    }
+
+    public TimerId runEvery(Runnable r, long interval, TimeUnit unit) {
+        TimerId timerId = timer.runEvery(r, interval, unit);
+        if (!isInLoopThread()) {
+            timersChanged = true;
+            wakeUpIfBlocking();
+        }
+        return timerId;
     }
 
     public void cancelTimer(TimerId timerId) {
@@ -77,26 +517,101 @@ public abstract class EventLoop {
         return Thread.currentThread().getId() == tid;
     }
 
+    /**
+     * Returns {@code true} if there are tasks waiting to be executed,
+     * in which case doWait() should return as soon as possible.
+     */
+    protected boolean hasPendingTasks() {
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * Returns the time until the next timer expires, which doWait() must not
+     * block longer than.  doWait() must take the timeout from this method
+     * rather than from the timer, see {@link #prepareToBlock()}.
+     */
+    protected long getNextTimeoutIntervalNs() {
+        timersChanged = false;
+        return timer.getNextTimeoutIntervalNs();
+    }
+
+    /**
+     * Must be called by doWait() right before it blocks.
+     * Returns {@code false} if there are pending tasks, or if a foreign thread
+     * has scheduled a timer since {@link #getNextTimeoutIntervalNs()}, and
+     * doWait() must not block.
+     */
+    protected boolean prepareToBlock() {
+        blocking.set(true);
+        // Check again after publishing the state, a task offered or a timer
+        // scheduled before that would not have woken us up.
+        if (hasPendingTasks() || timersChanged) {
+            blocking.set(false);
+            return false;
+        }
+        blockStartNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Must be called by doWait() once it returns from blocking.
+     */
+    protected void blockFinished() {
+        blocking.set(false);
+        blockedNanos += System.nanoTime() - blockStartNanos;
+        blockStartNanos = 0;
+    }
+
     protected abstract void doWait();
 
     protected abstract void wakeUp();
 
-    // This cast is correct because the copy and the tasks
-    // are the same type.
-    @SuppressWarnings("unchecked")
-    private void executeTasks() {
-        handlingTasks = true;
-        List<Runnable> tasksCopy;
-        synchronized (this) {
-            tasksCopy = (List<Runnable>) tasks.clone();
-            tasks.clear();
+    private int executeTasks() {
+        return tasks.drain(taskRunner, MAX_TASKS_PER_ITERATION);
+    }
+
+    private void runTask(Runnable task) {
+        if (!isTimingCallbacks()) {
+            task.run();
+            return;
+        }
+        long start = System.nanoTime();
+        callbackStarted(start);
+        try {
+            task.run();
+        } finally {
+            callbackFinished(start, System.nanoTime(), "task", task);
         }
-        tasksCopy.forEach(Runnable::run);
-        handlingTasks = false;
     }
 
-    private void triggerExpiredTimers() {
-        timer.triggerExpiredTimers(System.nanoTime());
+    // The expired timers are timed together, as one callback
+    private int triggerExpiredTimers() {
+        long start = System.nanoTime();
+        callbackStarted(start);
+        int fired = timer.triggerExpiredTimers(start);
+        if (fired > 0) {
+            callbackFinished(start, System.nanoTime(), "timer", null);
+        } else if (slowCallbackThresholdNanos > 0) {
+            callbackStartNanos = 0;
+        }
+        return fired;
+    }
+
+    // A task whose queueing delay is measured once it runs
+    private final class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long queuedNanos;
+
+        TimedTask(Runnable task, long queuedNanos) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+        }
+
+        @Override
+        public void run() {
+            taskQueueDelay.record(System.nanoTime() - queuedNanos);
+            task.run();
+        }
     }
 
     //FIXME
@@ -0,0 +1,158 @@
+package kenny.net;
+
+import kenny.base.LatencyHistogram;
+import net.jcip.annotations.Immutable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What an event loop has done since it started, as taken by
+ * {@link EventLoop#metrics()} in the thread of the loop.
+ */
+@Immutable
+public class EventLoopMetrics {
+    private final String threadName;
+    private final long waits;
+    private final long blockedNanos;
+    private final long busyNanos;
+    private final long events;
+    private final long tasksExecuted;
+    private final long timersFired;
+    private final long wakeupsIssued;
+    private final long wakeupsSuppressed;
+    private final int pendingTasks;
+    private final int registeredChannels;
+    // Copies, never recorded
+    private final LatencyHistogram callbackLatency;
+    private final LatencyHistogram taskQueueDelay;
+    private final LatencyHistogram wakeToDispatch;
+
+    EventLoopMetrics(String threadName, long waits, long blockedNanos, long busyNanos, long events,
+                     long tasksExecuted, long timersFired, long wakeupsIssued, long wakeupsSuppressed,
+                     int pendingTasks, int registeredChannels, LatencyHistogram callbackLatency,
+                     LatencyHistogram taskQueueDelay, LatencyHistogram wakeToDispatch) {
+        this.threadName = threadName;
+        this.waits = waits;
+        this.blockedNanos = blockedNanos;
+        this.busyNanos = busyNanos;
+        this.events = events;
+        this.tasksExecuted = tasksExecuted;
+        this.timersFired = timersFired;
+        this.wakeupsIssued = wakeupsIssued;
+        this.wakeupsSuppressed = wakeupsSuppressed;
+        this.pendingTasks = pendingTasks;
+        this.registeredChannels = registeredChannels;
+        this.callbackLatency = callbackLatency;
+        this.taskQueueDelay = taskQueueDelay;
+        this.wakeToDispatch = wakeToDispatch;
+    }
+
+    /**
+     * Returns the name of the thread of the loop.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Returns the number of iterations of the loop, each waits for events once,
+     * e.g. with one select.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * Returns the time spent blocked waiting for events.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    /**
+     * Returns the time spent handling events, tasks and timers.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Returns the number of events handled, e.g. selected keys.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    public double getEventsPerWait() {
+        return waits == 0 ? 0 : (double) events / waits;
+    }
+
+    public long getTasksExecuted() {
+        return tasksExecuted;
+    }
+
+    public long getTimersFired() {
+        return timersFired;
+    }
+
+    /**
+     * @see EventLoop#getWakeupsIssued()
+     */
+    public long getWakeupsIssued() {
+        return wakeupsIssued;
+    }
+
+    /**
+     * @see EventLoop#getWakeupsSuppressed()
+     */
+    public long getWakeupsSuppressed() {
+        return wakeupsSuppressed;
+    }
+
+    public int getPendingTasks() {
+        return pendingTasks;
+    }
+
+    /**
+     * Returns the number of channels registered with the loop, {@code 0} for
+     * a loop which does not handle channels.
+     */
+    public int getRegisteredChannels() {
+        return registeredChannels;
+    }
+
+    /**
+     * Returns how long the callbacks of the handlers, the tasks and the
+     * batches of expired timers have run.
+     */
+    public LatencyHistogram getCallbackLatency() {
+        return callbackLatency.copy();
+    }
+
+    /**
+     * Returns how long the tasks waited in the queue, from the call to
+     * queueInLoop() to their run, sampled for one task in 64.
+     */
+    public LatencyHistogram getTaskQueueDelay() {
+        return taskQueueDelay.copy();
+    }
+
+    /**
+     * Returns how long the events waited from the end of the wait to their
+     * dispatch, that is how long the events before them took to handle.
+     */
+    public LatencyHistogram getWakeToDispatch() {
+        return wakeToDispatch.copy();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d waits, %.1f events/wait, busy %d ms, blocked %d ms, %d tasks, "
+                        + "%d timers, %d wakeups (%d suppressed), %d pending tasks, %d channels%n"
+                        + "    callbacks [%s]%n    task queue delay [%s]%n    wake to dispatch [%s]",
+                threadName, waits, getEventsPerWait(), TimeUnit.NANOSECONDS.toMillis(busyNanos),
+                TimeUnit.NANOSECONDS.toMillis(blockedNanos), tasksExecuted, timersFired, wakeupsIssued,
+                wakeupsSuppressed, pendingTasks, registeredChannels, callbackLatency, taskQueueDelay,
+                wakeToDispatch);
+    }
+}
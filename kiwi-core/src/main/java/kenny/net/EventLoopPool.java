@@ -3,6 +3,11 @@ package kenny.net;
 
 import net.jcip.annotations.NotThreadSafe;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by kennylbj on 16/9/18.
  * Implements of this interface should NOT be thread safe
@@ -14,5 +19,22 @@ interface EventLoopPool {
 
     EventLoop nextLoop();
 
+    /**
+     * Returns the I/O loops of this pool, or only the basic loop if the pool
+     * has no thread.  Must be called after {@link #start()}.
+     */
+    List<EventLoop> getAllLoops();
+
     void setThreadNum(int threadNum);
+
+    void setThreadFactory(ThreadFactory threadFactory);
+
+    void shutdown();
+
+    /**
+     * Shuts the I/O loops down, never the basic loop.
+     */
+    CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit);
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
 }
@@ -0,0 +1,30 @@
+package kenny.net;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Always reads into buffers of the same capacity.
+ */
+public class FixedRecvBufferAllocator implements RecvBufferAllocator {
+    private final Handle handle;
+
+    public FixedRecvBufferAllocator(int capacity) {
+        checkArgument(capacity > 0);
+        // Stateless, so all the connections share one handle
+        handle = new Handle() {
+            @Override
+            public int guess() {
+                return capacity;
+            }
+
+            @Override
+            public void record(int bytesRead) {
+            }
+        };
+    }
+
+    @Override
+    public Handle newHandle() {
+        return handle;
+    }
+}
@@ -0,0 +1,49 @@
+package kenny.net;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates the threads of the I/O loops, named {@code <prefix>-<n>} with
+ * {@code n} the index of the loop in its pool, with the given priority.
+ * <p>
+ * The threads of a pool are created in the order of its loops, so a subclass
+ * may override {@link #newThread(Runnable)} to set up the {@code n}th thread,
+ * for instance to pin it to a core before running the loop.
+ */
+public class IoThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final int priority;
+    private final boolean daemon;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    public IoThreadFactory(String prefix) {
+        this(prefix, Thread.NORM_PRIORITY, true);
+    }
+
+    public IoThreadFactory(String prefix, int priority, boolean daemon) {
+        checkArgument(priority >= Thread.MIN_PRIORITY && priority <= Thread.MAX_PRIORITY,
+                "priority out of range: %s", priority);
+        this.prefix = checkNotNull(prefix);
+        this.priority = priority;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return newThread(r, nextIndex.getAndIncrement());
+    }
+
+    /**
+     * Creates the thread of the {@code index}th loop.
+     */
+    protected Thread newThread(Runnable r, int index) {
+        Thread t = new Thread(r, prefix + "-" + index);
+        t.setDaemon(daemon);
+        t.setPriority(priority);
+        return t;
+    }
+}
@@ -3,12 +3,20 @@ package kenny.net;
 import com.google.common.base.Preconditions;
 import net.jcip.annotations.ThreadSafe;
 import kenny.base.EventCallback;
+import kenny.net.buffer.BufferFactory;
+import kenny.net.buffer.PooledBufferFactory;
+import kenny.net.codec.FrameDecoder;
+import kenny.net.codec.MessageEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * Created by kennylbj on 16/9/19.
@@ -17,11 +25,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @ThreadSafe
 public class KiwiClient {
     private final static Logger LOG = LoggerFactory.getLogger(KiwiClient.class);
+    // How often shutdownGracefully() checks whether the connection is closed
+    private final static long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
     private final NIOEventLoop loop;
     private final String name;
 
     //in case of multi-threads start a server
     private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final CompletableFuture<Void> terminationFuture = new CompletableFuture<>();
     private final Connector connector;
 
     //TODO synchronized?
@@ -32,9 +44,25 @@ public class KiwiClient {
     //volatile for memory-visibility in multi-threads environment
     private volatile EventCallback.ConnectFinishCallback connectFinishCallback;
     private volatile EventCallback.MessageCallback messageCallback;
+    private volatile Executor messageExecutor;
+    private volatile long maxPendingMessageBytes = OffloadedMessageCallback.DEFAULT_MAX_PENDING_BYTES;
     private volatile EventCallback.WriteCompleteCallback writeCompleteCallback;
+    private volatile Supplier<? extends FrameDecoder> frameDecoderFactory;
+    private volatile EventCallback.FrameCallback frameCallback;
+    private volatile MessageEncoder<?> messageEncoder;
+    private volatile int flushThreshold = Connection.DEFAULT_FLUSH_THRESHOLD;
     private volatile EventCallback.HighWaterMarkCallback highWaterMarkCallback;
     private volatile int highWaterMark = 65536;
+    private volatile EventCallback.LowWaterMarkCallback lowWaterMarkCallback;
+    private volatile int lowWaterMark = 0;
+    private volatile EventCallback.CloseCallback closeCallback;
+
+    private volatile BufferFactory bufferFactory = PooledBufferFactory.getInstance();
+    private volatile RecvBufferAllocator recvBufferAllocator = new AdaptiveRecvBufferAllocator();
+    private volatile int maxReadsPerEvent = Connection.DEFAULT_MAX_READS_PER_EVENT;
+    private volatile int maxBytesPerEvent = Connection.DEFAULT_MAX_BYTES_PER_EVENT;
+    private volatile int maxWriteIovecs = Connection.DEFAULT_MAX_WRITE_IOVECS;
+    private volatile int maxBytesPerWrite = Connection.DEFAULT_MAX_BYTES_PER_WRITE;
 
     public KiwiClient(NIOEventLoop loop, String name, String host, int port) throws IOException{
         this.loop = loop;
@@ -49,16 +77,33 @@ public class KiwiClient {
                 loop.assertInLoopThread();
                 String connName = name + "-" + channel.toString() + "#" + nextConnectionId++;
                 LOG.info("ConnName is {}", connName);
-                Connection connection = new Connection(loop, connName, (SocketChannel) channel);
-                connection.setMessageCallback(messageCallback);
+                Connection connection = new Connection(loop, connName, (SocketChannel) channel,
+                        bufferFactory, recvBufferAllocator);
+                connection.setMessageCallback(messageExecutor == null || messageCallback == null ? messageCallback
+                        : new OffloadedMessageCallback(messageCallback, messageExecutor, maxPendingMessageBytes));
+                if (frameDecoderFactory != null) {
+                    connection.initFrameDecoder(frameDecoderFactory.get(), frameCallback);
+                }
+                if (messageEncoder != null) {
+                    connection.initMessageEncoder(messageEncoder);
+                }
+                connection.initFlushThreshold(flushThreshold);
                 connection.setWriteCompleteCallback(writeCompleteCallback);
                 connection.setConnectFinishCallback(connectFinishCallback);
+                connection.initReadLimits(maxReadsPerEvent, maxBytesPerEvent);
+                connection.initWriteLimits(maxWriteIovecs, maxBytesPerWrite);
                 if (highWaterMarkCallback != null) {
                     connection.setHighWaterMarkCallback(highWaterMarkCallback, highWaterMark);
                 }
+                if (lowWaterMarkCallback != null) {
+                    connection.setLowWaterMarkCallback(lowWaterMarkCallback, lowWaterMark);
+                }
                 connection.setCloseCallback(closeChannel -> {
                     loop.assertInLoopThread();
                     connection.connectDestroyed();
+                    if (closeCallback != null) {
+                        closeCallback.onClose(closeChannel);
+                    }
                     //TODO restart
                 });
                 currentConn = connection;
@@ -79,6 +124,49 @@ public class KiwiClient {
         }
     }
 
+    /**
+     * Closes the connection without losing what has been sent: keeps reading
+     * for {@code quietPeriod}, so that the responses in flight still arrive,
+     * then lets the connection write what is queued and close.  It is closed
+     * at once if still open after {@code timeout}.  The loop keeps running,
+     * it belongs to the caller.  Calling it again has no effect.
+     *
+     * @return a future completed once the connection is closed
+     * @see Connection#closeGracefully()
+     */
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(quietPeriod >= 0 && timeout >= quietPeriod);
+        if (shuttingDown.compareAndSet(false, true)) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            loop.runAfter(() -> {
+                LOG.info("Shut down KiwiClient {}", name);
+                started.set(false);
+                Connection connection = currentConn;
+                if (connection == null) {
+                    terminationFuture.complete(null);
+                    return;
+                }
+                connection.closeGracefully();
+                awaitClosed(connection, deadline);
+            }, quietPeriod, unit);
+        }
+        return terminationFuture;
+    }
+
+    private void awaitClosed(Connection connection, long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (!connection.disConnected() && remaining > 0) {
+            loop.runAfter(() -> awaitClosed(connection, deadline),
+                    Math.min(remaining, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS);
+            return;
+        }
+        if (!connection.disConnected()) {
+            LOG.warn("KiwiClient {} closes its connection before it is flushed", name);
+            connection.forceClose();
+        }
+        terminationFuture.complete(null);
+    }
+
     public void setConnectFinishCallback(EventCallback.ConnectFinishCallback connectFinishCallback) {
         this.connectFinishCallback = connectFinishCallback;
     }
@@ -87,6 +175,59 @@ public class KiwiClient {
         this.messageCallback = messageCallback;
     }
 
+    /**
+     * Runs the message callback of the connection on {@code messageExecutor}
+     * instead of its loop, in the order the messages are read, and stops
+     * reading while more than {@code maxPendingBytes} of it wait
+     * for the callback.  Must be called before {@link #connect()}.
+     *
+     * @see OffloadedMessageCallback
+     */
+    public void setMessageExecutor(Executor messageExecutor, long maxPendingBytes) {
+        Preconditions.checkNotNull(messageExecutor);
+        Preconditions.checkArgument(maxPendingBytes > 0);
+        this.messageExecutor = messageExecutor;
+        this.maxPendingMessageBytes = maxPendingBytes;
+    }
+
+    public void setMessageExecutor(Executor messageExecutor) {
+        setMessageExecutor(messageExecutor, OffloadedMessageCallback.DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * Cuts the input of every new connection into frames, with a decoder of its
+     * own created by {@code frameDecoderFactory}, and passes them to
+     * {@code frameCallback} instead of invoking the message callback.
+     *
+     * @see Connection#setFrameDecoder(FrameDecoder, EventCallback.FrameCallback)
+     */
+    public void setFrameDecoder(Supplier<? extends FrameDecoder> frameDecoderFactory,
+                                EventCallback.FrameCallback frameCallback) {
+        Preconditions.checkNotNull(frameDecoderFactory);
+        Preconditions.checkNotNull(frameCallback);
+        this.frameCallback = frameCallback;
+        this.frameDecoderFactory = frameDecoderFactory;
+    }
+
+    /**
+     * Sets the encoder of the messages written to the connections, it is
+     * shared by all of them.
+     *
+     * @see Connection#write(Object)
+     */
+    public void setMessageEncoder(MessageEncoder<?> messageEncoder) {
+        Preconditions.checkNotNull(messageEncoder);
+        this.messageEncoder = messageEncoder;
+    }
+
+    /**
+     * @see Connection#setFlushThreshold(int)
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        Preconditions.checkArgument(flushThreshold > 0);
+        this.flushThreshold = flushThreshold;
+    }
+
     public void setWriteCompleteCallback(EventCallback.WriteCompleteCallback writeCompleteCallback) {
         this.writeCompleteCallback = writeCompleteCallback;
     }
@@ -98,6 +239,63 @@ public class KiwiClient {
         this.highWaterMark = highWaterMark;
     }
 
+    public void setLowWaterMarkCallback(EventCallback.LowWaterMarkCallback lowWaterMarkCallback, int lowWaterMark) {
+        Preconditions.checkNotNull(lowWaterMarkCallback);
+        Preconditions.checkArgument(lowWaterMark >= 0);
+        this.lowWaterMarkCallback = lowWaterMarkCallback;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * Sets the callback invoked in the loop thread once the connection is
+     * closed, by either side.
+     */
+    public void setCloseCallback(EventCallback.CloseCallback closeCallback) {
+        this.closeCallback = closeCallback;
+    }
+
+    /**
+     * Sets the budget of one readiness event of new connections.
+     *
+     * @see Connection#setReadLimits(int, int)
+     */
+    public void setReadLimits(int maxReadsPerEvent, int maxBytesPerEvent) {
+        Preconditions.checkArgument(maxReadsPerEvent > 0);
+        Preconditions.checkArgument(maxBytesPerEvent > 0);
+        this.maxReadsPerEvent = maxReadsPerEvent;
+        this.maxBytesPerEvent = maxBytesPerEvent;
+    }
+
+    /**
+     * Sets the limits of one gathering write for new connections.
+     *
+     * @see Connection#setWriteLimits(int, int)
+     */
+    public void setWriteLimits(int maxWriteIovecs, int maxBytesPerWrite) {
+        Preconditions.checkArgument(maxWriteIovecs > 0);
+        Preconditions.checkArgument(maxBytesPerWrite > 0);
+        this.maxWriteIovecs = maxWriteIovecs;
+        this.maxBytesPerWrite = maxBytesPerWrite;
+    }
+
+    /**
+     * Sets the factory of the input buffers of new connections, by default
+     * {@link PooledBufferFactory#getInstance()}.
+     *
+     * @see Connection#Connection(NIOEventLoop, String, SocketChannel, BufferFactory)
+     */
+    public void setBufferFactory(BufferFactory bufferFactory) {
+        Preconditions.checkNotNull(bufferFactory);
+        this.bufferFactory = bufferFactory;
+    }
 
+    /**
+     * Sets how the capacity of the input buffers of new connections is chosen.
+     * The default is an {@link AdaptiveRecvBufferAllocator}.
+     */
+    public void setRecvBufferAllocator(RecvBufferAllocator recvBufferAllocator) {
+        Preconditions.checkNotNull(recvBufferAllocator);
+        this.recvBufferAllocator = recvBufferAllocator;
+    }
 
 }
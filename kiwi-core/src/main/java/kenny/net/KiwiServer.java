@@ -1,17 +1,36 @@
 package kenny.net;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import com.google.common.collect.Maps;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.collect.Lists;
 import net.jcip.annotations.ThreadSafe;
 import kenny.base.EventCallback;
+import kenny.base.TimerId;
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferFactory;
+import kenny.net.buffer.PooledBufferFactory;
+import kenny.net.codec.FrameDecoder;
+import kenny.net.codec.MessageEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Created by kennylbj on 16/9/17.
@@ -20,74 +39,400 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @ThreadSafe
 public class KiwiServer {
     private final static Logger LOG = LoggerFactory.getLogger(KiwiServer.class);
+    // How often shutdownGracefully() checks whether the connections are closed
+    private final static long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
     private final NIOEventLoop loop;    // Accept loop
     private final String name;
     private final String host;
     private final int port;
-    private final EventLoopPool pool;
+    // Created by start(), then only accessed in the thread of the accept loop
+    private EventLoopPool pool;
 
     private Acceptor acceptor;
-    private final Map<String, Connection> connectionMap;
+    // The acceptors of the I/O loops in reuse-port mode
+    private final List<Acceptor> ioAcceptors = Lists.newArrayList();
+    private final ConnectionRegistry connections;
 
 
     //volatile for memory-visibility in multi-thread env
     private volatile EventCallback.AcceptCallback acceptCallback;
     private volatile EventCallback.MessageCallback messageCallback;
+    private volatile Executor messageExecutor;
+    private volatile long maxPendingMessageBytes = OffloadedMessageCallback.DEFAULT_MAX_PENDING_BYTES;
+    private volatile BlockingConnection.Handler blockingHandler;
+    private volatile ThreadFactory blockingThreadFactory;
     private volatile EventCallback.WriteCompleteCallback writeCompleteCallback;
+    private volatile Supplier<? extends FrameDecoder> frameDecoderFactory;
+    private volatile EventCallback.FrameCallback frameCallback;
+    private volatile MessageEncoder<?> messageEncoder;
+    private volatile int flushThreshold = Connection.DEFAULT_FLUSH_THRESHOLD;
     private volatile EventCallback.ConnectFinishCallback connectFinishCallback;
 
+    private volatile BufferFactory bufferFactory = PooledBufferFactory.getInstance();
+    private volatile RecvBufferAllocator recvBufferAllocator = new AdaptiveRecvBufferAllocator();
+    private volatile int maxReadsPerEvent = Connection.DEFAULT_MAX_READS_PER_EVENT;
+    private volatile int maxBytesPerEvent = Connection.DEFAULT_MAX_BYTES_PER_EVENT;
+    private volatile int maxWriteIovecs = Connection.DEFAULT_MAX_WRITE_IOVECS;
+    private volatile int maxBytesPerWrite = Connection.DEFAULT_MAX_BYTES_PER_WRITE;
+    private volatile int backlog = Acceptor.DEFAULT_BACKLOG;
+    private volatile int maxAcceptsPerWakeup = Acceptor.DEFAULT_MAX_ACCEPTS_PER_WAKEUP;
+    private volatile SocketOptions socketOptions = new SocketOptions();
+    private volatile long acceptPauseNanos = Acceptor.DEFAULT_ACCEPT_PAUSE_NANOS;
+
     //in case of multi thread start a server
     private final AtomicBoolean started;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final CompletableFuture<Void> terminationFuture = new CompletableFuture<>();
 
-    //default value is 0, no need to synchronize because in loop thread
-    private int nextConnectionId = 0;
+    // Connections are named by several loops in reuse-port mode
+    private final AtomicInteger nextConnectionId = new AtomicInteger();
+    private volatile int threadNum = 0;
+    private volatile boolean reusePort = false;
+    private volatile LoopSelectionStrategy loopSelectionStrategy = LoopSelectionStrategy.ROUND_ROBIN;
+    private volatile ThreadFactory ioThreadFactory;
+    private volatile long slowCallbackThresholdNanos;
 
     public KiwiServer(NIOEventLoop loop, String name, String host, int port) {
         this.loop = loop;
         this.name = name;
         this.host = host;
         this.port = port;
-        connectionMap = Maps.newHashMap();
+        connections = new ConnectionRegistry();
         started = new AtomicBoolean(false);
-        pool = new RoundRobinPool<>(loop);
+        ioThreadFactory = new IoThreadFactory(name + "-io");
     }
 
     public void setThreadNum(int threadNum) {
         checkArgument(threadNum >= 0);
-        pool.setThreadNum(threadNum);
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * Sets the factory of the threads of the I/O loops, by default daemon
+     * threads named after the server.  A factory may set the priority of the
+     * threads or pin them to cores.  Must be called before {@link #start()}.
+     */
+    public void setIoThreadFactory(ThreadFactory ioThreadFactory) {
+        checkNotNull(ioThreadFactory);
+        this.ioThreadFactory = ioThreadFactory;
+    }
+
+    /**
+     * Sets how the I/O loop of a new connection is chosen, the default is
+     * {@link LoopSelectionStrategy#ROUND_ROBIN}.  Must be called before
+     * {@link #start()}.  It does not apply in reuse-port mode, where each loop
+     * accepts its own connections.
+     */
+    public void setLoopSelectionStrategy(LoopSelectionStrategy loopSelectionStrategy) {
+        checkNotNull(loopSelectionStrategy);
+        this.loopSelectionStrategy = loopSelectionStrategy;
+    }
+
+    /**
+     * Binds one listening socket with SO_REUSEPORT per I/O loop instead of a
+     * single acceptor on the base loop.  The kernel then spreads the incoming
+     * connections over the loops, and each connection stays on the loop which
+     * accepted it.  Falls back to a single acceptor if the platform does not
+     * support SO_REUSEPORT.  Must be called before {@link #start()}.
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Logs a warning for each callback which blocks a loop of this server for
+     * {@code threshold} or longer, with the name of its connection and the
+     * stack of the loop.  {@code 0}, the default, turns it off.  Must be
+     * called before {@link #start()}.
+     *
+     * @see EventLoop#setSlowCallbackThreshold(long, TimeUnit)
+     */
+    public void setSlowCallbackThreshold(long threshold, TimeUnit unit) {
+        checkArgument(threshold >= 0);
+        this.slowCallbackThresholdNanos = unit.toNanos(threshold);
     }
 
     public void start() {
         if (started.compareAndSet(false, true)) {
             LOG.info("Start KiwiServer {}", name);
+            pool = loopSelectionStrategy.newPool(loop);
+            pool.setThreadNum(threadNum);
+            pool.setThreadFactory(ioThreadFactory);
+            if (reusePort && !Acceptor.isReusePortSupported()) {
+                LOG.warn("SO_REUSEPORT is not supported, KiwiServer {} uses a single acceptor", name);
+                reusePort = false;
+            }
+            if (reusePort) {
+                startReusePortAcceptors();
+                return;
+            }
             //single thread access
             //pool.start();
-            loop.runInLoop(pool::start);
+            loop.runInLoop(this::startPool);
             try {
-                acceptor = new Acceptor(loop, host, port);
+                acceptor = new Acceptor(loop, Acceptor.bind(host, port, false, backlog));
             } catch (IOException e) {
                 LOG.error("Acceptor failed with endPoint {}:{}", host, port, e);
                 throw new RuntimeException("Acceptor failed.");
             }
-            loop.runInLoop(acceptor::accept);
-
+            configure(acceptor);
             acceptor.setAcceptCallback(acceptChannel -> {
                 loop.assertInLoopThread();
-                String connName = name + "-" + host + ":" + port + "#" + nextConnectionId++;
-                LOG.info("Accept connection {}", connName);
                 // Safe to call nextLoop because it's in loop thread
                 NIOEventLoop ioLoop = (NIOEventLoop) pool.nextLoop();
-                //TODO error?
-                Connection connection = new Connection(ioLoop, connName, (SocketChannel) acceptChannel);
-                connectionMap.put(connName, connection);
-                connection.setMessageCallback(messageCallback);
-                connection.setWriteCompleteCallback(writeCompleteCallback);
-                connection.setConnectFinishCallback(connectFinishCallback);
-                //TODO acceptEstablished with acceptCallback
-                ioLoop.runInLoop(connection::connectEstablished);
+                newConnection(ioLoop, (SocketChannel) acceptChannel);
+            });
+            loop.runInLoop(acceptor::accept);
+        }
+
+    }
+
+    private void startPool() {
+        pool.start();
+        if (slowCallbackThresholdNanos > 0) {
+            loop.setSlowCallbackThreshold(slowCallbackThresholdNanos, TimeUnit.NANOSECONDS);
+            for (EventLoop ioLoop : pool.getAllLoops()) {
+                ioLoop.setSlowCallbackThreshold(slowCallbackThresholdNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Binds one listening channel per I/O loop and lets each loop accept its
+     * own connections, so there is no handoff between the loops.
+     */
+    private void startReusePortAcceptors() {
+        // Bind in the calling thread so that a failure is reported by start()
+        int acceptorNum = Math.max(threadNum, 1);
+        List<ServerSocketChannel> channels = Lists.newArrayListWithCapacity(acceptorNum);
+        try {
+            for (int i = 0; i < acceptorNum; i++) {
+                channels.add(Acceptor.bind(host, port, true, backlog));
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            LOG.error("Acceptor failed with endPoint {}:{}", host, port, e);
+            throw new RuntimeException("Acceptor failed.");
+        }
+
+        loop.runInLoop(() -> {
+            startPool();
+            List<EventLoop> ioLoops = pool.getAllLoops();
+            for (int i = 0; i < acceptorNum; i++) {
+                NIOEventLoop ioLoop = (NIOEventLoop) ioLoops.get(i);
+                Acceptor ioAcceptor;
+                try {
+                    ioAcceptor = new Acceptor(ioLoop, channels.get(i));
+                } catch (IOException e) {
+                    LOG.error("Acceptor failed with endPoint {}:{}", host, port, e);
+                    continue;
+                }
+                configure(ioAcceptor);
+                ioAcceptors.add(ioAcceptor);
+                ioAcceptor.setAcceptCallback(acceptChannel -> {
+                    ioLoop.assertInLoopThread();
+                    newConnection(ioLoop, (SocketChannel) acceptChannel);
+                });
+                ioLoop.runInLoop(ioAcceptor::accept);
+            }
+        });
+    }
+
+    private void configure(Acceptor acceptor) {
+        acceptor.setMaxAcceptsPerWakeup(maxAcceptsPerWakeup);
+        acceptor.setSocketOptions(socketOptions);
+        acceptor.setAcceptPause(acceptPauseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void newConnection(NIOEventLoop ioLoop, SocketChannel acceptChannel) {
+        String connName = name + "-" + host + ":" + port + "#" + nextConnectionId.getAndIncrement();
+        LOG.debug("Accept connection {}", connName);
+        //TODO error?
+        Connection connection = new Connection(ioLoop, connName, acceptChannel, bufferFactory,
+                recvBufferAllocator);
+        connection.setMessageCallback(messageExecutor == null || messageCallback == null ? messageCallback
+                : new OffloadedMessageCallback(messageCallback, messageExecutor, maxPendingMessageBytes));
+        if (frameDecoderFactory != null) {
+            connection.initFrameDecoder(frameDecoderFactory.get(), frameCallback);
+        }
+        if (messageEncoder != null) {
+            connection.initMessageEncoder(messageEncoder);
+        }
+        connection.initFlushThreshold(flushThreshold);
+        connection.setWriteCompleteCallback(writeCompleteCallback);
+        connection.setConnectFinishCallback(connectFinishCallback);
+        connection.initReadLimits(maxReadsPerEvent, maxBytesPerEvent);
+        connection.initWriteLimits(maxWriteIovecs, maxBytesPerWrite);
+        BlockingConnection.Handler handler = blockingHandler;
+        BlockingConnection blockingConnection = handler == null ? null
+                : new BlockingConnection(connection, BlockingConnection.DEFAULT_MAX_BUFFERED_BYTES);
+        //TODO acceptEstablished with acceptCallback
+        ioLoop.runInLoop(() -> {
+            // The connection leaves the registry once it is closed
+            connections.add(connection);
+            connection.connectEstablished();
+            if (blockingConnection != null) {
+                blockingConnection.start(handler, blockingThreadFactory);
+            }
+        });
+    }
+
+    /**
+     * Shuts the server down without losing what it has sent: stops accepting,
+     * lets every connection write what is queued and close, then shuts the I/O
+     * loops down with {@code quietPeriod}.  The connections still open after
+     * {@code timeout} are closed at once.  The accept loop keeps running, it
+     * belongs to the caller.  Calling it again has no effect.
+     *
+     * @return a future completed once the I/O loops have terminated
+     * @see Connection#closeGracefully()
+     * @see EventLoop#shutdownGracefully(long, long, TimeUnit)
+     */
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        checkArgument(quietPeriod >= 0 && timeout >= quietPeriod);
+        if (shuttingDown.compareAndSet(false, true)) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long quietPeriodNanos = unit.toNanos(quietPeriod);
+            loop.runInLoop(() -> {
+                LOG.info("Shut down KiwiServer {}", name);
+                if (pool == null) {
+                    terminationFuture.complete(null);
+                    return;
+                }
+                if (acceptor != null) {
+                    acceptor.close();
+                }
+                for (Acceptor ioAcceptor : ioAcceptors) {
+                    ioAcceptor.getLoop().runInLoop(ioAcceptor::close);
+                }
+                // Queued after the connections accepted so far are registered
+                for (EventLoop ioLoop : pool.getAllLoops()) {
+                    ioLoop.runInLoop(() -> connections.forEachInLoop(ioLoop, Connection::closeGracefully));
+                }
+                awaitConnectionsClosed(deadline, quietPeriodNanos);
             });
         }
+        return terminationFuture;
+    }
 
+    private void awaitConnectionsClosed(long deadline, long quietPeriodNanos) {
+        long remaining = deadline - System.nanoTime();
+        if (connections.size() > 0 && remaining > 0) {
+            loop.runAfter(() -> awaitConnectionsClosed(deadline, quietPeriodNanos),
+                    Math.min(remaining, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS);
+            return;
+        }
+        if (connections.size() > 0) {
+            LOG.warn("KiwiServer {} closes {} connections before they are flushed", name, connections.size());
+            connections.forEach(Connection::forceClose);
+        }
+        remaining = Math.max(0, remaining);
+        pool.shutdownGracefully(Math.min(quietPeriodNanos, remaining), remaining, TimeUnit.NANOSECONDS)
+                .whenComplete((ignored, e) -> {
+                    LOG.info("KiwiServer {} is shut down", name);
+                    terminationFuture.complete(null);
+                });
+    }
+
+    /**
+     * Takes the metrics of the I/O loops and of the open connections, each
+     * loop in its own thread with one task.  The future completes once all
+     * the loops have run it.
+     *
+     * @see EventLoop#metrics()
+     * @see Connection#metrics()
+     */
+    public CompletableFuture<ServerMetrics> metrics() {
+        CompletableFuture<ServerMetrics> metrics = new CompletableFuture<>();
+        loop.runInLoop(() -> {
+            if (pool == null) {
+                metrics.complete(new ServerMetrics(name, Collections.emptyList(), Collections.emptyList()));
+                return;
+            }
+            List<EventLoop> ioLoops = pool.getAllLoops();
+            EventLoopMetrics[] loopMetrics = new EventLoopMetrics[ioLoops.size()];
+            List<List<ConnectionMetrics>> connectionMetrics = new ArrayList<>(Collections.nCopies(ioLoops.size(), null));
+            AtomicInteger pendingLoops = new AtomicInteger(ioLoops.size());
+            for (int i = 0; i < ioLoops.size(); i++) {
+                EventLoop ioLoop = ioLoops.get(i);
+                int index = i;
+                Runnable collect = () -> {
+                    List<ConnectionMetrics> loopConnections = new ArrayList<>(connections.size(ioLoop));
+                    connections.forEachInLoop(ioLoop, connection -> loopConnections.add(connection.metricsInLoop()));
+                    loopMetrics[index] = ioLoop.metricsInLoop();
+                    connectionMetrics.set(index, loopConnections);
+                    // The last loop sees the metrics of the others
+                    if (pendingLoops.decrementAndGet() == 0) {
+                        List<ConnectionMetrics> all = new ArrayList<>();
+                        connectionMetrics.forEach(all::addAll);
+                        metrics.complete(new ServerMetrics(name, Arrays.asList(loopMetrics), all));
+                    }
+                };
+                try {
+                    ioLoop.runInLoop(collect);
+                } catch (RejectedExecutionException e) {
+                    metrics.completeExceptionally(e);
+                    return;
+                }
+            }
+        });
+        return metrics;
+    }
+
+    /**
+     * Takes the metrics every {@code period} and passes them to
+     * {@code reporter} in the thread of the accept loop, for instance
+     * {@code reportMetrics(10, TimeUnit.SECONDS, m -> LOG.info("{}", m))}.
+     *
+     * @return the timer of the accept loop which takes the metrics
+     */
+    public TimerId reportMetrics(long period, TimeUnit unit, Consumer<ServerMetrics> reporter) {
+        checkArgument(period > 0);
+        checkNotNull(reporter);
+        return loop.runEvery(() -> metrics().thenAccept(metrics -> loop.runInLoop(() -> reporter.accept(metrics))),
+                period, unit);
+    }
+
+    /**
+     * Returns the number of open connections of this server.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Runs {@code action} for every open connection in the thread of its loop.
+     *
+     * @see ConnectionRegistry#forEach(Consumer)
+     */
+    public void forEachConnection(Consumer<Connection> action) {
+        connections.forEach(action);
+    }
+
+    /**
+     * Sends the readable bytes of {@code message} to every open connection of
+     * this server, and releases it once it has been written to all of them.
+     *
+     * @see ConnectionRegistry#broadcast(Buffer)
+     */
+    public CompletableFuture<Void> broadcast(Buffer message) {
+        return connections.broadcast(message);
+    }
+
+    /**
+     * Sends the readable bytes of {@code message} to every connection of
+     * {@code group}, and releases it once it has been written to all of them.
+     *
+     * @see ConnectionRegistry#broadcast(Buffer)
+     */
+    public CompletableFuture<Void> broadcast(Buffer message, ConnectionRegistry group) {
+        checkNotNull(group);
+        return group.broadcast(message);
     }
 
     //TODO setAcceptCallback for Connection
@@ -99,6 +444,78 @@ public class KiwiServer {
         this.messageCallback = messageCallback;
     }
 
+    /**
+     * Runs the message callback of each connection on {@code messageExecutor}
+     * instead of its loop, in the order the messages are read, and stops
+     * reading a connection while more than {@code maxPendingBytes} of it wait
+     * for the callback.  Must be called before {@link #start()}.
+     *
+     * @see OffloadedMessageCallback
+     */
+    public void setMessageExecutor(Executor messageExecutor, long maxPendingBytes) {
+        checkNotNull(messageExecutor);
+        checkArgument(maxPendingBytes > 0);
+        this.messageExecutor = messageExecutor;
+        this.maxPendingMessageBytes = maxPendingBytes;
+    }
+
+    public void setMessageExecutor(Executor messageExecutor) {
+        setMessageExecutor(messageExecutor, OffloadedMessageCallback.DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * Runs {@code handler} for each new connection in a thread of its own,
+     * with a blocking facade over the connection, instead of the message
+     * callback.  The threads are virtual threads when the runtime has them,
+     * otherwise platform threads.  Must be called before {@link #start()}.
+     *
+     * @see BlockingConnection
+     */
+    public void setBlockingHandler(BlockingConnection.Handler handler) {
+        setBlockingHandler(handler, VirtualThreads.newFactoryOrPlatform(name + "-handler"));
+    }
+
+    public void setBlockingHandler(BlockingConnection.Handler handler, ThreadFactory threadFactory) {
+        checkNotNull(handler);
+        checkNotNull(threadFactory);
+        this.blockingThreadFactory = threadFactory;
+        this.blockingHandler = handler;
+    }
+
+    /**
+     * Cuts the input of every new connection into frames, with a decoder of its
+     * own created by {@code frameDecoderFactory}, and passes them to
+     * {@code frameCallback} instead of invoking the message callback.
+     *
+     * @see Connection#setFrameDecoder(FrameDecoder, EventCallback.FrameCallback)
+     */
+    public void setFrameDecoder(Supplier<? extends FrameDecoder> frameDecoderFactory,
+                                EventCallback.FrameCallback frameCallback) {
+        checkNotNull(frameDecoderFactory);
+        checkNotNull(frameCallback);
+        this.frameCallback = frameCallback;
+        this.frameDecoderFactory = frameDecoderFactory;
+    }
+
+    /**
+     * Sets the encoder of the messages written to the connections, it is
+     * shared by all of them.
+     *
+     * @see Connection#write(Object)
+     */
+    public void setMessageEncoder(MessageEncoder<?> messageEncoder) {
+        checkNotNull(messageEncoder);
+        this.messageEncoder = messageEncoder;
+    }
+
+    /**
+     * @see Connection#setFlushThreshold(int)
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        checkArgument(flushThreshold > 0);
+        this.flushThreshold = flushThreshold;
+    }
+
     public void setWriteCompleteCallback(EventCallback.WriteCompleteCallback writeCompleteCallback) {
         this.writeCompleteCallback = writeCompleteCallback;
     }
@@ -107,5 +524,89 @@ public class KiwiServer {
         this.connectFinishCallback = connectFinishCallback;
     }
 
+    /**
+     * Sets the budget of one readiness event of new connections.
+     *
+     * @see Connection#setReadLimits(int, int)
+     */
+    public void setReadLimits(int maxReadsPerEvent, int maxBytesPerEvent) {
+        checkArgument(maxReadsPerEvent > 0);
+        checkArgument(maxBytesPerEvent > 0);
+        this.maxReadsPerEvent = maxReadsPerEvent;
+        this.maxBytesPerEvent = maxBytesPerEvent;
+    }
+
+    /**
+     * Sets the limits of one gathering write for new connections.
+     *
+     * @see Connection#setWriteLimits(int, int)
+     */
+    public void setWriteLimits(int maxWriteIovecs, int maxBytesPerWrite) {
+        checkArgument(maxWriteIovecs > 0);
+        checkArgument(maxBytesPerWrite > 0);
+        this.maxWriteIovecs = maxWriteIovecs;
+        this.maxBytesPerWrite = maxBytesPerWrite;
+    }
+
+    /**
+     * Sets the length of the queue of pending connections of each listening
+     * socket.  Must be called before {@link #start()}.
+     */
+    public void setBacklog(int backlog) {
+        checkArgument(backlog > 0);
+        this.backlog = backlog;
+    }
+
+    /**
+     * Sets the maximum number of connections an acceptor accepts per readiness
+     * event.  Must be called before {@link #start()}.
+     *
+     * @see Acceptor#setMaxAcceptsPerWakeup(int)
+     */
+    public void setMaxAcceptsPerWakeup(int maxAcceptsPerWakeup) {
+        checkArgument(maxAcceptsPerWakeup > 0);
+        this.maxAcceptsPerWakeup = maxAcceptsPerWakeup;
+    }
+
+    /**
+     * Sets the options of the accepted sockets.  The options are copied, later
+     * changes to {@code socketOptions} have no effect.  Must be called before
+     * {@link #start()}.
+     */
+    public void setSocketOptions(SocketOptions socketOptions) {
+        checkNotNull(socketOptions);
+        this.socketOptions = new SocketOptions(socketOptions);
+    }
+
+    /**
+     * Sets how long the acceptors stop accepting once the file descriptors
+     * run out.  Must be called before {@link #start()}.
+     *
+     * @see Acceptor#setAcceptPause(long, TimeUnit)
+     */
+    public void setAcceptPause(long pause, TimeUnit unit) {
+        checkArgument(pause > 0);
+        this.acceptPauseNanos = unit.toNanos(pause);
+    }
+
+    /**
+     * Sets the factory of the input buffers of new connections, by default
+     * {@link PooledBufferFactory#getInstance()}.
+     *
+     * @see Connection#Connection(NIOEventLoop, String, SocketChannel, BufferFactory)
+     */
+    public void setBufferFactory(BufferFactory bufferFactory) {
+        checkNotNull(bufferFactory);
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * Sets how the capacity of the input buffers of new connections is chosen.
+     * The default is an {@link AdaptiveRecvBufferAllocator}.
+     */
+    public void setRecvBufferAllocator(RecvBufferAllocator recvBufferAllocator) {
+        checkNotNull(recvBufferAllocator);
+        this.recvBufferAllocator = recvBufferAllocator;
+    }
 
 }
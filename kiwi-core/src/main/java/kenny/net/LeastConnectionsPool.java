@@ -0,0 +1,54 @@
+package kenny.net;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.List;
+
+/**
+ * Gives a new connection to the loop with the fewest registered channels.
+ * <p>
+ * A loop counts a connection once it has registered it, which it does some
+ * time after the connection has been given to it.  The connections given to
+ * a loop and not registered yet are added to its count, as told by the
+ * number of channels the loop has registered since the pool started, so that
+ * a burst of connections is not given to a single loop.
+ */
+@NotThreadSafe
+public class LeastConnectionsPool<T extends NIOEventLoop> extends AbstractEventLoopPool<T> {
+    private long[] assigned;
+    private long[] registrationsAtStart;
+    private int position = 0;
+
+    public LeastConnectionsPool(NIOEventLoop basicLoop) {
+        super(basicLoop);
+    }
+
+    @Override
+    protected void started(List<T> loops) {
+        assigned = new long[loops.size()];
+        registrationsAtStart = new long[loops.size()];
+        for (int i = 0; i < loops.size(); i++) {
+            registrationsAtStart[i] = loops.get(i).getChannelRegistrations();
+        }
+    }
+
+    @Override
+    protected int choose(List<T> loops) {
+        int size = loops.size();
+        int best = -1;
+        long bestConnections = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (position + i) % size;
+            NIOEventLoop loop = loops.get(index);
+            long registered = loop.getChannelRegistrations() - registrationsAtStart[index];
+            long connections = loop.getRegisteredChannels() + Math.max(0, assigned[index] - registered);
+            if (connections < bestConnections) {
+                best = index;
+                bestConnections = connections;
+            }
+        }
+        assigned[best]++;
+        position = (best + 1) % size;
+        return best;
+    }
+}
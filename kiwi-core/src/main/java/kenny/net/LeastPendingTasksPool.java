@@ -0,0 +1,35 @@
+package kenny.net;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.List;
+
+/**
+ * Gives a new connection to the loop with the fewest tasks waiting, the next
+ * loop in turn among equals, so that idle loops are still used in turn.
+ */
+@NotThreadSafe
+public class LeastPendingTasksPool<T extends EventLoop> extends AbstractEventLoopPool<T> {
+    private int position = 0;
+
+    public LeastPendingTasksPool(EventLoop basicLoop) {
+        super(basicLoop);
+    }
+
+    @Override
+    protected int choose(List<T> loops) {
+        int size = loops.size();
+        int best = -1;
+        int bestTasks = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (position + i) % size;
+            int tasks = loops.get(index).getPendingTasks();
+            if (tasks < bestTasks) {
+                best = index;
+                bestTasks = tasks;
+            }
+        }
+        position = (best + 1) % size;
+        return best;
+    }
+}
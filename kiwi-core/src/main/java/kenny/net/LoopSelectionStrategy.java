@@ -0,0 +1,47 @@
+package kenny.net;
+
+/**
+ * How a server chooses the I/O loop of a new connection.
+ *
+ * @see KiwiServer#setLoopSelectionStrategy(LoopSelectionStrategy)
+ */
+public enum LoopSelectionStrategy {
+    /**
+     * Each loop in turn, regardless of its load.
+     */
+    ROUND_ROBIN {
+        @Override
+        EventLoopPool newPool(NIOEventLoop basicLoop) {
+            return new RoundRobinPool<NIOEventLoop>(basicLoop);
+        }
+    },
+    /**
+     * The loop with the fewest registered channels.
+     */
+    LEAST_CONNECTIONS {
+        @Override
+        EventLoopPool newPool(NIOEventLoop basicLoop) {
+            return new LeastConnectionsPool<NIOEventLoop>(basicLoop);
+        }
+    },
+    /**
+     * The loop with the fewest tasks waiting.
+     */
+    LEAST_PENDING_TASKS {
+        @Override
+        EventLoopPool newPool(NIOEventLoop basicLoop) {
+            return new LeastPendingTasksPool<NIOEventLoop>(basicLoop);
+        }
+    },
+    /**
+     * The less busy of two loops picked at random.
+     */
+    POWER_OF_TWO_CHOICES {
+        @Override
+        EventLoopPool newPool(NIOEventLoop basicLoop) {
+            return new PowerOfTwoChoicesPool<NIOEventLoop>(basicLoop);
+        }
+    };
+
+    abstract EventLoopPool newPool(NIOEventLoop basicLoop);
+}
@@ -0,0 +1,15 @@
+package kenny.net;
+
+/**
+ * Whether the loops and the connections count what they do, see
+ * {@link EventLoopMetrics} and {@link ConnectionMetrics}.  The counters are
+ * only touched by the thread of their loop, so they cost a few additions per
+ * event.  They can be removed altogether with {@code -Dkiwi.metrics=false},
+ * the JIT then drops the guarded code.
+ */
+final class Metrics {
+    static final boolean ENABLED = !"false".equals(System.getProperty("kiwi.metrics"));
+
+    private Metrics() {
+    }
+}
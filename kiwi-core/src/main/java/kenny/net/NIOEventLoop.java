@@ -1,5 +1,7 @@
 package kenny.net;
 
+import kenny.base.TaskQueue;
+import kenny.base.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,27 +18,71 @@ import java.util.Set;
  */
 public class NIOEventLoop extends EventLoop {
     private final static Logger LOG = LoggerFactory.getLogger(NIOEventLoop.class);
+    private final static long MILLISECONDS_TO_NANOSECONDS = 1000_000;
     private final Selector selector;
+    // Written by the loop thread, read by the pools choosing a loop
+    private volatile int registeredChannels;
+    private volatile long channelRegistrations;
+    // Only accessed by the loop thread
+    private long handledEvents;
+    // The kind of callback of each combination of ready operations
+    private final static String[] CALLBACK_TYPES = new String[32];
+
+    static {
+        for (int ops = 0; ops < CALLBACK_TYPES.length; ops++) {
+            StringBuilder type = new StringBuilder();
+            appendIf(type, ops, SelectionKey.OP_WRITE, "write");
+            appendIf(type, ops, SelectionKey.OP_READ, "read");
+            appendIf(type, ops, SelectionKey.OP_CONNECT, "connect");
+            appendIf(type, ops, SelectionKey.OP_ACCEPT, "accept");
+            CALLBACK_TYPES[ops] = type.length() == 0 ? "error" : type.toString();
+        }
+    }
+
+    private static void appendIf(StringBuilder type, int ops, int op, String name) {
+        if ((ops & op) != 0) {
+            type.append(type.length() == 0 ? "" : "/").append(name);
+        }
+    }
 
     public NIOEventLoop() throws IOException {
         selector = Selector.open();
     }
 
+    public NIOEventLoop(TaskQueue tasks) throws IOException {
+        super(tasks);
+        selector = Selector.open();
+    }
+
+    public NIOEventLoop(TaskQueue tasks, Timer timer) throws IOException {
+        super(tasks, timer);
+        selector = Selector.open();
+    }
+
     @Override
     protected void doWait() {
         assertInLoopThread();
         // If timer task exists, the doWait() should wait not later than the time timer to execute
         // If no timer exists, we consider it will wait forever until other threads call wakeUp()
-        // The nextTimeoutIntervalMs is in milli-seconds
-        long nextTimeoutIntervalMs = timer.getNextTimeoutIntervalMs();
+        // The nextTimeoutIntervalNs is in nano-seconds
+        long nextTimeoutIntervalNs = getNextTimeoutIntervalNs();
         // doWait(timeout), which in fact is implemented by selector.select(timeout), and it will
         // wake up, if other threads wake it up, it meets the timeout, one channel is selected, or
         // the current thread is interrupted.
         try {
-            if (nextTimeoutIntervalMs > 0) {
-                // The select will take the timeout in unit of milli-seconds
-                selector.select(nextTimeoutIntervalMs);
+            if (nextTimeoutIntervalNs >= MILLISECONDS_TO_NANOSECONDS && prepareToBlock()) {
+                // The select will take the timeout in unit of milli-seconds, so we round it down
+                // and wake up a bit early rather than late. The sub-millisecond remainder is
+                // handled by the selectNow() branch below.
+                try {
+                    selector.select(nextTimeoutIntervalNs / MILLISECONDS_TO_NANOSECONDS);
+                } finally {
+                    blockFinished();
+                }
             } else {
+                // Tasks are pending, or the next timer is due within a milli-second.
+                // Poll the selector without blocking, the loop keeps spinning until
+                // the timer expires.
                 selector.selectNow();
             }
         } catch (IOException e) {
@@ -45,6 +91,28 @@ public class NIOEventLoop extends EventLoop {
         }
         //wakeup and handle NIO events.
         handleNIOEvents();
+        registeredChannels = selector.keys().size();
+    }
+
+    /**
+     * Returns the number of channels registered with this loop, as of its
+     * last iteration.
+     */
+    @Override
+    public int getRegisteredChannels() {
+        return registeredChannels;
+    }
+
+    @Override
+    protected long getHandledEvents() {
+        return handledEvents;
+    }
+
+    /**
+     * Returns the number of channels ever registered with this loop.
+     */
+    public long getChannelRegistrations() {
+        return channelRegistrations;
     }
 
     @Override
@@ -52,39 +120,82 @@ public class NIOEventLoop extends EventLoop {
         selector.wakeup();
     }
 
+    /**
+     * Closes the channels still registered with this loop and the selector.
+     */
+    @Override
+    protected void cleanup() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close {}", key.channel(), e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the selector", e);
+        }
+    }
+
+    // With the callbacks timed, each event is timed from the end of the select
+    // to its dispatch, and its callbacks from their start to their end.
     private void handleNIOEvents() {
         Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        if (Metrics.ENABLED) {
+            handledEvents += selectedKeys.size();
+        }
+        boolean timed = isTimingCallbacks();
+        long selected = timed ? System.nanoTime() : 0;
+        long start = selected;
         Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
         while (keyIterator.hasNext()) {
             SelectionKey key = keyIterator.next();
             keyIterator.remove();
             EventHandler handler = (EventHandler) key.attachment();
-            if (!key.isValid()) {
-                // This method key.channel() will continue to return the channel even after the
-                // key is cancelled.
-                handler.handleError(key.channel());
+            if (!timed) {
+                dispatch(key, handler);
                 continue;
             }
-
-            // We need to check whether the key is still valid since:
-            // 1. The key could be cancelled by last operation
-            // 2. The process might not fail-fast or throw exceptions after the key is cancelled
-            if (key.isValid() && key.isWritable()) {
-                handler.handleWrite(key.channel());
+            String type = CALLBACK_TYPES[key.isValid() ? key.readyOps() & (CALLBACK_TYPES.length - 1) : 0];
+            recordWakeToDispatch(start - selected);
+            callbackStarted(start);
+            try {
+                dispatch(key, handler);
+            } finally {
+                long end = System.nanoTime();
+                callbackFinished(start, end, type, handler);
+                start = end;
             }
+        }
+    }
 
-            if (key.isValid() && key.isReadable()) {
-                handler.handleRead(key.channel());
-            }
+    private void dispatch(SelectionKey key, EventHandler handler) {
+        if (!key.isValid()) {
+            // This method key.channel() will continue to return the channel even after the
+            // key is cancelled.
+            handler.handleError(key.channel());
+            return;
+        }
 
-            if (key.isValid() && key.isConnectable()) {
-                handler.handleConnect(key.channel());
-            }
+        // We need to check whether the key is still valid since:
+        // 1. The key could be cancelled by last operation
+        // 2. The process might not fail-fast or throw exceptions after the key is cancelled
+        if (key.isValid() && key.isWritable()) {
+            handler.handleWrite(key.channel());
+        }
 
-            if (key.isValid() && key.isAcceptable()) {
-                handler.handleAccept(key.channel());
-            }
+        if (key.isValid() && key.isReadable()) {
+            handler.handleRead(key.channel());
+        }
+
+        if (key.isValid() && key.isConnectable()) {
+            handler.handleConnect(key.channel());
+        }
 
+        if (key.isValid() && key.isAcceptable()) {
+            handler.handleAccept(key.channel());
         }
     }
 
@@ -211,6 +322,7 @@ public class NIOEventLoop extends EventLoop {
         SelectionKey key = channel.keyFor(selector);
         if (key == null) {
             channel.register(selector, operation, callback);
+            channelRegistrations++;
         } else if (!key.isValid()) {
             throw new RuntimeException(
                     String.format("Unable to add %d in %s due to key is invalid", operation, channel));
@@ -0,0 +1,151 @@
+package kenny.net;
+
+import kenny.base.EventCallback;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the message callback of one connection on an executor instead of its
+ * loop, so that a slow callback, e.g. decompressing or checking signatures,
+ * only delays its own connection.
+ * <p>
+ * The loop copies what it reads and queues it, the callback gets the copies in
+ * the order they were read, one at a time, and what it leaves in a buffer is
+ * passed again in front of the next bytes, as with an inline callback.  It may
+ * answer with {@link Connection#send(ByteBuffer)}, which hands the bytes back
+ * to the loop.  Once more than {@code maxPendingBytes} are queued the
+ * connection stops reading, and reads again when the callback has caught up
+ * to half of it.  The bytes queued when the connection closes are dropped.
+ * <p>
+ * An instance serves a single connection.  The executor may be shared by any
+ * number of them, a pool of platform threads or, on JDK 21 and later, a
+ * virtual thread per task executor.
+ */
+@ThreadSafe
+public class OffloadedMessageCallback implements EventCallback.MessageCallback {
+    private final static Logger LOG = LoggerFactory.getLogger(OffloadedMessageCallback.class);
+    public final static long DEFAULT_MAX_PENDING_BYTES = 1024 * 1024;
+    // Messages run by a task before it gives its thread up to the other connections
+    private final static int MAX_MESSAGES_PER_TASK = 16;
+
+    private final EventCallback.MessageCallback messageCallback;
+    private final Executor executor;
+    private final long maxPendingBytes;
+    private final Queue<ByteBuffer> messages = new ConcurrentLinkedQueue<>();
+    // The task which runs the callback is scheduled while this is not 0
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final Runnable drain = this::drain;
+    // Set by the loop before the first message is queued
+    private volatile SelectableChannel channel;
+    private volatile Connection connection;
+    // Only accessed by the task running the callback
+    private ByteBuffer leftover;
+
+    public OffloadedMessageCallback(EventCallback.MessageCallback messageCallback, Executor executor,
+                                    long maxPendingBytes) {
+        checkArgument(maxPendingBytes > 0);
+        this.messageCallback = checkNotNull(messageCallback);
+        this.executor = checkNotNull(executor);
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Returns the number of bytes read but not passed to the callback yet.
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    @Override
+    public void onMessage(SelectableChannel channel, Connection connection, ByteBuffer buffer) {
+        connection.getLoop().assertInLoopThread();
+        this.channel = channel;
+        this.connection = connection;
+        ByteBuffer message = ByteBuffer.allocate(buffer.remaining());
+        message.put(buffer).flip();
+        messages.offer(message);
+        if (pendingBytes.addAndGet(message.remaining()) > maxPendingBytes && paused.compareAndSet(false, true)) {
+            connection.stopRead();
+            // The callback may have caught up before it could see the pause
+            resumeIfCaughtUp();
+        }
+        if (pendingMessages.getAndIncrement() == 0) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(drain);
+        } catch (RejectedExecutionException e) {
+            LOG.error("Executor rejected the messages of Connection {}", connection.getName(), e);
+            connection.forceClose();
+        }
+    }
+
+    private void drain() {
+        int ran = 0;
+        int remaining;
+        do {
+            ByteBuffer message = messages.poll();
+            long size = message.remaining();
+            if (connection.isConnected()) {
+                run(message);
+            }
+            pendingBytes.addAndGet(-size);
+            resumeIfCaughtUp();
+            ran++;
+            remaining = pendingMessages.decrementAndGet();
+        } while (remaining > 0 && ran < MAX_MESSAGES_PER_TASK);
+        if (remaining > 0) {
+            // Still counted as pending, so the loop has not scheduled another task
+            schedule();
+        }
+    }
+
+    private void run(ByteBuffer message) {
+        ByteBuffer buffer = message;
+        if (leftover != null) {
+            buffer = ByteBuffer.allocate(leftover.remaining() + message.remaining());
+            buffer.put(leftover).put(message).flip();
+            leftover = null;
+        }
+        try {
+            messageCallback.onMessage(channel, connection, buffer);
+        } catch (RuntimeException e) {
+            LOG.error("Message callback of Connection {} failed", connection.getName(), e);
+            return;
+        }
+        if (buffer.hasRemaining()) {
+            leftover = buffer;
+        }
+    }
+
+    private void resumeIfCaughtUp() {
+        if (pendingBytes.get() <= maxPendingBytes / 2 && paused.compareAndSet(true, false)) {
+            Connection connection = this.connection;
+            connection.getLoop().runInLoop(() -> {
+                // A connection closing gracefully reads until the end of stream
+                if (!connection.disConnected()) {
+                    connection.startRead();
+                }
+            });
+        }
+    }
+}
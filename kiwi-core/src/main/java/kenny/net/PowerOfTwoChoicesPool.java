@@ -0,0 +1,41 @@
+package kenny.net;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two loops at random and gives a new connection to the one which has
+ * been less busy recently, see {@link EventLoop#getBusyRatio()}.  Sampling two
+ * loops keeps the choice cheap and spreads connections arriving in a burst,
+ * which would all go to the least busy loop otherwise, since its ratio only
+ * changes once they are active.
+ */
+@NotThreadSafe
+public class PowerOfTwoChoicesPool<T extends EventLoop> extends AbstractEventLoopPool<T> {
+
+    public PowerOfTwoChoicesPool(EventLoop basicLoop) {
+        super(basicLoop);
+    }
+
+    @Override
+    protected int choose(List<T> loops) {
+        int size = loops.size();
+        if (size == 1) {
+            return 0;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // A second loop other than the first one
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+        T a = loops.get(first);
+        T b = loops.get(second);
+        double busyA = a.getBusyRatio();
+        double busyB = b.getBusyRatio();
+        if (busyA != busyB) {
+            return busyA < busyB ? first : second;
+        }
+        return a.getPendingTasks() <= b.getPendingTasks() ? first : second;
+    }
+}
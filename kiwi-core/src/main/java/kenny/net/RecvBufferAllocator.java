@@ -0,0 +1,33 @@
+package kenny.net;
+
+/**
+ * Decides the capacity of the buffer a {@link Connection} reads into.
+ * <p>
+ * A connection takes an input buffer from its
+ * {@link kenny.net.buffer.BufferFactory} only when the channel is readable, and
+ * gives it back once the message callback has consumed all the bytes, so an
+ * idle connection holds no input buffer at all.
+ */
+public interface RecvBufferAllocator {
+
+    /**
+     * Returns a new handle which keeps the read statistics of one connection.
+     */
+    Handle newHandle();
+
+    interface Handle {
+
+        /**
+         * Returns the capacity of the next input buffer.
+         */
+        int guess();
+
+        /**
+         * Records the number of bytes read on a readiness event, so that the
+         * next guess could follow the traffic of the connection.
+         *
+         * @param bytesRead the bytes read into the input buffer
+         */
+        void record(int bytesRead);
+    }
+}
@@ -0,0 +1,214 @@
+package kenny.net;
+
+import kenny.base.TimerId;
+import kenny.net.buffer.Buffer;
+import kenny.net.codec.CorrelatedFrame;
+import kenny.net.codec.CorruptedFrameException;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An asynchronous request/response client over a KiwiClient, whose requests
+ * and responses are {@link CorrelatedFrame}s.
+ * <p>
+ * {@link #send(ByteBuffer)} tags the request with a new id and returns a
+ * future, completed with the payload of the response which has the same id.
+ * Any number of requests may be in flight on the connection, up to
+ * {@link #setMaxPendingRequests(int)}, and the server may answer them in any
+ * order.  A request fails with a TimeoutException once its timeout expires,
+ * the timeout is a timer of the loop, and with an IOException if the
+ * connection closes first.  A response arriving after the timeout is dropped.
+ * <p>
+ * The futures are completed in the loop thread, so the stages depending on
+ * them should be quick or async.  Every request has a timer, the loop should
+ * have a {@link kenny.base.HashedWheelTimer}, whose cancellation does not
+ * depend on the number of timers, when many requests are in flight.
+ */
+@ThreadSafe
+public class RequestClient {
+    private final static Logger LOG = LoggerFactory.getLogger(RequestClient.class);
+    public final static int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    public final static long DEFAULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public final static int DEFAULT_MAX_PENDING_REQUESTS = 64 * 1024;
+
+    private final NIOEventLoop loop;
+    private final String name;
+    private final KiwiClient client;
+    private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+
+    // Only accessed by the loop thread
+    private final Map<Long, PendingRequest> pendingRequests = new HashMap<>();
+    private long nextId;
+    private Connection connection;
+
+    private volatile long defaultTimeoutNanos = DEFAULT_TIMEOUT_NANOS;
+    private volatile int maxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+
+    public RequestClient(NIOEventLoop loop, String name, String host, int port) throws IOException {
+        this(loop, name, host, port, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public RequestClient(NIOEventLoop loop, String name, String host, int port, int maxFrameLength)
+            throws IOException {
+        this.loop = checkNotNull(loop);
+        this.name = checkNotNull(name);
+        client = new KiwiClient(loop, name, host, port);
+        client.setFrameDecoder(() -> CorrelatedFrame.newDecoder(maxFrameLength),
+                (conn, frame) -> onResponse(frame));
+        client.setMessageEncoder(CorrelatedFrame.ENCODER);
+        client.setConnectFinishCallback(conn -> {
+            connection = conn;
+            connectFuture.complete(null);
+        });
+        client.setCloseCallback(channel -> onClose());
+    }
+
+    /**
+     * Connects to the server.
+     *
+     * @return a future completed once the connection is established
+     */
+    public CompletableFuture<Void> connect() {
+        client.connect();
+        return connectFuture;
+    }
+
+    /**
+     * Sends {@code request} with the default timeout.
+     *
+     * @see #send(ByteBuffer, long, TimeUnit)
+     */
+    public CompletableFuture<ByteBuffer> send(ByteBuffer request) {
+        return send(request, defaultTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends the readable bytes of {@code request}, which is left unchanged and
+     * may be reused once this method returns.
+     *
+     * @return a future completed with the payload of the response, or with a
+     * TimeoutException if none arrives within {@code timeout}
+     */
+    public CompletableFuture<ByteBuffer> send(ByteBuffer request, long timeout, TimeUnit unit) {
+        checkNotNull(request);
+        checkArgument(timeout > 0);
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        long timeoutNanos = unit.toNanos(timeout);
+        if (loop.isInLoopThread()) {
+            // Encoded at once, no need to copy
+            sendInLoop(request.duplicate(), response, timeoutNanos);
+        } else {
+            ByteBuffer copy = ByteBuffer.allocate(request.remaining());
+            copy.put(request.duplicate()).flip();
+            loop.runInLoop(() -> sendInLoop(copy, response, timeoutNanos));
+        }
+        return response;
+    }
+
+    private void sendInLoop(ByteBuffer request, CompletableFuture<ByteBuffer> response, long timeoutNanos) {
+        loop.assertInLoopThread();
+        if (connection == null || !connection.isConnected()) {
+            response.completeExceptionally(new IOException("RequestClient " + name + " is not connected"));
+            return;
+        }
+        if (pendingRequests.size() >= maxPendingRequests) {
+            response.completeExceptionally(new RejectedExecutionException(
+                    "RequestClient " + name + " has " + pendingRequests.size() + " pending requests"));
+            return;
+        }
+        long id = nextId++;
+        TimerId timer = loop.runAfter(() -> onTimeout(id), timeoutNanos, TimeUnit.NANOSECONDS);
+        pendingRequests.put(id, new PendingRequest(response, timer));
+        connection.write(new CorrelatedFrame(id, request));
+    }
+
+    private void onResponse(Buffer frame) {
+        if (frame.readableBytes() < CorrelatedFrame.ID_LENGTH) {
+            // The decoder closes the connection, which fails the pending requests
+            throw new CorruptedFrameException("Response of " + frame.readableBytes()
+                    + " bytes is shorter than its id");
+        }
+        long id = frame.readLong();
+        PendingRequest request = pendingRequests.remove(id);
+        if (request == null) {
+            LOG.debug("RequestClient {} drops the response to request {}, which timed out", name, id);
+            return;
+        }
+        loop.cancelTimer(request.timer);
+        // The frame is only valid during the callback
+        ByteBuffer payload = ByteBuffer.allocate(frame.readableBytes());
+        frame.readBytes(payload);
+        payload.flip();
+        request.response.complete(payload);
+    }
+
+    private void onTimeout(long id) {
+        PendingRequest request = pendingRequests.remove(id);
+        if (request != null) {
+            request.response.completeExceptionally(
+                    new TimeoutException("Request " + id + " of RequestClient " + name + " timed out"));
+        }
+    }
+
+    private void onClose() {
+        List<PendingRequest> requests = new ArrayList<>(pendingRequests.values());
+        pendingRequests.clear();
+        IOException closed = new IOException("Connection of RequestClient " + name + " closed");
+        for (PendingRequest request : requests) {
+            loop.cancelTimer(request.timer);
+            request.response.completeExceptionally(closed);
+        }
+        if (!connectFuture.isDone()) {
+            connectFuture.completeExceptionally(closed);
+        }
+    }
+
+    /**
+     * Waits for the responses in flight for {@code quietPeriod}, then closes
+     * the connection, the requests still pending fail.
+     *
+     * @see KiwiClient#shutdownGracefully(long, long, TimeUnit)
+     */
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        return client.shutdownGracefully(quietPeriod, timeout, unit);
+    }
+
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0);
+        this.defaultTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets how many requests may wait for their response, the requests sent
+     * beyond fail with a RejectedExecutionException.
+     */
+    public void setMaxPendingRequests(int maxPendingRequests) {
+        checkArgument(maxPendingRequests > 0);
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    private static final class PendingRequest {
+        private final CompletableFuture<ByteBuffer> response;
+        private final TimerId timer;
+
+        PendingRequest(CompletableFuture<ByteBuffer> response, TimerId timer) {
+            this.response = response;
+            this.timer = timer;
+        }
+    }
+}
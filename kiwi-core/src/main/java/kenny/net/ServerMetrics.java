@@ -0,0 +1,91 @@
+package kenny.net;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metrics of the I/O loops of a server and of its open connections, as
+ * taken by {@link KiwiServer#metrics()}.  The connections which have been
+ * closed are not counted any more.
+ */
+@Immutable
+public class ServerMetrics {
+    private final String name;
+    private final List<EventLoopMetrics> loops;
+    private final List<ConnectionMetrics> connections;
+
+    ServerMetrics(String name, List<EventLoopMetrics> loops, List<ConnectionMetrics> connections) {
+        this.name = name;
+        this.loops = Collections.unmodifiableList(loops);
+        this.connections = Collections.unmodifiableList(connections);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<EventLoopMetrics> getLoops() {
+        return loops;
+    }
+
+    public List<ConnectionMetrics> getConnections() {
+        return connections;
+    }
+
+    public long getBytesRead() {
+        long sum = 0;
+        for (ConnectionMetrics connection : connections) {
+            sum += connection.getBytesRead();
+        }
+        return sum;
+    }
+
+    public long getBytesWritten() {
+        long sum = 0;
+        for (ConnectionMetrics connection : connections) {
+            sum += connection.getBytesWritten();
+        }
+        return sum;
+    }
+
+    public long getMessagesRead() {
+        long sum = 0;
+        for (ConnectionMetrics connection : connections) {
+            sum += connection.getMessagesRead();
+        }
+        return sum;
+    }
+
+    public long getMessagesWritten() {
+        long sum = 0;
+        for (ConnectionMetrics connection : connections) {
+            sum += connection.getMessagesWritten();
+        }
+        return sum;
+    }
+
+    public long getPendingBytes() {
+        long sum = 0;
+        for (ConnectionMetrics connection : connections) {
+            sum += connection.getPendingBytes();
+        }
+        return sum;
+    }
+
+    /**
+     * Returns a summary of the connections followed by one line per loop.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format(
+                "%s: %d connections, read %d bytes in %d messages, wrote %d bytes in %d messages, %d bytes pending",
+                name, connections.size(), getBytesRead(), getMessagesRead(), getBytesWritten(),
+                getMessagesWritten(), getPendingBytes()));
+        for (EventLoopMetrics loop : loops) {
+            sb.append(System.lineSeparator()).append("  ").append(loop);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package kenny.net;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the stack of the loops whose running callback takes longer than
+ * their slow callback threshold, see EventLoop#setSlowCallbackThreshold.
+ * <p>
+ * One daemon thread serves all the loops, started with the first loop
+ * watched.  It checks the loops every half of the smallest threshold, so a
+ * stack is sampled between one and one and a half thresholds into the
+ * callback, while the loop thread is still in it.
+ */
+@ThreadSafe
+final class SlowCallbackWatchdog {
+    private static final long MIN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long IDLE_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Set<EventLoop> LOOPS = ConcurrentHashMap.newKeySet();
+    // Guarded by the class
+    private static Thread thread;
+
+    private SlowCallbackWatchdog() {
+    }
+
+    static synchronized void watch(EventLoop loop) {
+        LOOPS.add(loop);
+        if (thread == null) {
+            thread = new Thread(SlowCallbackWatchdog::run, "kiwi-slow-callback-watchdog");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static void unwatch(EventLoop loop) {
+        LOOPS.remove(loop);
+    }
+
+    private static void run() {
+        while (true) {
+            long period = Long.MAX_VALUE;
+            long now = System.nanoTime();
+            for (EventLoop loop : LOOPS) {
+                loop.sampleIfSlow(now);
+                long threshold = loop.getSlowCallbackThresholdNanos();
+                if (threshold > 0) {
+                    period = Math.min(period, threshold / 2);
+                }
+            }
+            LockSupport.parkNanos(period == Long.MAX_VALUE ? IDLE_PERIOD_NANOS : Math.max(MIN_PERIOD_NANOS, period));
+        }
+    }
+}
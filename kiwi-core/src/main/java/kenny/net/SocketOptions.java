@@ -0,0 +1,100 @@
+package kenny.net;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Options applied to every accepted socket.
+ * <p>
+ * A size or linger of {@code -1} leaves the option at the default of the platform.
+ */
+@NotThreadSafe
+public class SocketOptions {
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = false;
+    private int sendBufferSize = -1;
+    private int receiveBufferSize = -1;
+    private int lingerSeconds = -1;
+
+    public SocketOptions() {
+    }
+
+    public SocketOptions(SocketOptions other) {
+        this.tcpNoDelay = other.tcpNoDelay;
+        this.keepAlive = other.keepAlive;
+        this.sendBufferSize = other.sendBufferSize;
+        this.receiveBufferSize = other.receiveBufferSize;
+        this.lingerSeconds = other.lingerSeconds;
+    }
+
+    /**
+     * Configures {@code channel} as non-blocking and applies the options to it.
+     */
+    public void apply(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if (keepAlive) {
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        }
+        if (sendBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        if (lingerSeconds >= 0) {
+            channel.setOption(StandardSocketOptions.SO_LINGER, lingerSeconds);
+        }
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        checkArgument(sendBufferSize > 0 || sendBufferSize == -1);
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        checkArgument(receiveBufferSize > 0 || receiveBufferSize == -1);
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getLingerSeconds() {
+        return lingerSeconds;
+    }
+
+    /**
+     * Sets SO_LINGER, {@code 0} resets the connection on close.
+     */
+    public void setLingerSeconds(int lingerSeconds) {
+        checkArgument(lingerSeconds >= -1);
+        this.lingerSeconds = lingerSeconds;
+    }
+}
@@ -0,0 +1,74 @@
+package kenny.net;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates virtual threads when the runtime has them, JDK 21 and later.
+ * <p>
+ * Kiwi is compiled for Java 8, so the builder of virtual threads is looked up
+ * by reflection once, instead of shipping a multi-release jar.
+ */
+public final class VirtualThreads {
+    // Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory()
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            // A preview before JDK 21, which throws unless enabled
+            ofVirtual.invoke(null);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException e) {
+            // Before JDK 21
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns a factory of virtual threads named {@code <prefix>-<n>}.
+     *
+     * @throws UnsupportedOperationException before JDK 21
+     */
+    public static ThreadFactory newFactory(String prefix) {
+        checkNotNull(prefix);
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later");
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix + "-", 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Can not create virtual threads", e);
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads if the runtime has them, otherwise
+     * of daemon platform threads, both named {@code <prefix>-<n>}.
+     */
+    public static ThreadFactory newFactoryOrPlatform(String prefix) {
+        return isSupported() ? newFactory(prefix) : new IoThreadFactory(prefix);
+    }
+}
@@ -38,6 +38,39 @@ public abstract class AbstractBuffer implements Buffer {
         return false;
     }
 
+    // Buffers which are not pooled are left to the garbage collector,
+    // the pooled ones override the reference counting methods.
+    @Override
+    public int refCnt() {
+        return 1;
+    }
+
+    @Override
+    public Buffer retain() {
+        return this;
+    }
+
+    @Override
+    public Buffer retain(int increment) {
+        if (increment <= 0) {
+            throw new IllegalArgumentException("increment: " + increment);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return false;
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        if (decrement <= 0) {
+            throw new IllegalArgumentException("decrement: " + decrement);
+        }
+        return false;
+    }
+
     @Override
     public int readerIndex() {
         return readerIndex;
@@ -601,42 +634,95 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public int indexOf(int fromIndex, int toIndex, byte value) {
-        return 0;
+        if (fromIndex <= toIndex) {
+            fromIndex = Math.max(fromIndex, 0);
+            toIndex = Math.min(toIndex, capacity());
+            for (int i = fromIndex; i < toIndex; i ++) {
+                if (getByte(i) == value) {
+                    return i;
+                }
+            }
+        } else {
+            fromIndex = Math.min(fromIndex, capacity());
+            toIndex = Math.max(toIndex, 0);
+            for (int i = fromIndex - 1; i >= toIndex; i --) {
+                if (getByte(i) == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
     }
 
     @Override
     public int indexOf(int fromIndex, int toIndex, BufferIndexFinder indexFinder) {
-        return 0;
+        if (fromIndex <= toIndex) {
+            fromIndex = Math.max(fromIndex, 0);
+            toIndex = Math.min(toIndex, capacity());
+            for (int i = fromIndex; i < toIndex; i ++) {
+                if (indexFinder.find(this, i)) {
+                    return i;
+                }
+            }
+        } else {
+            fromIndex = Math.min(fromIndex, capacity());
+            toIndex = Math.max(toIndex, 0);
+            for (int i = fromIndex - 1; i >= toIndex; i --) {
+                if (indexFinder.find(this, i)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
     }
 
     @Override
     public int bytesBefore(byte value) {
-        return 0;
+        return bytesBefore(readerIndex(), readableBytes(), value);
     }
 
     @Override
     public int bytesBefore(BufferIndexFinder indexFinder) {
-        return 0;
+        return bytesBefore(readerIndex(), readableBytes(), indexFinder);
     }
 
     @Override
     public int bytesBefore(int length, byte value) {
-        return 0;
+        checkReadableBytes(length);
+        return bytesBefore(readerIndex(), length, value);
     }
 
     @Override
     public int bytesBefore(int length, BufferIndexFinder indexFinder) {
-        return 0;
+        checkReadableBytes(length);
+        return bytesBefore(readerIndex(), length, indexFinder);
     }
 
     @Override
     public int bytesBefore(int index, int length, byte value) {
-        return 0;
+        checkBounds(index, length);
+        int endIndex = indexOf(index, index + length, value);
+        if (endIndex < 0) {
+            return -1;
+        }
+        return endIndex - index;
     }
 
     @Override
     public int bytesBefore(int index, int length, BufferIndexFinder indexFinder) {
-        return 0;
+        checkBounds(index, length);
+        int endIndex = indexOf(index, index + length, indexFinder);
+        if (endIndex < 0) {
+            return -1;
+        }
+        return endIndex - index;
+    }
+
+    private void checkBounds(int index, int length) {
+        if (index < 0 || length < 0 || index > capacity() - length) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index
+                    + ", length: " + length + ", capacity: " + capacity());
+        }
     }
 
     @Override
@@ -706,7 +792,10 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public String toString(int index, int length, Charset charset) {
-        return "";
+        if (length == 0) {
+            return "";
+        }
+        return charset.decode(toByteBuffer(index, length)).toString();
     }
 
     @Override
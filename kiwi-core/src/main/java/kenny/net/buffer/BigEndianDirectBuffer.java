@@ -0,0 +1,100 @@
+package kenny.net.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A big-endian {@link DirectBuffer}.
+ */
+public class BigEndianDirectBuffer extends DirectBuffer {
+
+    /**
+     * Creates a new big-endian direct buffer with a newly allocated direct memory.
+     *
+     * @param length the capacity of the new buffer
+     */
+    public BigEndianDirectBuffer(int length) {
+        super(length);
+    }
+
+    /**
+     * Creates a new big-endian direct buffer which wraps the remaining bytes
+     * of an existing direct ByteBuffer.
+     *
+     * @param buffer the direct ByteBuffer to wrap
+     */
+    public BigEndianDirectBuffer(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    private BigEndianDirectBuffer(ByteBuffer buffer, int readerIndex, int writerIndex) {
+        super(buffer, readerIndex, writerIndex);
+    }
+
+    public BufferFactory factory() {
+        return DirectBufferFactory.getInstance(ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteOrder order() {
+        return ByteOrder.BIG_ENDIAN;
+    }
+
+    public short getShort(int index) {
+        checkIndex(index, 2);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getShort(address + index, true);
+        }
+        return buffer.getShort(index);
+    }
+
+    public int getInt(int index) {
+        checkIndex(index, 4);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getInt(address + index, true);
+        }
+        return buffer.getInt(index);
+    }
+
+    public long getLong(int index) {
+        checkIndex(index, 8);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getLong(address + index, true);
+        }
+        return buffer.getLong(index);
+    }
+
+    public void setShort(int index, int value) {
+        checkIndex(index, 2);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putShort(address + index, (short) value, true);
+        } else {
+            buffer.putShort(index, (short) value);
+        }
+    }
+
+    public void setInt(int index, int value) {
+        checkIndex(index, 4);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putInt(address + index, value, true);
+        } else {
+            buffer.putInt(index, value);
+        }
+    }
+
+    public void setLong(int index, long value) {
+        checkIndex(index, 8);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putLong(address + index, value, true);
+        } else {
+            buffer.putLong(index, value);
+        }
+    }
+
+    public Buffer duplicate() {
+        return new BigEndianDirectBuffer(buffer, readerIndex(), writerIndex());
+    }
+
+    public Buffer copy(int index, int length) {
+        return new BigEndianDirectBuffer(copyOf(index, length), 0, length);
+    }
+}
@@ -38,6 +38,57 @@ public interface Buffer extends Comparable<Buffer> {
      */
     boolean isDirect();
 
+    /**
+     * Returns the reference count of this buffer.  A buffer which is not
+     * pooled is reclaimed by the garbage collector, and its reference count
+     * is always {@code 1}.
+     */
+    int refCnt();
+
+    /**
+     * Increases the reference count of this buffer by {@code 1}.
+     *
+     * @return this buffer
+     * @throws IllegalStateException if this buffer has already been released
+     */
+    Buffer retain();
+
+    /**
+     * Increases the reference count of this buffer by the specified
+     * {@code increment}.
+     *
+     * @return this buffer
+     * @throws IllegalStateException if this buffer has already been released
+     */
+    Buffer retain(int increment);
+
+    /**
+     * Decreases the reference count of this buffer by {@code 1} and returns
+     * its memory to the pool when the count reaches {@code 0}.  The buffer
+     * must not be accessed after that.  A buffer which is not pooled ignores
+     * this call.
+     * <p>
+     * A buffer derived by {@link #slice()}, {@link #duplicate()} or
+     * {@link #readSlice(int)} shares the reference count of its parent.
+     *
+     * @return {@code true} if and only if the reference count became
+     *         {@code 0} and the memory has been returned
+     * @throws IllegalStateException if this buffer has already been released
+     */
+    boolean release();
+
+    /**
+     * Decreases the reference count of this buffer by the specified
+     * {@code decrement} and returns its memory to the pool when the count
+     * reaches {@code 0}.
+     *
+     * @return {@code true} if and only if the reference count became
+     *         {@code 0} and the memory has been returned
+     * @throws IllegalStateException if {@code decrement} is greater than
+     *         the reference count
+     */
+    boolean release(int decrement);
+
     /**
      * Returns the {@code readerIndex} of this buffer.
      */
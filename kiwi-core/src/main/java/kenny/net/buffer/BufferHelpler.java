@@ -52,6 +52,36 @@ public class BufferHelpler {
     }
 
 
+    /**
+     * Creates a new big-endian direct buffer with the specified
+     * {@code capacity}.  The new buffer's {@code readerIndex} and
+     * {@code writerIndex} are {@code 0}.
+     */
+    public static Buffer directBuffer(int capacity) {
+        return directBuffer(BIG_ENDIAN, capacity);
+    }
+
+    /**
+     * Creates a new direct buffer with the specified {@code endianness}
+     * and {@code capacity}.  The new buffer's {@code readerIndex} and
+     * {@code writerIndex} are {@code 0}.
+     */
+    public static Buffer directBuffer(ByteOrder endianness, int capacity) {
+        if (endianness == BIG_ENDIAN) {
+            if (capacity == 0) {
+                return EMPTY_BUFFER;
+            }
+            return new BigEndianDirectBuffer(capacity);
+        } else if (endianness == LITTLE_ENDIAN) {
+            if (capacity == 0) {
+                return EMPTY_BUFFER;
+            }
+            return new LittleEndianDirectBuffer(capacity);
+        } else {
+            throw new NullPointerException("endianness");
+        }
+    }
+
     /**
      * Creates a new big-endian dynamic buffer whose estimated data length is
      * {@code 256} bytes.  The new buffer's {@code readerIndex} and
@@ -192,6 +222,12 @@ public class BufferHelpler {
         if (buffer.hasArray()) {
             return wrappedBuffer(
                     buffer.order(), buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else if (buffer.isDirect() && !buffer.isReadOnly()) {
+            if (buffer.order() == BIG_ENDIAN) {
+                return new BigEndianDirectBuffer(buffer);
+            } else {
+                return new LittleEndianDirectBuffer(buffer);
+            }
         } else {
             //TODO return new ByteBufferBackedBuffer(buffer);
             return null;
@@ -0,0 +1,79 @@
+package kenny.net.buffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Detects pooled buffers which are garbage collected without being released.
+ * Only one of every {@code samplingInterval} allocations is tracked, since
+ * recording the allocation stack trace is expensive.
+ */
+final class BufferLeakDetector {
+    private final static Logger LOG = LoggerFactory.getLogger(BufferLeakDetector.class);
+
+    private final int samplingInterval;
+    private final ReferenceQueue<Buffer> refQueue = new ReferenceQueue<>();
+    // Keeps the Leak objects reachable until they are closed or reported
+    private final Set<Leak> live = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param samplingInterval track one of this many allocations,
+     *                         {@code 0} disables the detection
+     */
+    BufferLeakDetector(int samplingInterval) {
+        if (samplingInterval < 0) {
+            throw new IllegalArgumentException("samplingInterval: " + samplingInterval);
+        }
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Starts tracking the specified buffer if it is sampled.
+     *
+     * @param capacity the capacity requested by the allocation
+     * @return the {@link Leak} which must be closed when the buffer is released,
+     *         or {@code null} if the buffer is not tracked
+     */
+    Leak track(int capacity, Buffer buffer) {
+        if (samplingInterval == 0) {
+            return null;
+        }
+        reportLeaks();
+        if (samplingInterval > 1 && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            return null;
+        }
+        Leak leak = new Leak(capacity, buffer);
+        live.add(leak);
+        return leak;
+    }
+
+    private void reportLeaks() {
+        Leak leak;
+        while ((leak = (Leak) refQueue.poll()) != null) {
+            if (live.remove(leak)) {
+                LOG.error("LEAK: a pooled buffer was garbage collected before release() was called, "
+                        + "its memory is lost to the pool.", leak.allocation);
+            }
+        }
+    }
+
+    final class Leak extends WeakReference<Buffer> {
+        private final Throwable allocation;
+
+        private Leak(int capacity, Buffer buffer) {
+            super(buffer, refQueue);
+            allocation = new Throwable("Buffer of capacity " + capacity + " allocated here");
+        }
+
+        void close() {
+            live.remove(this);
+            clear();
+        }
+    }
+}
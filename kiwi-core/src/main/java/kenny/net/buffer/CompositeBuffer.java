@@ -127,6 +127,35 @@ public class CompositeBuffer extends AbstractBuffer {
         return components.length;
     }
 
+    // The composite buffer owns one reference of each component,
+    // so the reference counting is applied to all of them.
+    public int refCnt() {
+        return components[0].refCnt();
+    }
+
+    public Buffer retain() {
+        return retain(1);
+    }
+
+    public Buffer retain(int increment) {
+        for (Buffer c : components) {
+            c.retain(increment);
+        }
+        return this;
+    }
+
+    public boolean release() {
+        return release(1);
+    }
+
+    public boolean release(int decrement) {
+        boolean released = false;
+        for (Buffer c : components) {
+            released |= c.release(decrement);
+        }
+        return released;
+    }
+
     public byte getByte(int index) {
         int componentId = componentId(index);
         return components[componentId].getByte(index - indices[componentId]);
@@ -611,6 +640,61 @@ public class CompositeBuffer extends AbstractBuffer {
 
 
 
+    @Override
+    public int indexOf(int fromIndex, int toIndex, byte value) {
+        return indexOf(fromIndex, toIndex, value, null);
+    }
+
+    /**
+     * Searches each component with its own {@link Buffer#indexOf(int, int, BufferIndexFinder)}
+     * instead of looking the component up for every byte, so {@code indexFinder}
+     * is given the component and an index within it.
+     */
+    @Override
+    public int indexOf(int fromIndex, int toIndex, BufferIndexFinder indexFinder) {
+        return indexOf(fromIndex, toIndex, (byte) 0, indexFinder);
+    }
+
+    // Searches for indexFinder, or for value if indexFinder is null
+    private int indexOf(int fromIndex, int toIndex, byte value, BufferIndexFinder indexFinder) {
+        if (fromIndex <= toIndex) {
+            fromIndex = Math.max(fromIndex, 0);
+            toIndex = Math.min(toIndex, capacity());
+            if (fromIndex >= toIndex) {
+                return -1;
+            }
+            for (int i = componentId(fromIndex); fromIndex < toIndex; i ++) {
+                int adjustment = indices[i];
+                int endIndex = Math.min(toIndex, indices[i + 1]);
+                int index = indexFinder == null
+                        ? components[i].indexOf(fromIndex - adjustment, endIndex - adjustment, value)
+                        : components[i].indexOf(fromIndex - adjustment, endIndex - adjustment, indexFinder);
+                if (index >= 0) {
+                    return index + adjustment;
+                }
+                fromIndex = endIndex;
+            }
+        } else {
+            fromIndex = Math.min(fromIndex, capacity());
+            toIndex = Math.max(toIndex, 0);
+            if (fromIndex <= toIndex) {
+                return -1;
+            }
+            for (int i = componentId(fromIndex - 1); fromIndex > toIndex; i --) {
+                int adjustment = indices[i];
+                int startIndex = Math.max(toIndex, adjustment);
+                int index = indexFinder == null
+                        ? components[i].indexOf(fromIndex - adjustment, startIndex - adjustment, value)
+                        : components[i].indexOf(fromIndex - adjustment, startIndex - adjustment, indexFinder);
+                if (index >= 0) {
+                    return index + adjustment;
+                }
+                fromIndex = startIndex;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Setup this ChannelBuffer from the list
      */
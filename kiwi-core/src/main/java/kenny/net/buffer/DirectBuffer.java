@@ -0,0 +1,303 @@
+package kenny.net.buffer;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * A buffer backed by off-heap memory of a direct {@link ByteBuffer}.
+ * <p>
+ * Socket I/O on it hands the direct memory to the channel as it is, while the
+ * JDK copies the content of a heap buffer to a temporary direct buffer on every
+ * read and write.  The primitives are accessed by address with one bounds check
+ * per field when {@link DirectMemory} is available.
+ */
+public abstract class DirectBuffer extends AbstractBuffer {
+
+    /**
+     * The underlying direct ByteBuffer that this buffer is wrapping.
+     * Its position and limit are never changed, and its byte order is
+     * the order of this buffer.
+     */
+    protected final ByteBuffer buffer;
+
+    /**
+     * The address of the first byte of {@link #buffer}, {@code 0} if
+     * {@link DirectMemory} is not available.
+     */
+    protected final long address;
+
+    private final int capacity;
+
+    // Reused for the I/O operations, only its position and limit are changed
+    private ByteBuffer tmpNioBuffer;
+
+    /**
+     * Creates a new direct buffer with a newly allocated direct ByteBuffer.
+     *
+     * @param length the capacity of the new buffer
+     */
+    protected DirectBuffer(int length) {
+        this(ByteBuffer.allocateDirect(length), 0, 0);
+    }
+
+    /**
+     * Creates a new direct buffer which wraps the remaining bytes of an existing
+     * direct ByteBuffer.  A modification on the content of either one is visible
+     * to the other.
+     *
+     * @param buffer the direct ByteBuffer to wrap
+     */
+    protected DirectBuffer(ByteBuffer buffer) {
+        this(buffer.slice(), 0, buffer.remaining());
+    }
+
+    /**
+     * Creates a new direct buffer sharing the whole content of {@code buffer}.
+     *
+     * @param buffer       the direct ByteBuffer whose whole capacity is used
+     * @param readerIndex  the initial reader index of this buffer
+     * @param writerIndex  the initial writer index of this buffer
+     */
+    protected DirectBuffer(ByteBuffer buffer, int readerIndex, int writerIndex) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+        if (buffer.isReadOnly()) {
+            throw new IllegalArgumentException("buffer is read-only");
+        }
+        this.buffer = buffer.duplicate().order(order());
+        this.buffer.clear();
+        address = DirectMemory.isAvailable() ? DirectMemory.address(this.buffer) : 0;
+        capacity = this.buffer.capacity();
+        setIndex(readerIndex, writerIndex);
+    }
+
+    public boolean isDirect() {
+        return true;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean hasArray() {
+        return false;
+    }
+
+    public byte[] array() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int arrayOffset() {
+        throw new UnsupportedOperationException();
+    }
+
+    public byte getByte(int index) {
+        checkIndex(index, 1);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getByte(address + index);
+        }
+        return buffer.get(index);
+    }
+
+    public void getBytes(int index, Buffer dst, int dstIndex, int length) {
+        if (dst instanceof DirectBuffer && DirectMemory.isAvailable()) {
+            DirectBuffer directDst = (DirectBuffer) dst;
+            checkIndex(index, length);
+            directDst.checkIndex(dstIndex, length);
+            DirectMemory.copyMemory(address + index, directDst.address + dstIndex, length);
+        } else if (dst.hasArray()) {
+            getBytes(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else {
+            dst.setBytes(dstIndex, nioBuffer(index, length, buffer.duplicate()));
+        }
+    }
+
+    public void getBytes(int index, byte[] dst, int dstIndex, int length) {
+        checkIndex(index, length);
+        if (dstIndex < 0 || dstIndex > dst.length - length) {
+            throw new IndexOutOfBoundsException("dstIndex: " + dstIndex + ", length: " + length);
+        }
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.copyMemory(address + index, dst, dstIndex, length);
+        } else {
+            nioBuffer(index, length, internalNioBuffer()).get(dst, dstIndex, length);
+        }
+    }
+
+    public void getBytes(int index, ByteBuffer dst) {
+        int bytesToCopy = Math.min(capacity() - index, dst.remaining());
+        dst.put(nioBuffer(index, bytesToCopy, internalNioBuffer()));
+    }
+
+    public void getBytes(int index, OutputStream out, int length)
+            throws IOException {
+        if (length == 0) {
+            return;
+        }
+        byte[] tmp = new byte[length];
+        getBytes(index, tmp, 0, length);
+        out.write(tmp);
+    }
+
+    public int getBytes(int index, GatheringByteChannel out, int length)
+            throws IOException {
+        return out.write(nioBuffer(index, length, internalNioBuffer()));
+    }
+
+    public void setByte(int index, int value) {
+        checkIndex(index, 1);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putByte(address + index, (byte) value);
+        } else {
+            buffer.put(index, (byte) value);
+        }
+    }
+
+    public void setBytes(int index, Buffer src, int srcIndex, int length) {
+        if (src instanceof DirectBuffer && DirectMemory.isAvailable()) {
+            DirectBuffer directSrc = (DirectBuffer) src;
+            checkIndex(index, length);
+            directSrc.checkIndex(srcIndex, length);
+            DirectMemory.copyMemory(directSrc.address + srcIndex, address + index, length);
+        } else if (src.hasArray()) {
+            setBytes(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else {
+            src.getBytes(srcIndex, nioBuffer(index, length, buffer.duplicate()));
+        }
+    }
+
+    public void setBytes(int index, byte[] src, int srcIndex, int length) {
+        checkIndex(index, length);
+        if (srcIndex < 0 || srcIndex > src.length - length) {
+            throw new IndexOutOfBoundsException("srcIndex: " + srcIndex + ", length: " + length);
+        }
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.copyMemory(src, srcIndex, address + index, length);
+        } else {
+            nioBuffer(index, length, internalNioBuffer()).put(src, srcIndex, length);
+        }
+    }
+
+    public void setBytes(int index, ByteBuffer src) {
+        nioBuffer(index, src.remaining(), internalNioBuffer()).put(src);
+    }
+
+    public int setBytes(int index, InputStream in, int length) throws IOException {
+        checkIndex(index, length);
+        byte[] tmp = new byte[length];
+        int readBytes = 0;
+        do {
+            int localReadBytes = in.read(tmp, readBytes, length - readBytes);
+            if (localReadBytes < 0) {
+                if (readBytes == 0) {
+                    return -1;
+                } else {
+                    break;
+                }
+            }
+            readBytes += localReadBytes;
+        } while (readBytes < length);
+
+        setBytes(index, tmp, 0, readBytes);
+        return readBytes;
+    }
+
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        ByteBuffer buf = nioBuffer(index, length, internalNioBuffer());
+        int readBytes = 0;
+
+        do {
+            int localReadBytes;
+            try {
+                localReadBytes = in.read(buf);
+            } catch (ClosedChannelException e) {
+                localReadBytes = -1;
+            }
+            if (localReadBytes < 0) {
+                if (readBytes == 0) {
+                    return -1;
+                } else {
+                    break;
+                }
+            }
+            if (localReadBytes == 0) {
+                break;
+            }
+            readBytes += localReadBytes;
+        } while (readBytes < length);
+
+        return readBytes;
+    }
+
+    public Buffer slice(int index, int length) {
+        if (index == 0) {
+            if (length == 0) {
+                return BufferHelpler.EMPTY_BUFFER;
+            }
+            if (length == capacity) {
+                Buffer slice = duplicate();
+                slice.setIndex(0, length);
+                return slice;
+            } else {
+                return new TruncatedBuffer(this, length);
+            }
+        } else {
+            if (length == 0) {
+                return BufferHelpler.EMPTY_BUFFER;
+            }
+            return new SlicedBuffer(this, index, length);
+        }
+    }
+
+    public ByteBuffer toByteBuffer(int index, int length) {
+        return nioBuffer(index, length, buffer.duplicate()).slice().order(order());
+    }
+
+    /**
+     * Returns a new direct ByteBuffer holding a copy of the specified region.
+     */
+    protected ByteBuffer copyOf(int index, int length) {
+        checkIndex(index, length);
+        ByteBuffer copy = ByteBuffer.allocateDirect(length);
+        copy.put(nioBuffer(index, length, buffer.duplicate()));
+        copy.clear();
+        return copy;
+    }
+
+    /**
+     * Throws an {@link IndexOutOfBoundsException} unless the region of
+     * {@code fieldLength} bytes at {@code index} is within this buffer.
+     */
+    protected final void checkIndex(int index, int fieldLength) {
+        if (index < 0 || fieldLength < 0 || index > capacity - fieldLength) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index
+                    + ", length: " + fieldLength + ", capacity: " + capacity);
+        }
+    }
+
+    private ByteBuffer internalNioBuffer() {
+        ByteBuffer tmp = tmpNioBuffer;
+        if (tmp == null) {
+            tmpNioBuffer = tmp = buffer.duplicate();
+        }
+        return tmp;
+    }
+
+    private ByteBuffer nioBuffer(int index, int length, ByteBuffer buf) {
+        checkIndex(index, length);
+        buf.clear();
+        buf.position(index);
+        buf.limit(index + length);
+        return buf;
+    }
+}
@@ -0,0 +1,83 @@
+package kenny.net.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link BufferFactory} which creates direct buffers.  They are not pooled,
+ * use {@link PooledBufferFactory} for the buffers which are allocated and
+ * released frequently.
+ */
+public class DirectBufferFactory extends AbstractBufferFactory {
+
+    private static final DirectBufferFactory INSTANCE_BE =
+            new DirectBufferFactory(ByteOrder.BIG_ENDIAN);
+
+    private static final DirectBufferFactory INSTANCE_LE =
+            new DirectBufferFactory(ByteOrder.LITTLE_ENDIAN);
+
+    public static DirectBufferFactory getInstance() {
+        return INSTANCE_BE;
+    }
+
+    public static DirectBufferFactory getInstance(ByteOrder endianness) {
+        if (endianness == ByteOrder.BIG_ENDIAN) {
+            return INSTANCE_BE;
+        } else if (endianness == ByteOrder.LITTLE_ENDIAN) {
+            return INSTANCE_LE;
+        } else if (endianness == null) {
+            throw new NullPointerException("endianness");
+        } else {
+            throw new IllegalStateException("Should not reach here");
+        }
+    }
+
+
+    /**
+     * Creates a new factory whose default {@link ByteOrder} is
+     * {@link ByteOrder#BIG_ENDIAN}.
+     */
+    public DirectBufferFactory() {
+    }
+
+    /**
+     * Creates a new factory with the specified default {@link ByteOrder}.
+     *
+     * @param defaultOrder the default {@link ByteOrder} of this factory
+     */
+    public DirectBufferFactory(ByteOrder defaultOrder) {
+        super(defaultOrder);
+    }
+
+
+    @Override
+    public Buffer getBuffer(ByteOrder endianness, int capacity) {
+        return BufferHelpler.directBuffer(endianness, capacity);
+    }
+
+    @Override
+    public Buffer getBuffer(ByteOrder endianness, byte[] array, int offset, int length) {
+        if (array == null) {
+            throw new NullPointerException("array");
+        }
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        Buffer buf = getBuffer(endianness, length);
+        buf.writeBytes(array, offset, length);
+        return buf;
+    }
+
+    @Override
+    public Buffer getBuffer(ByteBuffer nioBuffer) {
+        if (!nioBuffer.isReadOnly() && nioBuffer.isDirect()) {
+            return BufferHelpler.wrappedBuffer(nioBuffer);
+        }
+
+        Buffer buf = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+        int pos = nioBuffer.position();
+        buf.writeBytes(nioBuffer);
+        nioBuffer.position(pos);
+        return buf;
+    }
+}
@@ -0,0 +1,225 @@
+package kenny.net.buffer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Raw access to direct memory by address.
+ * <p>
+ * The direct buffers use it to read and write primitives without the bounds
+ * checks of {@link ByteBuffer}, since they check the whole range of a field
+ * once by themselves.  It is only {@linkplain #isAvailable() available} if
+ * {@code sun.misc.Unsafe} can be loaded and the platform allows unaligned
+ * access, otherwise the buffers fall back to the absolute methods of ByteBuffer.
+ * <p>
+ * Unsafe is looked up by reflection, so that the build does not depend on the
+ * internal API, and its methods are called through method handles bound to
+ * it.  The handles are constants, the JIT compiles the calls as direct ones.
+ */
+final class DirectMemory {
+    private static final MethodHandle GET_LONG_OBJECT;
+    private static final MethodHandle GET_BYTE;
+    private static final MethodHandle GET_SHORT;
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle PUT_BYTE;
+    private static final MethodHandle PUT_SHORT;
+    private static final MethodHandle PUT_INT;
+    private static final MethodHandle PUT_LONG;
+    private static final MethodHandle COPY_MEMORY;
+    private static final long ADDRESS_FIELD_OFFSET;
+    private static final long BYTE_ARRAY_BASE_OFFSET;
+    private static final boolean AVAILABLE;
+    static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    // Copy in steps so that a large copy does not delay the safepoints too long
+    private static final long COPY_THRESHOLD = 1024 * 1024;
+
+    static {
+        MethodHandle[] handles = new MethodHandle[10];
+        long addressFieldOffset = -1;
+        long byteArrayBaseOffset = -1;
+        boolean loaded;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            addressFieldOffset = (long) lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    MethodType.methodType(long.class, Field.class))
+                    .invoke(unsafe, java.nio.Buffer.class.getDeclaredField("address"));
+            byteArrayBaseOffset = (int) lookup.findVirtual(unsafeClass, "arrayBaseOffset",
+                    MethodType.methodType(int.class, Class.class))
+                    .invoke(unsafe, byte[].class);
+            handles[0] = find(lookup, unsafeClass, unsafe, "getLong", long.class, Object.class, long.class);
+            handles[1] = find(lookup, unsafeClass, unsafe, "getByte", byte.class, long.class);
+            handles[2] = find(lookup, unsafeClass, unsafe, "getShort", short.class, long.class);
+            handles[3] = find(lookup, unsafeClass, unsafe, "getInt", int.class, long.class);
+            handles[4] = find(lookup, unsafeClass, unsafe, "getLong", long.class, long.class);
+            handles[5] = find(lookup, unsafeClass, unsafe, "putByte", void.class, long.class, byte.class);
+            handles[6] = find(lookup, unsafeClass, unsafe, "putShort", void.class, long.class, short.class);
+            handles[7] = find(lookup, unsafeClass, unsafe, "putInt", void.class, long.class, int.class);
+            handles[8] = find(lookup, unsafeClass, unsafe, "putLong", void.class, long.class, long.class);
+            handles[9] = find(lookup, unsafeClass, unsafe, "copyMemory", void.class,
+                    Object.class, long.class, Object.class, long.class, long.class);
+            loaded = true;
+        } catch (Throwable t) {
+            loaded = false;
+        }
+        GET_LONG_OBJECT = handles[0];
+        GET_BYTE = handles[1];
+        GET_SHORT = handles[2];
+        GET_INT = handles[3];
+        GET_LONG = handles[4];
+        PUT_BYTE = handles[5];
+        PUT_SHORT = handles[6];
+        PUT_INT = handles[7];
+        PUT_LONG = handles[8];
+        COPY_MEMORY = handles[9];
+        ADDRESS_FIELD_OFFSET = addressFieldOffset;
+        BYTE_ARRAY_BASE_OFFSET = byteArrayBaseOffset;
+        AVAILABLE = loaded && unalignedAccess();
+    }
+
+    private DirectMemory() {
+    }
+
+    private static MethodHandle find(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe,
+                                     String name, Class<?> returnType, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        return lookup.findVirtual(unsafeClass, name, MethodType.methodType(returnType, parameterTypes))
+                .bindTo(unsafe);
+    }
+
+    // invokeExact() is declared to throw Throwable, the methods of Unsafe throw no checked exception
+    private static Error propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    private static boolean unalignedAccess() {
+        String arch = System.getProperty("os.arch", "");
+        return arch.matches("^(i[3-6]86|x86(_64)?|x64|amd64|aarch64|ppc64le)$");
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Returns the address of the first byte of a direct buffer.
+     */
+    static long address(ByteBuffer buffer) {
+        try {
+            return (long) GET_LONG_OBJECT.invokeExact((Object) buffer, ADDRESS_FIELD_OFFSET);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static byte getByte(long address) {
+        try {
+            return (byte) GET_BYTE.invokeExact(address);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static short getShort(long address, boolean bigEndian) {
+        short value;
+        try {
+            value = (short) GET_SHORT.invokeExact(address);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+        return bigEndian == NATIVE_BIG_ENDIAN ? value : Short.reverseBytes(value);
+    }
+
+    static int getInt(long address, boolean bigEndian) {
+        int value;
+        try {
+            value = (int) GET_INT.invokeExact(address);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+        return bigEndian == NATIVE_BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    static long getLong(long address, boolean bigEndian) {
+        long value;
+        try {
+            value = (long) GET_LONG.invokeExact(address);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+        return bigEndian == NATIVE_BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+
+    static void putByte(long address, byte value) {
+        try {
+            PUT_BYTE.invokeExact(address, value);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static void putShort(long address, short value, boolean bigEndian) {
+        try {
+            PUT_SHORT.invokeExact(address, bigEndian == NATIVE_BIG_ENDIAN ? value : Short.reverseBytes(value));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static void putInt(long address, int value, boolean bigEndian) {
+        try {
+            PUT_INT.invokeExact(address, bigEndian == NATIVE_BIG_ENDIAN ? value : Integer.reverseBytes(value));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static void putLong(long address, long value, boolean bigEndian) {
+        try {
+            PUT_LONG.invokeExact(address, bigEndian == NATIVE_BIG_ENDIAN ? value : Long.reverseBytes(value));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static void copyMemory(long srcAddress, long dstAddress, long length) {
+        copyMemory(null, srcAddress, null, dstAddress, length);
+    }
+
+    static void copyMemory(long srcAddress, byte[] dst, int dstIndex, long length) {
+        copyMemory(null, srcAddress, dst, BYTE_ARRAY_BASE_OFFSET + dstIndex, length);
+    }
+
+    static void copyMemory(byte[] src, int srcIndex, long dstAddress, long length) {
+        copyMemory(src, BYTE_ARRAY_BASE_OFFSET + srcIndex, null, dstAddress, length);
+    }
+
+    private static void copyMemory(Object src, long srcOffset, Object dst, long dstOffset, long length) {
+        while (length > 0) {
+            long size = Math.min(length, COPY_THRESHOLD);
+            try {
+                COPY_MEMORY.invokeExact(src, srcOffset, dst, dstOffset, size);
+            } catch (Throwable t) {
+                throw propagate(t);
+            }
+            length -= size;
+            srcOffset += size;
+            dstOffset += size;
+        }
+    }
+}
@@ -33,6 +33,33 @@ public class DuplicatedBuffer extends AbstractBuffer implements WrappedBuffer {
         return buffer;
     }
 
+    @Override
+    public int refCnt() {
+        return buffer.refCnt();
+    }
+
+    @Override
+    public Buffer retain() {
+        buffer.retain();
+        return this;
+    }
+
+    @Override
+    public Buffer retain(int increment) {
+        buffer.retain(increment);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return buffer.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return buffer.release(decrement);
+    }
+
     public BufferFactory factory() {
         return buffer.factory();
     }
@@ -67,6 +67,12 @@ public class DynamicBuffer extends AbstractBuffer {
 
         Buffer newBuffer = factory().getBuffer(order(), newCapacity);
         newBuffer.writeBytes(buffer, 0, writerIndex());
+        // Move the references held on the old buffer to the new one
+        int refCnt = buffer.refCnt();
+        if (refCnt > 1) {
+            newBuffer.retain(refCnt - 1);
+        }
+        buffer.release(refCnt);
         buffer = newBuffer;
     }
 
@@ -74,6 +80,33 @@ public class DynamicBuffer extends AbstractBuffer {
         return factory;
     }
 
+    @Override
+    public int refCnt() {
+        return buffer.refCnt();
+    }
+
+    @Override
+    public Buffer retain() {
+        buffer.retain();
+        return this;
+    }
+
+    @Override
+    public Buffer retain(int increment) {
+        buffer.retain(increment);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return buffer.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return buffer.release(decrement);
+    }
+
     public ByteOrder order() {
         return endianness;
     }
@@ -50,16 +50,35 @@ public class HeapBufferFactory extends AbstractBufferFactory {
 
     @Override
     public Buffer getBuffer(ByteOrder endianness, int capacity) {
-        return null;
+        return BufferHelpler.buffer(endianness, capacity);
     }
 
     @Override
     public Buffer getBuffer(ByteOrder endianness, byte[] array, int offset, int length) {
-        return null;
+        if (array == null) {
+            throw new NullPointerException("array");
+        }
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        if (length == 0) {
+            return BufferHelpler.EMPTY_BUFFER;
+        }
+        byte[] copiedArray = new byte[length];
+        System.arraycopy(array, offset, copiedArray, 0, length);
+        return BufferHelpler.wrappedBuffer(endianness, copiedArray);
     }
 
     @Override
     public Buffer getBuffer(ByteBuffer nioBuffer) {
-        return null;
+        if (!nioBuffer.isReadOnly() && nioBuffer.hasArray()) {
+            return BufferHelpler.wrappedBuffer(nioBuffer);
+        }
+
+        Buffer buf = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+        int pos = nioBuffer.position();
+        buf.writeBytes(nioBuffer);
+        nioBuffer.position(pos);
+        return buf;
     }
 }
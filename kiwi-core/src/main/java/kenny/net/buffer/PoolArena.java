@@ -0,0 +1,142 @@
+package kenny.net.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An arena of direct memory shared by a group of threads.
+ * <p>
+ * Each size class carves its own chunks into elements of the same size, so
+ * allocating and freeing an element is a pop and a push on the free list of
+ * a chunk.  Each size class has its own lock, and threads are spread over
+ * several arenas to reduce the contention.
+ */
+final class PoolArena {
+    private final PooledBufferFactory factory;
+    private final int chunkSize;
+    private final SizeClass[] sizeClasses;
+
+    PoolArena(PooledBufferFactory factory, int chunkSize, int[] elementSizes) {
+        this.factory = factory;
+        this.chunkSize = chunkSize;
+        sizeClasses = new SizeClass[elementSizes.length];
+        for (int i = 0; i < elementSizes.length; i++) {
+            sizeClasses[i] = new SizeClass(elementSizes[i]);
+        }
+    }
+
+    /**
+     * Allocates an element of the specified size class.
+     */
+    PooledBuffer allocate(int sizeIndex, PoolThreadCache cache) {
+        SizeClass sizeClass = sizeClasses[sizeIndex];
+        Chunk chunk;
+        int offset;
+        synchronized (sizeClass) {
+            chunk = sizeClass.nextAvailable();
+            offset = chunk.pop();
+            if (chunk.freeCount == 0) {
+                sizeClass.removeAvailable(chunk);
+            }
+        }
+        return new PooledBuffer(factory, chunk, offset, sizeClass.elementSize, cache, sizeIndex);
+    }
+
+    /**
+     * Returns an element to its chunk.
+     */
+    void free(Chunk chunk, int offset) {
+        SizeClass sizeClass = chunk.sizeClass;
+        synchronized (sizeClass) {
+            chunk.push(offset);
+            if (chunk.freeCount == 1) {
+                sizeClass.available.add(chunk);
+                chunk.available = true;
+            } else if (chunk.freeCount == chunk.capacity() && sizeClass.available.size() > 1) {
+                // Keep one empty chunk around, drop the others and let the
+                // garbage collector free their memory.
+                sizeClass.removeAvailable(chunk);
+                factory.chunkReleased(chunkSize);
+            }
+        }
+    }
+
+    private final class SizeClass {
+        private final int elementSize;
+        // Chunks which have at least one free element, guarded by this
+        private final List<Chunk> available = new ArrayList<>();
+
+        private SizeClass(int elementSize) {
+            this.elementSize = elementSize;
+        }
+
+        private PoolArena arena() {
+            return PoolArena.this;
+        }
+
+        private Chunk nextAvailable() {
+            if (available.isEmpty()) {
+                Chunk chunk = new Chunk(this, ByteBuffer.allocateDirect(chunkSize));
+                factory.chunkAllocated(chunkSize);
+                available.add(chunk);
+                chunk.available = true;
+            }
+            return available.get(available.size() - 1);
+        }
+
+        private void removeAvailable(Chunk chunk) {
+            if (chunk.available) {
+                available.remove(chunk);
+                chunk.available = false;
+            }
+        }
+    }
+
+    /**
+     * A piece of direct memory divided into elements of one size class.
+     */
+    static final class Chunk {
+        private final SizeClass sizeClass;
+        private final ByteBuffer bigEndian;
+        private final ByteBuffer littleEndian;
+        // Stack of the offsets of the free elements
+        private final int[] freeOffsets;
+        private int freeCount;
+        private boolean available;
+
+        private Chunk(SizeClass sizeClass, ByteBuffer memory) {
+            this.sizeClass = sizeClass;
+            bigEndian = memory.order(ByteOrder.BIG_ENDIAN);
+            littleEndian = memory.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int elements = memory.capacity() / sizeClass.elementSize;
+            freeOffsets = new int[elements];
+            // Hand out the elements from the start of the chunk
+            for (int i = 0; i < elements; i++) {
+                freeOffsets[i] = (elements - 1 - i) * sizeClass.elementSize;
+            }
+            freeCount = elements;
+        }
+
+        ByteBuffer memory(ByteOrder order) {
+            return order == ByteOrder.BIG_ENDIAN ? bigEndian : littleEndian;
+        }
+
+        PoolArena arena() {
+            return sizeClass.arena();
+        }
+
+        private int capacity() {
+            return freeOffsets.length;
+        }
+
+        private int pop() {
+            return freeOffsets[--freeCount];
+        }
+
+        private void push(int offset) {
+            freeOffsets[freeCount++] = offset;
+        }
+    }
+}
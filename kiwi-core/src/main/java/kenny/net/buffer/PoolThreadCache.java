@@ -0,0 +1,78 @@
+package kenny.net.buffer;
+
+/**
+ * Per-thread cache of released pooled buffers.
+ * <p>
+ * A buffer released by the thread which allocated it is kept here and handed
+ * out again by the next allocation of the same size class, without touching
+ * the arena.  The cache is only accessed by its own thread.
+ */
+final class PoolThreadCache {
+    private final Thread thread;
+    private final PoolArena arena;
+    private final PooledBuffer[][] stacks;
+    private final int[] counts;
+
+    PoolThreadCache(PoolArena arena, int[] elementSizes, int cacheSize, int cacheBytesPerSizeClass) {
+        thread = Thread.currentThread();
+        this.arena = arena;
+        stacks = new PooledBuffer[elementSizes.length][];
+        counts = new int[elementSizes.length];
+        for (int i = 0; i < elementSizes.length; i++) {
+            // Cache fewer buffers of the larger size classes
+            int entries = cacheSize == 0 ? 0
+                    : Math.max(1, Math.min(cacheSize, cacheBytesPerSizeClass / elementSizes[i]));
+            stacks[i] = new PooledBuffer[entries];
+        }
+    }
+
+    PoolArena arena() {
+        return arena;
+    }
+
+    /**
+     * Returns a cached buffer of the specified size class, or {@code null} if there is none.
+     */
+    PooledBuffer poll(int sizeIndex) {
+        int count = counts[sizeIndex];
+        if (count == 0) {
+            return null;
+        }
+        PooledBuffer[] stack = stacks[sizeIndex];
+        PooledBuffer buffer = stack[--count];
+        stack[count] = null;
+        counts[sizeIndex] = count;
+        return buffer;
+    }
+
+    /**
+     * Caches a released buffer.
+     *
+     * @return {@code false} if it is called from another thread or the cache is full
+     */
+    boolean offer(int sizeIndex, PooledBuffer buffer) {
+        if (Thread.currentThread() != thread) {
+            return false;
+        }
+        PooledBuffer[] stack = stacks[sizeIndex];
+        int count = counts[sizeIndex];
+        if (count == stack.length) {
+            return false;
+        }
+        stack[count] = buffer;
+        counts[sizeIndex] = count + 1;
+        return true;
+    }
+
+    /**
+     * Returns all the cached buffers to the arena.
+     */
+    void trim() {
+        for (int i = 0; i < stacks.length; i++) {
+            PooledBuffer buffer;
+            while ((buffer = poll(i)) != null) {
+                buffer.free();
+            }
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package kenny.net.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A direct buffer allocated by {@link PooledBufferFactory}.
+ * <p>
+ * The buffer is a region of a chunk of direct memory, and it goes back to the
+ * pool when its reference count drops to {@code 0}.  It must not be accessed
+ * after it has been released, since the region may already belong to
+ * another buffer.  {@link #copy()} and {@link #readBytes(int)} return new
+ * buffers from the same pool, which have to be released as well.
+ */
+public final class PooledBuffer extends AbstractBuffer {
+    private static final AtomicIntegerFieldUpdater<PooledBuffer> REF_CNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "refCnt");
+
+    private final PooledBufferFactory factory;
+    // The chunk this buffer belongs to, null if the buffer is too large to be pooled
+    private final PoolArena.Chunk chunk;
+    private final int offset;
+    private final int maxLength;
+    // The cache of the thread which allocated this buffer
+    private final PoolThreadCache cache;
+    private final int sizeIndex;
+
+    private volatile int refCnt;
+    private ByteBuffer memory;
+    // Address of the first byte of this buffer, 0 if DirectMemory is not available
+    private long memoryAddress;
+    private ByteOrder order;
+    private int length;
+    private BufferLeakDetector.Leak leak;
+    // Reused for the I/O operations, only its position and limit are changed
+    private ByteBuffer tmpNioBuffer;
+
+    PooledBuffer(PooledBufferFactory factory, PoolArena.Chunk chunk, int offset,
+                 int maxLength, PoolThreadCache cache, int sizeIndex) {
+        this.factory = factory;
+        this.chunk = chunk;
+        this.offset = offset;
+        this.maxLength = maxLength;
+        this.cache = cache;
+        this.sizeIndex = sizeIndex;
+    }
+
+    PooledBuffer(PooledBufferFactory factory, ByteBuffer memory) {
+        this(factory, null, 0, memory.capacity(), null, -1);
+        this.memory = memory;
+    }
+
+    /**
+     * Prepares this buffer to be handed out by the pool.
+     */
+    void init(ByteOrder order, int length, BufferLeakDetector.Leak leak) {
+        assert length <= maxLength;
+        if (chunk != null) {
+            memory = chunk.memory(order);
+        } else {
+            memory.order(order);
+        }
+        if (DirectMemory.isAvailable()) {
+            memoryAddress = DirectMemory.address(memory) + offset;
+        }
+        this.order = order;
+        this.length = length;
+        this.leak = leak;
+        refCnt = 1;
+        setIndex(0, 0);
+        markReaderIndex();
+        markWriterIndex();
+    }
+
+    int sizeIndex() {
+        return sizeIndex;
+    }
+
+    /**
+     * Returns the memory of this buffer to its chunk.
+     */
+    void free() {
+        chunk.arena().free(chunk, offset);
+    }
+
+    private void deallocate() {
+        if (leak != null) {
+            leak.close();
+            leak = null;
+        }
+        if (chunk == null) {
+            // Not pooled, the garbage collector frees the memory
+            memory = null;
+            tmpNioBuffer = null;
+            return;
+        }
+        if (cache == null || !cache.offer(sizeIndex, this)) {
+            free();
+        }
+    }
+
+    @Override
+    public int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public Buffer retain() {
+        return retain(1);
+    }
+
+    @Override
+    public Buffer retain(int increment) {
+        if (increment <= 0) {
+            throw new IllegalArgumentException("increment: " + increment);
+        }
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt == 0) {
+                throw new IllegalStateException("Buffer has been released");
+            }
+            if (cnt > Integer.MAX_VALUE - increment) {
+                throw new IllegalStateException("Reference count overflow");
+            }
+            if (REF_CNT_UPDATER.compareAndSet(this, cnt, cnt + increment)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        if (decrement <= 0) {
+            throw new IllegalArgumentException("decrement: " + decrement);
+        }
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt < decrement) {
+                throw new IllegalStateException("Reference count " + cnt + " is less than " + decrement);
+            }
+            if (REF_CNT_UPDATER.compareAndSet(this, cnt, cnt - decrement)) {
+                if (cnt == decrement) {
+                    deallocate();
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public BufferFactory factory() {
+        return factory;
+    }
+
+    @Override
+    public ByteOrder order() {
+        return order;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return true;
+    }
+
+    @Override
+    public int capacity() {
+        return length;
+    }
+
+    @Override
+    public boolean hasArray() {
+        return false;
+    }
+
+    @Override
+    public byte[] array() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int arrayOffset() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte getByte(int index) {
+        checkIndex(index, 1);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getByte(memoryAddress + index);
+        }
+        return memory.get(offset + index);
+    }
+
+    @Override
+    public short getShort(int index) {
+        checkIndex(index, 2);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getShort(memoryAddress + index, order == ByteOrder.BIG_ENDIAN);
+        }
+        return memory.getShort(offset + index);
+    }
+
+    @Override
+    public int getInt(int index) {
+        checkIndex(index, 4);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getInt(memoryAddress + index, order == ByteOrder.BIG_ENDIAN);
+        }
+        return memory.getInt(offset + index);
+    }
+
+    @Override
+    public long getLong(int index) {
+        checkIndex(index, 8);
+        if (DirectMemory.isAvailable()) {
+            return DirectMemory.getLong(memoryAddress + index, order == ByteOrder.BIG_ENDIAN);
+        }
+        return memory.getLong(offset + index);
+    }
+
+    @Override
+    public void getBytes(int index, Buffer dst, int dstIndex, int length) {
+        if (dst.hasArray()) {
+            getBytes(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else {
+            dst.setBytes(dstIndex, nioBuffer(index, length, memory.duplicate()));
+        }
+    }
+
+    @Override
+    public void getBytes(int index, byte[] dst, int dstIndex, int length) {
+        nioBuffer(index, length, internalNioBuffer()).get(dst, dstIndex, length);
+    }
+
+    @Override
+    public void getBytes(int index, ByteBuffer dst) {
+        int bytesToCopy = Math.min(capacity() - index, dst.remaining());
+        dst.put(nioBuffer(index, bytesToCopy, internalNioBuffer()));
+    }
+
+    @Override
+    public void getBytes(int index, OutputStream out, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        byte[] tmp = new byte[length];
+        getBytes(index, tmp, 0, length);
+        out.write(tmp);
+    }
+
+    @Override
+    public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
+        return out.write(nioBuffer(index, length, internalNioBuffer()));
+    }
+
+    @Override
+    public void setByte(int index, int value) {
+        checkIndex(index, 1);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putByte(memoryAddress + index, (byte) value);
+        } else {
+            memory.put(offset + index, (byte) value);
+        }
+    }
+
+    @Override
+    public void setShort(int index, int value) {
+        checkIndex(index, 2);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putShort(memoryAddress + index, (short) value, order == ByteOrder.BIG_ENDIAN);
+        } else {
+            memory.putShort(offset + index, (short) value);
+        }
+    }
+
+    @Override
+    public void setInt(int index, int value) {
+        checkIndex(index, 4);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putInt(memoryAddress + index, value, order == ByteOrder.BIG_ENDIAN);
+        } else {
+            memory.putInt(offset + index, value);
+        }
+    }
+
+    @Override
+    public void setLong(int index, long value) {
+        checkIndex(index, 8);
+        if (DirectMemory.isAvailable()) {
+            DirectMemory.putLong(memoryAddress + index, value, order == ByteOrder.BIG_ENDIAN);
+        } else {
+            memory.putLong(offset + index, value);
+        }
+    }
+
+    @Override
+    public void setBytes(int index, Buffer src, int srcIndex, int length) {
+        if (src.hasArray()) {
+            setBytes(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else {
+            src.getBytes(srcIndex, nioBuffer(index, length, memory.duplicate()));
+        }
+    }
+
+    @Override
+    public void setBytes(int index, byte[] src, int srcIndex, int length) {
+        nioBuffer(index, length, internalNioBuffer()).put(src, srcIndex, length);
+    }
+
+    @Override
+    public void setBytes(int index, ByteBuffer src) {
+        nioBuffer(index, src.remaining(), internalNioBuffer()).put(src);
+    }
+
+    @Override
+    public int setBytes(int index, InputStream in, int length) throws IOException {
+        checkIndex(index, length);
+        byte[] tmp = new byte[length];
+        int readBytes = 0;
+        do {
+            int localReadBytes = in.read(tmp, readBytes, length - readBytes);
+            if (localReadBytes < 0) {
+                if (readBytes == 0) {
+                    return -1;
+                } else {
+                    break;
+                }
+            }
+            readBytes += localReadBytes;
+        } while (readBytes < length);
+
+        setBytes(index, tmp, 0, readBytes);
+        return readBytes;
+    }
+
+    @Override
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        ByteBuffer buf = nioBuffer(index, length, internalNioBuffer());
+        int readBytes = 0;
+
+        do {
+            int localReadBytes;
+            try {
+                localReadBytes = in.read(buf);
+            } catch (ClosedChannelException e) {
+                localReadBytes = -1;
+            }
+            if (localReadBytes < 0) {
+                if (readBytes == 0) {
+                    return -1;
+                } else {
+                    break;
+                }
+            }
+            if (localReadBytes == 0) {
+                break;
+            }
+            readBytes += localReadBytes;
+        } while (readBytes < length);
+
+        return readBytes;
+    }
+
+    @Override
+    public Buffer slice(int index, int length) {
+        if (length == 0) {
+            return BufferHelpler.EMPTY_BUFFER;
+        }
+        if (index == 0) {
+            if (length == capacity()) {
+                Buffer slice = duplicate();
+                slice.setIndex(0, length);
+                return slice;
+            } else {
+                return new TruncatedBuffer(this, length);
+            }
+        } else {
+            return new SlicedBuffer(this, index, length);
+        }
+    }
+
+    @Override
+    public Buffer duplicate() {
+        return new DuplicatedBuffer(this);
+    }
+
+    @Override
+    public Buffer copy(int index, int length) {
+        checkIndex(index, length);
+        Buffer copy = factory.getBuffer(order, length);
+        getBytes(index, copy, 0, length);
+        copy.writerIndex(length);
+        return copy;
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer(int index, int length) {
+        return nioBuffer(index, length, memory.duplicate()).slice().order(order);
+    }
+
+    private ByteBuffer internalNioBuffer() {
+        ByteBuffer tmp = tmpNioBuffer;
+        if (tmp == null) {
+            tmpNioBuffer = tmp = memory.duplicate();
+        }
+        return tmp;
+    }
+
+    /**
+     * Sets the position and limit of {@code buf}, a view of the whole chunk,
+     * to the specified region of this buffer.
+     */
+    private ByteBuffer nioBuffer(int index, int length, ByteBuffer buf) {
+        checkIndex(index, length);
+        buf.clear();
+        buf.position(offset + index);
+        buf.limit(offset + index + length);
+        return buf;
+    }
+
+    private void checkIndex(int index, int fieldLength) {
+        if (index < 0 || fieldLength < 0 || index > length - fieldLength) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index
+                    + ", length: " + fieldLength + ", capacity: " + length);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package kenny.net.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BufferFactory} which allocates {@link PooledBuffer}s from pools of
+ * direct memory.
+ * <p>
+ * The requested capacity is rounded up to a power of two size class.  Each
+ * thread is bound to one of the arenas, and keeps the buffers it releases in
+ * a small per-thread cache for its next allocations, so an event loop which
+ * allocates and releases buffers in its own thread rarely takes a lock.
+ * Buffers larger than the maximum pooled size are allocated and freed
+ * directly.
+ * <p>
+ * The buffers cached by a thread are lost to the pool once it exits, and so
+ * are the chunks holding them.  An event loop trims the caches of its thread
+ * when it stops, other threads which allocate from a pool and exit, e.g. the
+ * threads of a short-lived executor, must call {@link #trimCurrentThreadCaches()}
+ * before they do.
+ * <p>
+ * Every returned buffer must be {@linkplain Buffer#release() released}
+ * exactly once.  One of every {@code leakSamplingInterval} buffers is tracked,
+ * and a buffer which is garbage collected without being released is logged
+ * together with the stack trace of its allocation.
+ */
+public class PooledBufferFactory extends AbstractBufferFactory {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_POOLED_SIZE = 64 * 1024;
+    public static final int DEFAULT_CACHE_SIZE = 128;
+    public static final int DEFAULT_LEAK_SAMPLING_INTERVAL = 128;
+    static final int MIN_ELEMENT_SIZE = 64;
+    // Upper bound of the memory held by a thread cache for one size class
+    static final int CACHE_BYTES_PER_SIZE_CLASS = 256 * 1024;
+
+    private static final PooledBufferFactory INSTANCE = new PooledBufferFactory();
+    // The caches of the current thread in every factory
+    private static final ThreadLocal<List<PoolThreadCache>> THREAD_CACHES = ThreadLocal.withInitial(ArrayList::new);
+
+    public static PooledBufferFactory getInstance() {
+        return INSTANCE;
+    }
+
+    private final int maxPooledSize;
+    private final int cacheSize;
+    private final int[] elementSizes;
+    private final PoolArena[] arenas;
+    private final AtomicInteger nextArena = new AtomicInteger();
+    private final ThreadLocal<PoolThreadCache> threadCache;
+    private final BufferLeakDetector leakDetector;
+    private final AtomicLong chunkMemory = new AtomicLong();
+
+    /**
+     * Creates a new factory whose default {@link ByteOrder} is
+     * {@link ByteOrder#BIG_ENDIAN}, with one arena for each processor.
+     */
+    public PooledBufferFactory() {
+        this(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Creates a new factory with the specified default {@link ByteOrder},
+     * with one arena for each processor.
+     *
+     * @param defaultOrder the default {@link ByteOrder} of this factory
+     */
+    public PooledBufferFactory(ByteOrder defaultOrder) {
+        this(defaultOrder, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE,
+                DEFAULT_MAX_POOLED_SIZE, DEFAULT_CACHE_SIZE, DEFAULT_LEAK_SAMPLING_INTERVAL);
+    }
+
+    /**
+     * Creates a new factory.
+     *
+     * @param defaultOrder         the default {@link ByteOrder} of this factory
+     * @param arenas               the number of arenas the threads are spread over
+     * @param chunkSize            the size of the direct memory allocated at a time
+     * @param maxPooledSize        larger buffers are not pooled, it must not exceed {@code chunkSize}
+     * @param cacheSize            the maximum number of buffers a thread caches for each size class,
+     *                             {@code 0} disables the thread caches
+     * @param leakSamplingInterval track one of this many buffers for leaks,
+     *                             {@code 0} disables the leak detection
+     */
+    public PooledBufferFactory(ByteOrder defaultOrder, int arenas, int chunkSize,
+                               int maxPooledSize, int cacheSize, int leakSamplingInterval) {
+        super(defaultOrder);
+        if (arenas <= 0) {
+            throw new IllegalArgumentException("arenas: " + arenas);
+        }
+        if (maxPooledSize < MIN_ELEMENT_SIZE || maxPooledSize > chunkSize) {
+            throw new IllegalArgumentException("maxPooledSize: " + maxPooledSize
+                    + " (expected: " + MIN_ELEMENT_SIZE + "-" + chunkSize + ")");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize: " + cacheSize);
+        }
+        this.maxPooledSize = maxPooledSize;
+        this.cacheSize = cacheSize;
+
+        int sizeClasses = sizeIndex(maxPooledSize) + 1;
+        elementSizes = new int[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            elementSizes[i] = MIN_ELEMENT_SIZE << i;
+        }
+        this.arenas = new PoolArena[arenas];
+        for (int i = 0; i < arenas; i++) {
+            this.arenas[i] = new PoolArena(this, chunkSize, elementSizes);
+        }
+        // Bind the threads to the arenas in round robin
+        threadCache = ThreadLocal.withInitial(() -> {
+            PoolThreadCache cache = new PoolThreadCache(
+                    this.arenas[Math.abs(nextArena.getAndIncrement() % this.arenas.length)],
+                    elementSizes, this.cacheSize, CACHE_BYTES_PER_SIZE_CLASS);
+            THREAD_CACHES.get().add(cache);
+            return cache;
+        });
+        leakDetector = new BufferLeakDetector(leakSamplingInterval);
+    }
+
+    @Override
+    public Buffer getBuffer(ByteOrder endianness, int capacity) {
+        if (endianness == null) {
+            throw new NullPointerException("endianness");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        if (capacity == 0) {
+            return BufferHelpler.EMPTY_BUFFER;
+        }
+
+        PooledBuffer buffer;
+        if (capacity > maxPooledSize) {
+            buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(capacity));
+        } else {
+            int sizeIndex = sizeIndex(capacity);
+            PoolThreadCache cache = threadCache.get();
+            buffer = cache.poll(sizeIndex);
+            if (buffer == null) {
+                buffer = cache.arena().allocate(sizeIndex, cacheSize == 0 ? null : cache);
+            }
+        }
+        buffer.init(endianness, capacity, leakDetector.track(capacity, buffer));
+        return buffer;
+    }
+
+    @Override
+    public Buffer getBuffer(ByteOrder endianness, byte[] array, int offset, int length) {
+        if (array == null) {
+            throw new NullPointerException("array");
+        }
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        Buffer buffer = getBuffer(endianness, length);
+        buffer.writeBytes(array, offset, length);
+        return buffer;
+    }
+
+    @Override
+    public Buffer getBuffer(ByteBuffer nioBuffer) {
+        Buffer buffer = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+        int pos = nioBuffer.position();
+        buffer.writeBytes(nioBuffer);
+        nioBuffer.position(pos);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffers cached by the current thread to the arena.
+     * A thread which stops allocating buffers should call it before it exits,
+     * otherwise the cached buffers are lost to the pool.
+     */
+    public void trimCurrentThreadCache() {
+        threadCache.get().trim();
+    }
+
+    /**
+     * Returns the buffers cached by the current thread in every factory to
+     * their arenas.  A thread which has allocated pooled buffers should call
+     * it before it exits.
+     */
+    public static void trimCurrentThreadCaches() {
+        for (PoolThreadCache cache : THREAD_CACHES.get()) {
+            cache.trim();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of direct memory held by the chunks of the pool.
+     * It does not include the buffers which are too large to be pooled.
+     */
+    public long getPooledMemory() {
+        return chunkMemory.get();
+    }
+
+    void chunkAllocated(int chunkSize) {
+        chunkMemory.addAndGet(chunkSize);
+    }
+
+    void chunkReleased(int chunkSize) {
+        chunkMemory.addAndGet(-chunkSize);
+    }
+
+    /**
+     * Returns the index of the smallest size class which fits {@code capacity}.
+     */
+    static int sizeIndex(int capacity) {
+        if (capacity <= MIN_ELEMENT_SIZE) {
+            return 0;
+        }
+        int normalized = Integer.highestOneBit(capacity - 1) << 1;
+        return Integer.numberOfTrailingZeros(normalized) - Integer.numberOfTrailingZeros(MIN_ELEMENT_SIZE);
+    }
+}
@@ -30,6 +30,28 @@ public class TruncatedBuffer extends AbstractBuffer implements WrappedBuffer {
         return buffer;
     }
 
+    public int refCnt() {
+        return buffer.refCnt();
+    }
+
+    public Buffer retain() {
+        buffer.retain();
+        return this;
+    }
+
+    public Buffer retain(int increment) {
+        buffer.retain(increment);
+        return this;
+    }
+
+    public boolean release() {
+        return buffer.release();
+    }
+
+    public boolean release(int decrement) {
+        return buffer.release(decrement);
+    }
+
     public BufferFactory factory() {
         return buffer.factory();
     }
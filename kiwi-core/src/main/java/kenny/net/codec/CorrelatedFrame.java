@@ -0,0 +1,66 @@
+package kenny.net.codec;
+
+import net.jcip.annotations.Immutable;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A request or a response tagged with the id of the request, so that many
+ * requests may be in flight on a connection and answered in any order.
+ * <p>
+ * On the wire a frame is a 4-byte length, which counts the id and the
+ * payload, the 8-byte id and the payload.  A server reads the id of a request
+ * from the frame cut by {@link #newDecoder(int)} and writes its response with
+ * the same id:
+ * <pre>
+ * server.setFrameDecoder(() -> CorrelatedFrame.newDecoder(maxFrameLength), (connection, frame) -> {
+ *     long id = frame.readLong();
+ *     connection.write(new CorrelatedFrame(id, handle(frame)));
+ * });
+ * server.setMessageEncoder(CorrelatedFrame.ENCODER);
+ * </pre>
+ */
+@Immutable
+public final class CorrelatedFrame {
+    public final static int LENGTH_FIELD_LENGTH = 4;
+    public final static int ID_LENGTH = 8;
+
+    /**
+     * Writes the length, the id and the readable bytes of the payload, which
+     * is left unchanged.
+     */
+    public final static MessageEncoder<CorrelatedFrame> ENCODER = (connection, frame, out) -> {
+        ByteBuffer payload = frame.payload.duplicate();
+        out.writeInt(ID_LENGTH + payload.remaining());
+        out.writeLong(frame.id);
+        out.writeBytes(payload);
+    };
+
+    private final long id;
+    private final ByteBuffer payload;
+
+    public CorrelatedFrame(long id, ByteBuffer payload) {
+        this.id = id;
+        this.payload = checkNotNull(payload);
+    }
+
+    /**
+     * Returns a decoder of frames, which passes on the id and the payload
+     * without the length.
+     *
+     * @param maxFrameLength the maximum length of a frame, length field included
+     */
+    public static FrameDecoder newDecoder(int maxFrameLength) {
+        return new LengthFieldFrameDecoder(maxFrameLength, 0, LENGTH_FIELD_LENGTH, 0, LENGTH_FIELD_LENGTH);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload.duplicate();
+    }
+}
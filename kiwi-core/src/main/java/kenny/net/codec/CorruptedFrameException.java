@@ -0,0 +1,13 @@
+package kenny.net.codec;
+
+/**
+ * Thrown by a {@link FrameDecoder} when the input can not be cut into frames,
+ * for example when a frame is longer than allowed.  The connection is closed.
+ */
+public class CorruptedFrameException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptedFrameException(String message) {
+        super(message);
+    }
+}
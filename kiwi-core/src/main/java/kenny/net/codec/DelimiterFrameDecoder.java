@@ -0,0 +1,88 @@
+package kenny.net.codec;
+
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferIndexFinder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Cuts the input into frames ending with a delimiter byte located by a
+ * {@link BufferIndexFinder}.
+ * <p>
+ * The bytes of an incomplete frame are searched only once, the search goes on
+ * from where it stopped when more input arrives.
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+    private final int maxFrameLength;
+    private final boolean stripDelimiter;
+    private final BufferIndexFinder delimiter;
+    private final boolean stripCarriageReturn;
+
+    // Bytes of the incomplete frame already searched for the delimiter
+    private int searched;
+
+    /**
+     * @param maxFrameLength the maximum length of a frame, the delimiter excluded
+     * @param stripDelimiter whether the delimiter is cut off the frames
+     * @param delimiter      locates the delimiter byte
+     */
+    public DelimiterFrameDecoder(int maxFrameLength, boolean stripDelimiter, BufferIndexFinder delimiter) {
+        this(maxFrameLength, stripDelimiter, delimiter, false);
+    }
+
+    private DelimiterFrameDecoder(int maxFrameLength, boolean stripDelimiter, BufferIndexFinder delimiter,
+                                  boolean stripCarriageReturn) {
+        checkArgument(maxFrameLength > 0);
+        this.maxFrameLength = maxFrameLength;
+        this.stripDelimiter = stripDelimiter;
+        this.delimiter = checkNotNull(delimiter);
+        this.stripCarriageReturn = stripCarriageReturn;
+    }
+
+    /**
+     * Returns a decoder of lines ending with {@code "\n"} or {@code "\r\n"},
+     * the frames are the lines without their line ending.
+     */
+    public static DelimiterFrameDecoder lines(int maxLineLength) {
+        return new DelimiterFrameDecoder(maxLineLength, true, BufferIndexFinder.LF, true);
+    }
+
+    @Override
+    protected Buffer decode(Buffer cumulation) {
+        int readerIndex = cumulation.readerIndex();
+        int index = cumulation.indexOf(readerIndex + searched, cumulation.writerIndex(), delimiter);
+        if (index < 0) {
+            searched = cumulation.readableBytes();
+            if (searched > maxFrameLength) {
+                throw new CorruptedFrameException("Frame length exceeds " + maxFrameLength
+                        + " without a delimiter");
+            }
+            return null;
+        }
+        searched = 0;
+
+        int frameLength = index - readerIndex;
+        if (frameLength > maxFrameLength) {
+            throw new CorruptedFrameException("Frame length " + frameLength + " exceeds " + maxFrameLength);
+        }
+        Buffer frame;
+        if (stripDelimiter) {
+            int length = frameLength;
+            if (stripCarriageReturn && length > 0 && cumulation.getByte(index - 1) == '\r') {
+                length--;
+            }
+            frame = cumulation.slice(readerIndex, length);
+        } else {
+            frame = cumulation.slice(readerIndex, frameLength + 1);
+        }
+        cumulation.skipBytes(frameLength + 1);
+        return frame;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        searched = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package kenny.net.codec;
+
+import kenny.net.buffer.Buffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Cuts the input into frames of the same length.
+ */
+public class FixedLengthFrameDecoder extends FrameDecoder {
+    private final int frameLength;
+
+    public FixedLengthFrameDecoder(int frameLength) {
+        checkArgument(frameLength > 0);
+        this.frameLength = frameLength;
+    }
+
+    @Override
+    protected Buffer decode(Buffer cumulation) {
+        if (cumulation.readableBytes() < frameLength) {
+            needBytes(frameLength);
+            return null;
+        }
+        return cumulation.readSlice(frameLength);
+    }
+}
@@ -0,0 +1,147 @@
+package kenny.net.codec;
+
+import kenny.base.EventCallback;
+import kenny.net.Connection;
+import kenny.net.buffer.Buffer;
+import kenny.net.buffer.BufferHelpler;
+import net.jcip.annotations.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+
+/**
+ * Cuts the input of one connection into frames.
+ * <p>
+ * The connection hands every input buffer over to its decoder instead of
+ * compacting it.  The decoder keeps the buffers holding the bytes of the
+ * incomplete frame, and views them as one {@link kenny.net.buffer.CompositeBuffer}
+ * when a frame spans several reads, so no byte is copied.  Each complete frame
+ * is passed to the {@link EventCallback.FrameCallback} as a slice of the input
+ * buffers.  It shares their reference count: a callback which keeps the frame
+ * after it returns has to {@link Buffer#retain()} it and release it later.
+ * <p>
+ * A decoder keeps the state of one connection, so each connection needs its
+ * own instance.
+ */
+@NotThreadSafe
+public abstract class FrameDecoder {
+    private final static Logger LOG = LoggerFactory.getLogger(FrameDecoder.class);
+
+    // Input buffers with unconsumed bytes, in the order they were read.
+    // The decoder owns one reference of each of them.
+    private final ArrayDeque<Buffer> inputs = new ArrayDeque<>();
+    private int readableBytes;
+    // decode() is not called again until this many bytes are readable
+    private int bytesNeeded;
+
+    /**
+     * Takes over {@code input}, whose readable bytes have just been received,
+     * and passes every frame completed by them to {@code callback}.
+     */
+    public final void decode(Connection connection, Buffer input, EventCallback.FrameCallback callback) {
+        if (!input.readable()) {
+            input.release();
+            return;
+        }
+        inputs.add(input);
+        readableBytes += input.readableBytes();
+        if (readableBytes < bytesNeeded) {
+            return;
+        }
+        bytesNeeded = 0;
+
+        Buffer cumulation = cumulation();
+        int start = cumulation.readerIndex();
+        try {
+            while (cumulation.readable()) {
+                int readerIndex = cumulation.readerIndex();
+                Buffer frame = decode(cumulation);
+                if (frame == null) {
+                    break;
+                }
+                if (cumulation.readerIndex() == readerIndex) {
+                    throw new IllegalStateException(getClass().getSimpleName()
+                            + ".decode() returned a frame without consuming any input");
+                }
+                if (callback != null) {
+                    callback.onFrame(connection, frame);
+                }
+                if (inputs.isEmpty()) {
+                    // Released by the callback closing the connection
+                    return;
+                }
+            }
+        } catch (CorruptedFrameException e) {
+            LOG.error("Corrupted input on Connection {}", connection == null ? null : connection.getName(), e);
+            release();
+            if (connection != null) {
+                connection.shutdown();
+            }
+            return;
+        }
+        consume(cumulation.readerIndex() - start);
+    }
+
+    /**
+     * Returns the next frame, a slice of {@code cumulation}, and moves the
+     * reader index of {@code cumulation} past the bytes of the frame.  Returns
+     * {@code null} and leaves the reader index alone if the frame is not
+     * complete yet.
+     *
+     * @param cumulation the unconsumed input, from its reader index to its writer index
+     * @throws CorruptedFrameException if the input can not be cut into frames
+     */
+    protected abstract Buffer decode(Buffer cumulation);
+
+    /**
+     * Tells that the incomplete frame needs {@code bytes} readable bytes in all,
+     * counted from the reader index of the cumulation.  decode() is not called
+     * until so many bytes have been received, so that a large frame is not
+     * parsed again on every read.
+     */
+    protected final void needBytes(int bytes) {
+        bytesNeeded = bytes;
+    }
+
+    /**
+     * Returns the number of received bytes which are not part of a frame yet.
+     */
+    public int readableBytes() {
+        return readableBytes;
+    }
+
+    /**
+     * Releases the buffers of the incomplete frame.  Called by the connection
+     * once it is closed.
+     */
+    public void release() {
+        Buffer input;
+        while ((input = inputs.poll()) != null) {
+            input.release();
+        }
+        readableBytes = 0;
+        bytesNeeded = 0;
+    }
+
+    private Buffer cumulation() {
+        if (inputs.size() == 1) {
+            return inputs.peek().slice();
+        }
+        return BufferHelpler.wrappedBuffer(inputs.toArray(new Buffer[inputs.size()]));
+    }
+
+    // Drops the consumed bytes, the buffers consumed entirely are released
+    private void consume(int bytes) {
+        readableBytes -= bytes;
+        while (bytes > 0) {
+            Buffer input = inputs.peek();
+            int n = Math.min(bytes, input.readableBytes());
+            input.skipBytes(n);
+            bytes -= n;
+            if (!input.readable()) {
+                inputs.poll().release();
+            }
+        }
+    }
+}
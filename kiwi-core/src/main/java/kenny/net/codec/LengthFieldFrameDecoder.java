@@ -0,0 +1,106 @@
+package kenny.net.codec;
+
+import kenny.net.buffer.Buffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Cuts the input into frames whose length is given by a field in their header.
+ * <p>
+ * The length field is an unsigned integer of 1, 2, 4 or 8 bytes in the byte
+ * order of the input buffers, at {@code lengthFieldOffset} from the start of
+ * the frame.  The frame is {@code lengthFieldOffset + lengthFieldLength + value
+ * + lengthAdjustment} bytes long, so with a negative {@code lengthAdjustment}
+ * the field may count the header as well.  The first {@code initialBytesToStrip}
+ * bytes of every frame are skipped, e.g. the header for the payload only.
+ * <p>
+ * For a frame made of a 4-byte length and the payload, which is passed on
+ * without the length:
+ * <pre>
+ * new LengthFieldFrameDecoder(maxFrameLength, 0, 4, 0, 4)
+ * </pre>
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+    private final int maxFrameLength;
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final int lengthFieldEndOffset;
+    private final int lengthAdjustment;
+    private final int initialBytesToStrip;
+
+    public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, 0, 0);
+    }
+
+    /**
+     * @param maxFrameLength      the maximum length of a frame, header included
+     * @param lengthFieldOffset   the offset of the length field in the frame
+     * @param lengthFieldLength   the length of the length field, 1, 2, 4 or 8
+     * @param lengthAdjustment    the number added to the value of the length field
+     * @param initialBytesToStrip the number of bytes skipped at the start of every frame
+     */
+    public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                                   int lengthAdjustment, int initialBytesToStrip) {
+        checkArgument(maxFrameLength > 0);
+        checkArgument(lengthFieldOffset >= 0);
+        checkArgument(lengthFieldLength == 1 || lengthFieldLength == 2
+                || lengthFieldLength == 4 || lengthFieldLength == 8,
+                "lengthFieldLength must be 1, 2, 4 or 8: %s", lengthFieldLength);
+        checkArgument(initialBytesToStrip >= 0);
+        checkArgument(lengthFieldOffset <= maxFrameLength - lengthFieldLength,
+                "maxFrameLength must not be less than the end of the length field");
+        this.maxFrameLength = maxFrameLength;
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthFieldEndOffset = lengthFieldOffset + lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.initialBytesToStrip = initialBytesToStrip;
+    }
+
+    @Override
+    protected Buffer decode(Buffer cumulation) {
+        if (cumulation.readableBytes() < lengthFieldEndOffset) {
+            needBytes(lengthFieldEndOffset);
+            return null;
+        }
+
+        long length = lengthField(cumulation, cumulation.readerIndex() + lengthFieldOffset);
+        if (length < 0) {
+            throw new CorruptedFrameException("Negative length field: " + length);
+        }
+        long frameLength = length + lengthAdjustment + lengthFieldEndOffset;
+        if (frameLength < lengthFieldEndOffset) {
+            throw new CorruptedFrameException("Adjusted frame length " + frameLength
+                    + " is less than the end of the length field " + lengthFieldEndOffset);
+        }
+        if (frameLength > maxFrameLength) {
+            throw new CorruptedFrameException("Frame length " + frameLength
+                    + " exceeds " + maxFrameLength);
+        }
+        int frameLengthInt = (int) frameLength;
+        if (frameLengthInt < initialBytesToStrip) {
+            throw new CorruptedFrameException("Frame length " + frameLength
+                    + " is less than initialBytesToStrip " + initialBytesToStrip);
+        }
+
+        if (cumulation.readableBytes() < frameLengthInt) {
+            needBytes(frameLengthInt);
+            return null;
+        }
+        cumulation.skipBytes(initialBytesToStrip);
+        return cumulation.readSlice(frameLengthInt - initialBytesToStrip);
+    }
+
+    private long lengthField(Buffer buffer, int index) {
+        switch (lengthFieldLength) {
+            case 1:
+                return buffer.getUnsignedByte(index);
+            case 2:
+                return buffer.getUnsignedShort(index);
+            case 4:
+                return buffer.getUnsignedInt(index);
+            default:
+                return buffer.getLong(index);
+        }
+    }
+}
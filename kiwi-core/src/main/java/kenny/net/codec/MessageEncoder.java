@@ -0,0 +1,21 @@
+package kenny.net.codec;
+
+import kenny.net.Connection;
+import kenny.net.buffer.Buffer;
+
+/**
+ * Serializes the messages passed to {@link Connection#write(Object)}.
+ * <p>
+ * The messages written during one iteration of the loop are encoded one after
+ * the other into the same output buffer, which is sent as a whole once the
+ * iteration ends.  An encoder shared by several connections is called from
+ * the threads of their loops.
+ */
+@FunctionalInterface
+public interface MessageEncoder<T> {
+    /**
+     * Writes {@code message} to {@code out}, which grows as needed.  The bytes
+     * written by an encoder which throws are discarded.
+     */
+    void encode(Connection connection, T message, Buffer out);
+}
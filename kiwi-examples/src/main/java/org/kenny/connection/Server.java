@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by kennylbj on 22/02/2017.
@@ -52,15 +53,16 @@ public class Server {
         }, 5);
 
         // monitoring throughput each 3 seconds.
-        loop.runEvery(() -> {
+        server.server.reportMetrics(3, TimeUnit.SECONDS, metrics -> {
             Instant endTime = Instant.now();
-            long newReceive = server.received;
+            long newReceive = metrics.getBytesRead();
             long dataFlow = newReceive - server.oldReceive;
             double elapsed = endTime.toEpochMilli() - server.startTime.toEpochMilli();
             System.out.printf("Throughput: [%4.3f MiB/s]\n", dataFlow/elapsed/1024/1024*1000);
+            System.out.println(metrics);
             server.startTime = endTime;
             server.oldReceive = newReceive;
-        }, 3);
+        });
         loop.loop();
     }
 }
@@ -6,6 +6,7 @@ import kenny.net.NIOEventLoop;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by kennylbj on 16/9/19.
@@ -16,7 +17,7 @@ public class DiscardClient {
 
     public DiscardClient(NIOEventLoop loop, String host, int port) throws IOException {
         client = new KiwiClient(loop, "DiscardClient", host, port);
-        String respond = "hello world";
+        String respond = "hello world\n";
         message = ByteBuffer.wrap(respond.getBytes(Charset.forName("UTF-8")));
     }
 
@@ -49,6 +50,8 @@ public class DiscardClient {
     public static void main(String[] args) throws IOException {
         System.out.println("Start discard client");
         NIOEventLoop loop = new NIOEventLoop();
+        // The write complete callback sleeps, each call is reported as slow
+        loop.setSlowCallbackThreshold(500, TimeUnit.MILLISECONDS);
         DiscardClient client = new DiscardClient(loop, "localhost", 8110);
         client.connect();
         loop.loop();
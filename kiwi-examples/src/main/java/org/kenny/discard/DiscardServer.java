@@ -2,8 +2,10 @@ package org.kenny.discard;
 
 import kenny.net.KiwiServer;
 import kenny.net.NIOEventLoop;
+import kenny.net.codec.DelimiterFrameDecoder;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by kennylbj on 16/9/19.
@@ -18,10 +20,9 @@ public class DiscardServer {
         server.setConnectFinishCallback(connection -> {
             System.out.println("Connection succeed.");
         });
-        server.setMessageCallback((channel, connection, buffer) -> {
-            byte[] message = new byte[buffer.remaining()];
-            buffer.get(message);
-            System.out.println("Receive message " + new String(message));
+        // Messages are lines, the frames are slices of the input without the line ending
+        server.setFrameDecoder(() -> DelimiterFrameDecoder.lines(8192), (connection, frame) -> {
+            System.out.println("Receive message " + frame.toString(StandardCharsets.UTF_8));
         });
         server.start();
     }
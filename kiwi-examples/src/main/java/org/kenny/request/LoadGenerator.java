@@ -0,0 +1,116 @@
+package org.kenny.request;
+
+import kenny.base.HashedWheelTimer;
+import kenny.base.LatencyHistogram;
+import kenny.base.MpscChunkedTaskQueue;
+import kenny.base.TimerId;
+import kenny.net.NIOEventLoop;
+import kenny.net.RequestClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to a RequestServer at fixed rates, pipelined on a single
+ * connection, and prints the latency percentiles at each rate.
+ * <p>
+ * The requests are sent on a schedule, whatever the responses.  Their
+ * latency is measured from the time they were due, so a client falling behind
+ * its schedule is counted as latency instead of hiding it, and from the time
+ * they were actually sent.  The schedule is driven by a timer of 1 ms, the
+ * difference between the two includes up to a tick or two of lag.  Everything
+ * runs in the thread of the loop, the histograms need no lock.
+ * <p>
+ * Usage: LoadGenerator [host] [port] [rates per second, comma separated]
+ * [seconds per rate] [payload bytes]
+ */
+public class LoadGenerator {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // How long the responses in flight are waited for after each rate
+    private static final long DRAIN_MILLIS = 1000;
+
+    private final NIOEventLoop loop;
+    private final RequestClient client;
+    private final long[] rates;
+    private final long seconds;
+    private final ByteBuffer request;
+
+    // Only accessed by the loop thread
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private long errors;
+
+    private LoadGenerator(NIOEventLoop loop, RequestClient client, long[] rates, long seconds, int payload) {
+        this.loop = loop;
+        this.client = client;
+        this.rates = rates;
+        this.seconds = seconds;
+        this.request = ByteBuffer.allocate(payload);
+    }
+
+    private void run(int index) {
+        if (index == rates.length) {
+            client.shutdownGracefully(0, 1, TimeUnit.SECONDS).thenRun(() -> System.exit(0));
+            return;
+        }
+        long rate = rates[index];
+        latency.reset();
+        serviceTime.reset();
+        errors = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long[] sent = {0};
+        TimerId[] ticker = new TimerId[1];
+        ticker[0] = loop.runEvery(() -> {
+            long now = Math.min(System.nanoTime(), end);
+            long due = (now - start) * rate / TimeUnit.SECONDS.toNanos(1);
+            for (; sent[0] < due; sent[0]++) {
+                long intended = start + sent[0] * TimeUnit.SECONDS.toNanos(1) / rate;
+                long sendTime = System.nanoTime();
+                client.send(request).whenComplete((response, e) -> {
+                    if (e != null) {
+                        errors++;
+                    } else {
+                        long received = System.nanoTime();
+                        latency.record(received - intended);
+                        serviceTime.record(received - sendTime);
+                    }
+                });
+            }
+            if (now == end) {
+                loop.cancelTimer(ticker[0]);
+                loop.runAfter(() -> {
+                    System.out.printf("%,d req/s, %d errors%n  from schedule [%s]%n  from send     [%s]%n",
+                            rate, errors, latency, serviceTime);
+                    run(index + 1);
+                }, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }, TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8300;
+        String[] rateArgs = (args.length > 2 ? args[2] : "1000,10000,50000").split(",");
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 5;
+        int payload = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        long[] rates = new long[rateArgs.length];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = Long.parseLong(rateArgs[i].trim());
+        }
+
+        // A timer per request, the wheel cancels them in constant time
+        NIOEventLoop loop = new NIOEventLoop(new MpscChunkedTaskQueue(), new HashedWheelTimer());
+        RequestClient client = new RequestClient(loop, "LoadGenerator", host, port);
+        LoadGenerator generator = new LoadGenerator(loop, client, rates, seconds, payload);
+        client.connect().whenComplete((v, e) -> {
+            if (e != null) {
+                System.out.println("Failed to connect: " + e);
+                System.exit(1);
+            }
+            generator.run(0);
+        });
+        loop.loop();
+    }
+}
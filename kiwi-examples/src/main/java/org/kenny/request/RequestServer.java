@@ -0,0 +1,33 @@
+package org.kenny.request;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+import kenny.net.RequestClient;
+import kenny.net.codec.CorrelatedFrame;
+
+import java.io.IOException;
+
+/**
+ * Answers every CorrelatedFrame with its own payload and id, the server of
+ * the LoadGenerator.
+ * <p>
+ * Usage: RequestServer [port] [ioThreads]
+ */
+public class RequestServer {
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8300;
+        int ioThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        NIOEventLoop loop = new NIOEventLoop();
+        KiwiServer server = new KiwiServer(loop, "RequestServer", "127.0.0.1", port);
+        server.setThreadNum(ioThreads);
+        server.setFrameDecoder(() -> CorrelatedFrame.newDecoder(RequestClient.DEFAULT_MAX_FRAME_LENGTH),
+                (connection, frame) -> {
+                    long id = frame.readLong();
+                    // Encoded before the callback returns, the frame may be passed as it is
+                    connection.write(new CorrelatedFrame(id, frame.toByteBuffer()));
+                });
+        server.setMessageEncoder(CorrelatedFrame.ENCODER);
+        server.start();
+        loop.loop();
+    }
+}
@@ -0,0 +1,95 @@
+package org.kenny.storm;
+
+import kenny.net.KiwiServer;
+import kenny.net.NIOEventLoop;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection storm: client threads connect and reset as fast as they can, and
+ * the accepts per second of the server are printed for both acceptor modes.
+ * <p>
+ * Usage: {@code ConnectionStorm [mode] [ioThreads] [clientThreads] [seconds]}
+ * where mode is {@code single}, {@code reuseport} or {@code both} (default).
+ * The clients close with SO_LINGER 0, so that the storm does not run out of
+ * ephemeral ports because of TIME_WAIT.
+ */
+public class ConnectionStorm {
+    private static final String HOST = "127.0.0.1";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        String mode = args.length > 0 ? args[0] : "both";
+        int ioThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int clientThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        int port = 8120;
+        if (!"reuseport".equals(mode)) {
+            run(false, port++, ioThreads, clientThreads, seconds);
+        }
+        if (!"single".equals(mode)) {
+            run(true, port, ioThreads, clientThreads, seconds);
+        }
+        System.exit(0);
+    }
+
+    private static void run(boolean reusePort, int port, int ioThreads, int clientThreads, int seconds)
+            throws Exception {
+        AtomicLong accepted = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(1);
+        Thread serverThread = new Thread(() -> {
+            try {
+                NIOEventLoop loop = new NIOEventLoop();
+                KiwiServer server = new KiwiServer(loop, "StormServer", HOST, port);
+                server.setThreadNum(ioThreads);
+                server.setReusePort(reusePort);
+                server.setConnectFinishCallback(connection -> accepted.incrementAndGet());
+                server.start();
+                loop.runInLoop(ready::countDown);
+                loop.loop();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "storm-server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        ready.await();
+
+        InetSocketAddress address = new InetSocketAddress(HOST, port);
+        AtomicLong failed = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds + 1);
+        for (int i = 0; i < clientThreads; i++) {
+            Thread client = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try (SocketChannel channel = SocketChannel.open()) {
+                        channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                        channel.connect(address);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }, "storm-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        // Skip the first second as warm-up
+        Thread.sleep(1000);
+        long start = accepted.get();
+        long startTime = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        long count = accepted.get() - start;
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("%-9s ioThreads=%d clients=%d: %,.0f accepts/s (%d failed connects)%n",
+                reusePort ? "reuseport" : "single", ioThreads, clientThreads, count / elapsed, failed.get());
+        // Let the clients of this round finish before the next round starts
+        Thread.sleep(1000);
+    }
+}